@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Static helper methods for working with {@link BlockDevice}s.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class BlockDevices {
+
+    private BlockDevices() {
+        /* no instances */
+    }
+
+    /**
+     * Reads a batch of segments from a device. If the device is a
+     * {@link VectoredBlockDevice}, the whole batch is handed to the device,
+     * otherwise the segments are read one after the other.
+     *
+     * @param dev the device to read from
+     * @param devOffsets the device offsets where the segments start
+     * @param dests the buffers to read the segments into
+     * @throws IOException on read error
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @see VectoredBlockDevice#read(long[], java.nio.ByteBuffer[]) 
+     */
+    public static void read(BlockDevice dev,
+            long[] devOffsets, ByteBuffer[] dests)
+            throws IOException, IllegalArgumentException {
+
+        checkSegments(devOffsets, dests);
+        
+        if (dev instanceof VectoredBlockDevice) {
+            ((VectoredBlockDevice) dev).read(devOffsets, dests);
+        } else {
+            for (int i=0; i < devOffsets.length; i++) {
+                dev.read(devOffsets[i], dests[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of segments to a device. If the device is a
+     * {@link VectoredBlockDevice}, the whole batch is handed to the device,
+     * otherwise the segments are written one after the other.
+     *
+     * @param dev the device to write to
+     * @param devOffsets the device offsets where the segments start
+     * @param srcs the buffers holding the data to write
+     * @throws ReadOnlyException if the device is read-only
+     * @throws IOException on write error
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @see VectoredBlockDevice#write(long[], java.nio.ByteBuffer[]) 
+     */
+    public static void write(BlockDevice dev,
+            long[] devOffsets, ByteBuffer[] srcs)
+            throws ReadOnlyException, IOException, IllegalArgumentException {
+
+        checkSegments(devOffsets, srcs);
+        
+        if (dev instanceof VectoredBlockDevice) {
+            ((VectoredBlockDevice) dev).write(devOffsets, srcs);
+        } else {
+            for (int i=0; i < devOffsets.length; i++) {
+                dev.write(devOffsets[i], srcs[i]);
+            }
+        }
+    }
+    
+    /**
+     * Makes sure there is exactly one buffer for every device offset.
+     *
+     * @param devOffsets the segment offsets
+     * @param buffers the segment buffers
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public static void checkSegments(long[] devOffsets, ByteBuffer[] buffers)
+            throws IllegalArgumentException {
+        
+        if (devOffsets.length != buffers.length) {
+            throw new IllegalArgumentException(
+                    devOffsets.length + " offsets, but " +
+                    buffers.length + " buffers"); //NOI18N
+        }
+    }
+    
+}
@@ -19,6 +19,7 @@
 package de.waldheinz.fs;
 
 import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.FatMountOptions;
 import java.io.IOException;
 
 /**
@@ -50,4 +51,22 @@ public class FileSystemFactory {
         return FatFileSystem.read(device, readOnly);
     }
     
+    /**
+     * Creates a new {@link FileSystem} for the specified {@code device},
+     * using the specified mount options. The same care must be taken as
+     * with {@link #create(BlockDevice, boolean)}.
+     *
+     * @param device the device to create the file system for
+     * @param readOnly if the file system should be openend read-only
+     * @param options the options to use for mounting the file system
+     * @return a new {@code FileSystem} instance for the specified device
+     * @throws IOException on read error, or if the file system type could
+     *      not be determined
+     */
+    public static FileSystem create(BlockDevice device, boolean readOnly,
+            FatMountOptions options) throws IOException {
+            
+        return FatFileSystem.read(device, readOnly, options);
+    }
+    
 }
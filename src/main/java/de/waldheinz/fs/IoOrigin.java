@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs;
+
+/**
+ * Describes which part of a file system implementation caused an operation
+ * on a {@link BlockDevice}. File systems tag their device accesses by
+ * calling {@link #enter()} before and {@link #leave(IoOrigin)} after them,
+ * which allows {@code BlockDevice} implementations to find out the origin
+ * of the current operation using {@link #current()}:
+ * 
+ * <pre>
+ *  final IoOrigin prev = IoOrigin.FAT.enter();
+ *  
+ *  try {
+ *      device.write(offset, buffer);
+ *  } finally {
+ *      IoOrigin.leave(prev);
+ *  }
+ * </pre>
+ * 
+ * When tags are nested, the innermost one wins. For example, reading the
+ * FAT to find the clusters of a directory is accounted as {@link #FAT},
+ * even while the directory is being read. The origin is tracked per
+ * thread.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public enum IoOrigin {
+    
+    /**
+     * The file allocation table.
+     */
+    FAT,
+    
+    /**
+     * Single sectors holding file system metadata, like the boot sector or
+     * the FS info sector.
+     */
+    SECTOR,
+    
+    /**
+     * The contents of directories.
+     */
+    DIRECTORY,
+    
+    /**
+     * The contents of files.
+     */
+    FILE_DATA,
+    
+    /**
+     * The origin of the operation is not known, because it was not tagged.
+     */
+    UNKNOWN;
+    
+    private final static ThreadLocal<IoOrigin> CURRENT =
+            new ThreadLocal<IoOrigin>();
+    
+    /**
+     * Returns the origin of the device operations the current thread is
+     * performing.
+     * 
+     * @return the current origin, or {@link #UNKNOWN} if the operations
+     *      are not tagged
+     */
+    public static IoOrigin current() {
+        final IoOrigin result = CURRENT.get();
+        return (result == null) ? UNKNOWN : result;
+    }
+    
+    /**
+     * Marks the device operations of the current thread as coming from this
+     * origin, until the matching call to {@link #leave(IoOrigin)}. Every
+     * call to this method must
+     * be followed by a call to {@link #leave(IoOrigin)}, usually in a
+     * {@code finally} block.
+     * 
+     * @return the value to pass to {@link #leave(IoOrigin)}
+     */
+    public IoOrigin enter() {
+        final IoOrigin prev = CURRENT.get();
+        CURRENT.set(this);
+        return prev;
+    }
+    
+    /**
+     * Restores the origin which was current before the matching call to
+     * {@link #enter()}.
+     * 
+     * @param prev the value returned by {@link #enter()}
+     */
+    public static void leave(IoOrigin prev) {
+        if (prev == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(prev);
+        }
+    }
+    
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link BlockDevice} which can transfer a batch of segments, each made
+ * up of a device offset and a buffer, with a single call. This allows the
+ * device to reorder the segments and to merge segments which are adjacent
+ * on the device.
+ * 
+ * Callers should not check for this interface themselves, but use the
+ * methods in {@link BlockDevices} which fall back to transferring one
+ * segment at a time for devices not implementing this interface.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public interface VectoredBlockDevice extends BlockDevice {
+
+    /**
+     * Reads a batch of segments from this device. For every index {@code i},
+     * the buffer {@code dests[i]} is filled with the bytes starting at
+     * device offset {@code devOffsets[i]}, just like
+     * {@link #read(long, java.nio.ByteBuffer)} would do. The segments must
+     * not overlap, but may be given in any order.
+     *
+     * @param devOffsets the device offsets where the segments start
+     * @param dests the buffers to read the segments into
+     * @throws IOException on read error
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public void read(long[] devOffsets, ByteBuffer[] dests)
+            throws IOException, IllegalArgumentException;
+
+    /**
+     * Writes a batch of segments to this device. For every index {@code i},
+     * the remaining bytes of buffer {@code srcs[i]} are written starting at
+     * device offset {@code devOffsets[i]}, just like
+     * {@link #write(long, java.nio.ByteBuffer)} would do. The segments must
+     * not overlap, but may be given in any order.
+     *
+     * @param devOffsets the device offsets where the segments start
+     * @param srcs the buffers holding the data to write
+     * @throws ReadOnlyException if this {@code BlockDevice} is read-only
+     * @throws IOException on write error
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public void write(long[] devOffsets, ByteBuffer[] srcs)
+            throws ReadOnlyException, IOException, IllegalArgumentException;
+
+}
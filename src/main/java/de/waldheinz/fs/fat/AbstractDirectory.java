@@ -22,11 +22,17 @@ package de.waldheinz.fs.fat;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
  * This is the abstract base class for all directory implementations.
+ * 
+ * The directory is managed as a map of 32 byte slots, each of which either
+ * holds a {@link FatDirectoryEntry} or is free. Free slots (including the
+ * ones marked as deleted on disk) are reused when adding entries, and
+ * {@link #flush()} only writes the parts of the directory which contain
+ * modified slots.
  *
  * @author Ewout Prangsma &lt;epr at jnode.org&gt;
  * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
@@ -40,53 +46,99 @@ abstract class AbstractDirectory {
      */
     public static final int MAX_LABEL_LENGTH = 11;
     
-    private final List<FatDirectoryEntry> entries;
+    /**
+     * The slots of this directory, {@code null} elements denote free slots.
+     * There may be more slots on disk, which are known to be free because
+     * they follow the end-of-directory marker.
+     */
+    private final List<FatDirectoryEntry> slots;
+    
+    /**
+     * The slots holding an entry.
+     */
+    private final BitSet used;
+    
+    /**
+     * The slots which were modified since the last {@link #flush()}.
+     */
+    private final BitSet dirtySlots;
+    
+    /**
+     * The slots which were modified in a way that does not require a
+     * {@link #flush()}, but are written along with the next modification
+     * that does.
+     */
+    private final BitSet lazySlots;
+    
     private final boolean readOnly;
     private final boolean isRoot;
     private final FatType type;
     
+    /**
+     * The number of slots making up the unit in which the directory is
+     * written back, which is one sector of the device.
+     */
+    private final int slotsPerSector;
+    
     private boolean dirty;
+    private boolean loaded;
     private int capacity;
     private String volumeLabel;
+    private int labelSlot;
 
     /**
-     * Creates a new instance of {@code AbstractDirectory}.
+     * Creates a new instance of {@code AbstractDirectory}. Unless it is
+     * {@link #read() read} from the device, all of it's storage space is
+     * considered modified, so the first {@link #flush()} will initialize it.
      *
      * @param capacity the initial capacity of the new instance
      * @param readOnly if the instance should be read-only
      * @param isRoot if the new {@code AbstractDirectory} represents a root
      *      directory
+     * @param sectorSize the sector size of the device storing the directory
      */
-    protected AbstractDirectory(FatType type,
-            int capacity, boolean readOnly, boolean isRoot) {
+    protected AbstractDirectory(FatType type, int capacity,
+            boolean readOnly, boolean isRoot, int sectorSize) {
         
-        this.entries = new ArrayList<FatDirectoryEntry>();
+        this.slots = new ArrayList<FatDirectoryEntry>();
+        this.used = new BitSet();
+        this.dirtySlots = new BitSet();
+        this.lazySlots = new BitSet();
         this.type = type;
         this.capacity = capacity;
         this.readOnly = readOnly;
         this.isRoot = isRoot;
+        this.labelSlot = -1;
+        this.loaded = true;
+        this.slotsPerSector = Math.max(1, sectorSize / FatDirectoryEntry.SIZE);
+        this.dirtySlots.set(0, capacity);
     }
 
     /**
-     * Gets called when the {@code AbstractDirectory} must read it's content
-     * off the backing storage. This method must always fill the buffer's
-     * remaining space with the bytes making up this directory, beginning with
-     * the first byte.
+     * Gets called when the {@code AbstractDirectory} must read (a part of)
+     * it's content off the backing storage. This method must always fill the
+     * buffer's remaining space with the bytes making up this directory,
+     * beginning at the specified offset.
      *
+     * @param offset the offset into the directory storage, in bytes
      * @param data the {@code ByteBuffer} to fill
      * @throws IOException on read error
      */
-    protected abstract void read(ByteBuffer data) throws IOException;
+    protected abstract void read(long offset, ByteBuffer data)
+            throws IOException;
 
     /**
-     * Gets called when the {@code AbstractDirectory} wants to write it's
-     * contents to the backing storage. This method is expected to write the
-     * buffer's remaining data to the storage, beginning with the first byte.
+     * Gets called when the {@code AbstractDirectory} wants to write a part
+     * of it's contents to the backing storage. This method is expected to
+     * write the buffer's remaining data to the storage, beginning at the
+     * specified offset.
      *
+     * @param offset the offset into the directory storage, in bytes
      * @param data the {@code ByteBuffer} to write
      * @throws IOException on write error
      */
-    protected abstract void write(ByteBuffer data) throws IOException;
+    protected abstract void write(long offset, ByteBuffer data)
+            throws IOException;
 
     /**
      * Returns the number of the cluster where this directory is stored. This
@@ -109,18 +161,47 @@ abstract class AbstractDirectory {
      */
     protected abstract void changeSize(int entryCount)
             throws DirectoryFullException, IOException;
-            
+    
     /**
-     * Replaces all entries in this directory.
+     * Returns the number of bytes which should be read at once when the
+     * directory is {@link #read(long, ByteBuffer) read} in pieces.
      *
-     * @param newEntries the new directory entries
+     * @return the preferred read size in bytes
      */
-    public void setEntries(List<FatDirectoryEntry> newEntries) {
-        if (newEntries.size() > capacity)
-            throw new IllegalArgumentException("too many entries");
-        
-        this.entries.clear();
-        this.entries.addAll(newEntries);
+    protected int getChunkSize() {
+        return 4096;
+    }
+    
+    /**
+     * Tells this {@code AbstractDirectory} that it's contents are stored on
+     * the device, but should only be read when they are first needed. Until
+     * then, the directory holds no slots.
+     * 
+     * @see #load() 
+     */
+    final void readLazily() {
+        this.loaded = false;
+        this.dirtySlots.clear();
+        this.lazySlots.clear();
+    }
+    
+    /**
+     * Returns if the slots of this directory are in memory.
+     *
+     * @return if the directory contents were read
+     * @see #readLazily() 
+     */
+    public final boolean isLoaded() {
+        return this.loaded;
+    }
+    
+    /**
+     * Reads the contents of this directory, unless this already happened.
+     *
+     * @throws IOException on read error
+     */
+    public final void load() throws IOException {
+        if (!loaded) read();
     }
     
     /**
@@ -134,11 +215,34 @@ abstract class AbstractDirectory {
         if (newCount > Integer.MAX_VALUE)
             throw new IOException("directory too large");
         
+        /* newly allocated storage must be initialized */
+        
+        if (newCount > this.capacity) {
+            this.dirtySlots.set(this.capacity, (int) newCount);
+        }
+        
         this.capacity = (int) newCount;
     }
 
+    /**
+     * Returns the entry stored in the specified slot.
+     *
+     * @param idx the slot index
+     * @return the entry in that slot, or {@code null} if the slot is free
+     * @see #getSlotCount() 
+     */
     public final FatDirectoryEntry getEntry(int idx) {
-        return this.entries.get(idx);
+        return this.slots.get(idx);
+    }
+    
+    /**
+     * Returns the number of slots which may hold an entry. All slots from
+     * this index up to the {@link #getCapacity() capacity} are free.
+     *
+     * @return the number of slots up to the end-of-directory marker
+     */
+    public final int getSlotCount() {
+        return this.slots.size();
     }
     
     /**
@@ -154,12 +258,12 @@ abstract class AbstractDirectory {
 
     /**
      * The number of entries that are currently stored in this
-     * {@code AbstractDirectory}.
+     * {@code AbstractDirectory}, not counting the volume label.
      *
      * @return the current number of directory entries
      */
     public final int getEntryCount() {
-        return this.entries.size();
+        return getSize() - ((this.labelSlot >= 0) ? 1 : 0);
     }
     
     public boolean isReadOnly() {
@@ -178,7 +282,7 @@ abstract class AbstractDirectory {
      * @return the number of entries in this directory
      */
     public int getSize() {
-        return entries.size() + ((this.volumeLabel != null) ? 1 : 0);
+        return used.cardinality();
     }
     
     /**
@@ -187,6 +291,35 @@ abstract class AbstractDirectory {
     protected final void setDirty() {
         this.dirty = true;
     }
+    
+    /**
+     * Returns if this directory was {@link #setDirty() marked as dirty} or
+     * has slots which must be written.
+     *
+     * @return if this directory must be flushed
+     */
+    final boolean isDirty() {
+        return this.dirty || !this.dirtySlots.isEmpty();
+    }
+    
+    /**
+     * Tells that the entry stored in the specified slot was modified.
+     *
+     * @param idx the index of the modified slot
+     */
+    final void slotChanged(int idx) {
+        dirtySlots.set(idx);
+    }
+    
+    /**
+     * Tells that the entry stored in the specified slot was modified, but
+     * need not be written unless other slots are written as well.
+     *
+     * @param idx the index of the modified slot
+     */
+    final void slotTouched(int idx) {
+        lazySlots.set(idx);
+    }
 
     /**
      * Checks if this {@code AbstractDirectory} is a root directory.
@@ -209,43 +342,69 @@ abstract class AbstractDirectory {
     }
     
     /**
-     * Flush the contents of this directory to the persistent storage
+     * Flush the contents of this directory to the persistent storage. Only
+     * the sectors containing slots which were modified since the last flush
+     * are written. Slots which were only {@link #slotTouched(int) touched}
+     * are written when other slots are written, too.
+     * 
+     * @throws IOException on write error
      */
     public void flush() throws IOException {
+        if (!dirtySlots.isEmpty()) {
+            dirtySlots.or(lazySlots);
+            lazySlots.clear();
+        }
         
-        final ByteBuffer data = ByteBuffer.allocate(
-                getCapacity() * FatDirectoryEntry.SIZE + (volumeLabel != null ? FatDirectoryEntry.SIZE : 0));
+        final int limit = Math.max(capacity, slots.size());
+        final BitSet sectors = new BitSet();
         
-        for (FatDirectoryEntry entry : this.entries) {
-            if (entry != null) {
-                entry.write(data);
-            }
+        for (int i = dirtySlots.nextSetBit(0); i >= 0 && i < limit;
+                i = dirtySlots.nextSetBit(i + 1)) {
+            
+            sectors.set(i / slotsPerSector);
         }
         
-        /* TODO: the label could be placed directly the dot entries */
+        int from = sectors.nextSetBit(0);
         
-        if (this.volumeLabel != null) {
-            final FatDirectoryEntry labelEntry =
-                    FatDirectoryEntry.createVolumeLabel(type, volumeLabel);
-
-            labelEntry.write(data);
+        while (from >= 0) {
+            final int to = sectors.nextClearBit(from);
+            final int first = from * slotsPerSector;
+            final int last = Math.min(limit, to * slotsPerSector);
+            final ByteBuffer data = ByteBuffer.allocate(
+                    (last - first) * FatDirectoryEntry.SIZE);
+            
+            for (int i=first; i < last; i++) {
+                writeSlot(i, data);
+            }
+            
+            data.flip();
+            
+            write((long) first * FatDirectoryEntry.SIZE, data);
+            
+            from = sectors.nextSetBit(to);
         }
         
-        if (data.hasRemaining()) {
+        dirtySlots.clear();
+        resetDirty();
+    }
+    
+    private void writeSlot(int idx, ByteBuffer data) {
+        if (idx >= slots.size()) {
+            /* the end-of-directory marker and the space following it */
             FatDirectoryEntry.writeNullEntry(data);
+        } else if (!used.get(idx)) {
+            FatDirectoryEntry.writeDeletedEntry(data);
+        } else {
+            slots.get(idx).write(data);
         }
-
-        data.flip();
-        
-        write(data);
-        resetDirty();
     }
     
     protected final void read() throws IOException {
         final ByteBuffer data = ByteBuffer.allocate(
                 getCapacity() * FatDirectoryEntry.SIZE);
                 
-        read(data);
+        read(0, data);
+
         data.flip();
         
         for (int i=0; i < getCapacity(); i++) {
@@ -254,42 +413,126 @@ abstract class AbstractDirectory {
             
             if (e == null) break;
             
+            if (e.isDeleted()) {
+                slots.add(null);
+                continue;
+            }
+            
             if (e.isVolumeLabel()) {
                 if (!this.isRoot) throw new IOException(
                         "volume label in non-root directory");
                 
                 this.volumeLabel = e.getVolumeLabel();
-            } else {
-                entries.add(e);
+                this.labelSlot = i;
             }
+            
+            e.setSlot(this, i);
+            used.set(i);
+            slots.add(e);
         }
+        
+        this.dirtySlots.clear();
+        this.lazySlots.clear();
+        this.loaded = true;
     }
     
     public void addEntry(FatDirectoryEntry e) throws IOException {
         assert (e != null);
         
-        if (getSize() == getCapacity()) {
-            changeSize(getCapacity() + 1);
-        }
-
-        entries.add(e);
+        addEntries(new FatDirectoryEntry[] { e });
     }
     
-    public void addEntries(FatDirectoryEntry[] entries)
+    /**
+     * Stores the specified entries in consecutive slots of this directory.
+     * Free slots are reused if possible, otherwise the entries are appended
+     * and the directory grows if necessary. If this method throws an
+     * exception, the directory is left unchanged.
+     *
+     * @param entries the entries to add
+     * @return the index of the slot the first entry was stored in
+     * @throws IOException on error growing the directory
+     */
+    public int addEntries(FatDirectoryEntry[] entries)
             throws IOException {
         
-        if (getSize() + entries.length > getCapacity()) {
-            changeSize(getSize() + entries.length);
+        load();
+        
+        final int first = findFreeSlots(entries.length);
+        final int end = first + entries.length;
+        
+        if (end > getCapacity()) {
+            changeSize(end);
+        }
+        
+        if (end > slots.size()) {
+            /* moves the end-of-directory marker */
+            dirtySlots.set(slots.size(), end + 1);
+            
+            while (slots.size() < end) {
+                slots.add(null);
+            }
+        }
+        
+        for (int i=0; i < entries.length; i++) {
+            slots.set(first + i, entries[i]);
+            entries[i].setSlot(this, first + i);
+        }
+        
+        used.set(first, end);
+        dirtySlots.set(first, end);
+        
+        return first;
+    }
+    
+    /**
+     * Frees a range of slots, marking them as deleted.
+     *
+     * @param first the index of the first slot to free
+     * @param count the number of slots to free
+     */
+    public void freeSlots(int first, int count) {
+        for (int i=first; i < first + count; i++) {
+            final FatDirectoryEntry e = slots.set(i, null);
+            if (e != null && e.getSlot(this) == i) e.setSlot(null, -1);
+        }
+        
+        used.clear(first, first + count);
+        dirtySlots.set(first, first + count);
+        
+        if (labelSlot >= first && labelSlot < first + count) {
+            this.labelSlot = -1;
+            this.volumeLabel = null;
         }
-
-        this.entries.addAll(Arrays.asList(entries));
     }
     
     public void removeEntry(FatDirectoryEntry entry) throws IOException {
         assert (entry != null);
         
-        this.entries.remove(entry);
-        changeSize(getSize());
+        final int idx = entry.getSlot(this);
+        if (idx >= 0) freeSlots(idx, 1);
+    }
+    
+    /**
+     * Finds the first run of free slots which is long enough to hold the
+     * specified number of entries. If there is no such run, the index
+     * following the last used slot is returned.
+     *
+     * @param count the number of slots needed
+     * @return the index of the first slot of the run
+     */
+    private int findFreeSlots(int count) {
+        final int end = used.length();
+        int start = used.nextClearBit(0);
+        
+        while (start < end) {
+            final int next = used.nextSetBit(start);
+            
+            if (next - start >= count) return start;
+            
+            start = used.nextClearBit(next);
+        }
+        
+        return end;
     }
 
     /**
@@ -362,20 +605,25 @@ abstract class AbstractDirectory {
         if (label != null && label.length() > MAX_LABEL_LENGTH) throw new
                 IllegalArgumentException("label too long");
 
-        if (this.volumeLabel != null) {
+        if (label != null) {
+            ShortName.checkValidChars(label.getBytes(ShortName.ASCII));
+        }
+        
+        if (this.labelSlot >= 0) {
             if (label == null) {
-                changeSize(getSize() - 1);
-                this.volumeLabel = null;
+                freeSlots(this.labelSlot, 1);
             } else {
-                ShortName.checkValidChars(label.getBytes(ShortName.ASCII));
-                this.volumeLabel = label;
-            }
-        } else {
-            if (label != null) {
-                changeSize(getSize() + 1);
-                ShortName.checkValidChars(label.getBytes(ShortName.ASCII));
+                final FatDirectoryEntry e =
+                        FatDirectoryEntry.createVolumeLabel(type, label);
+                slots.set(labelSlot, e).setSlot(null, -1);
+                e.setSlot(this, labelSlot);
+                dirtySlots.set(labelSlot);
                 this.volumeLabel = label;
             }
+        } else if (label != null) {
+            this.labelSlot = addEntries(new FatDirectoryEntry[] {
+                FatDirectoryEntry.createVolumeLabel(type, label) });
+            this.volumeLabel = label;
         }
         
         this.dirty = true;
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+/**
+ * Enumerates the policies a {@link FatFileSystem} can use to update the
+ * "last accessed" field of a file's directory entry when the file is read.
+ * FAT only records the date a file was last accessed, not the time, so
+ * rewriting the entry on every read gains nothing. Writing to a file always
+ * updates the field, unless the policy is {@link #NEVER}.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatMountOptions#setAccessTimePolicy(AccessTimePolicy)
+ */
+public enum AccessTimePolicy {
+
+    /**
+     * Never updates the "last accessed" field, neither when reading nor
+     * when writing a file.
+     */
+    NEVER,
+
+    /**
+     * Updates the "last accessed" field when a file is first read on a day.
+     * Further reads on the same day do not modify the directory entry. This
+     * records the same information as updating the field on every read
+     * and is the default.
+     */
+    DAILY,
+
+    /**
+     * Updates the "last accessed" field in memory only. The new date is
+     * written to the device when the directory holding the file is written
+     * because of another change, no matter which of it's entries changed.
+     * The new date is lost if there is no such change before the file
+     * system is closed or the directory is dropped from memory.
+     */
+    LAZY;
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+/**
+ * Enumerates the strategies a {@link FatFileSystem} can use to choose the
+ * free clusters for a file. All strategies try to place the clusters
+ * requested at once in a single run of free clusters. If there is no run
+ * which is large enough, the largest available run is used and the search
+ * is repeated for the remaining clusters.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatMountOptions#setAllocationStrategy(AllocationStrategy)
+ */
+public enum AllocationStrategy {
+
+    /**
+     * Uses the first run of free clusters that is large enough, searching
+     * from the start of the data area.
+     */
+    FIRST_FIT,
+
+    /**
+     * Uses the smallest run of free clusters that is large enough. This
+     * keeps large runs available for large files, but has to look at all
+     * free runs.
+     */
+    BEST_FIT,
+
+    /**
+     * Uses the first run of free clusters that is large enough, searching
+     * from the cluster that was last allocated. This is the default.
+     */
+    NEXT_FIT;
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.IoOrigin;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A {@link FatStorage} which keeps the whole FAT in memory. The entries are
+ * stored in their on-disk representation, so reading and writing the FAT
+ * does not require to decode or encode the entries.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+final class ArrayFatStorage extends FatStorage {
+
+    /**
+     * The raw bytes of the FAT, exactly as they are stored on the device.
+     */
+    private final byte[] data;
+
+    /**
+     * Remembers which sectors of the FAT were modified since the
+     * last {@link #flush() flush}.
+     */
+    private final BitSet dirtySectors;
+
+    ArrayFatStorage(BootSector bs, long offset,
+            int sectorCount, int sectorSize) {
+
+        super(bs, offset, sectorCount, sectorSize);
+
+        this.data = new byte[sectorCount * sectorSize];
+        this.dirtySectors = new BitSet(sectorCount);
+    }
+
+    /**
+     * Reads the contents of the FAT from the device.
+     *
+     * @throws IOException on read error
+     */
+    @Override
+    public void read() throws IOException {
+        final IoOrigin prev = IoOrigin.FAT.enter();
+
+        try {
+            device.read(offset, ByteBuffer.wrap(data));
+        } finally {
+            IoOrigin.leave(prev);
+        }
+
+        dirtySectors.clear();
+    }
+
+    @Override
+    public long getEntry(int index) {
+        return fatType.readEntry(data, index);
+    }
+
+    @Override
+    public void setEntry(int index, long value) {
+        fatType.writeEntry(data, index, value);
+
+        final int first = (int) (index * fatType.getEntrySize());
+        final int last = first + (int) Math.ceil(fatType.getEntrySize()) - 1;
+        dirtySectors.set(first / sectorSize, last / sectorSize + 1);
+    }
+
+    @Override
+    public void writeCopy(long offset) throws IOException {
+        final IoOrigin prev = IoOrigin.FAT.enter();
+
+        try {
+            device.write(offset, ByteBuffer.wrap(data));
+        } finally {
+            IoOrigin.leave(prev);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final List<Integer> runs = new ArrayList<Integer>();
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        int from = dirtySectors.nextSetBit(0);
+
+        while (from >= 0) {
+            final int to = dirtySectors.nextClearBit(from);
+            
+            runs.add(from);
+            buffers.add(ByteBuffer.wrap(data,
+                    from * sectorSize, (to - from) * sectorSize).slice());
+            
+            from = dirtySectors.nextSetBit(to);
+        }
+        
+        final int[] sectors = new int[runs.size()];
+        
+        for (int i=0; i < sectors.length; i++) {
+            sectors[i] = runs.get(i);
+        }
+        
+        writeToCopies(sectors, buffers.toArray(new ByteBuffer[0]));
+        dirtySectors.clear();
+    }
+
+    @Override
+    public boolean contentEquals(FatStorage other) throws IOException {
+        if (other instanceof ArrayFatStorage) {
+            return Arrays.equals(this.data, ((ArrayFatStorage) other).data);
+        }
+
+        return super.contentEquals(other);
+    }
+
+}
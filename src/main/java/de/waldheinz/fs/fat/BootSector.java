@@ -20,6 +20,7 @@
 package de.waldheinz.fs.fat;
 
 import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.IoOrigin;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -74,7 +75,14 @@ abstract class BootSector extends Sector {
     public static BootSector read(BlockDevice device) throws IOException {
         final ByteBuffer bb = ByteBuffer.allocate(512);
         bb.order(ByteOrder.LITTLE_ENDIAN);
-        device.read(0, bb);
+
+        final IoOrigin prev = IoOrigin.SECTOR.enter();
+
+        try {
+            device.read(0, bb);
+        } finally {
+            IoOrigin.leave(prev);
+        }
         
         if ((bb.get(510) & 0xff) != 0x55 ||
                 (bb.get(511) & 0xff) != 0xaa) throw new IOException(
@@ -20,6 +20,8 @@ package de.waldheinz.fs.fat;
 
 import de.waldheinz.fs.AbstractFsObject;
 import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
+import de.waldheinz.fs.IoOrigin;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -38,6 +40,17 @@ final class ClusterChain extends AbstractFsObject {
     
     private long startCluster;
     
+    /**
+     * The extents of this chain, read from the FAT when first needed and
+     * updated when the chain length changes.
+     */
+    private ClusterExtents extents;
+    
+    /**
+     * The origin the data transfers of this chain are accounted to.
+     */
+    private IoOrigin origin;
+    
     /**
      * Creates a new {@code ClusterChain} that contains no clusters.
      *
@@ -45,10 +58,19 @@ final class ClusterChain extends AbstractFsObject {
      * @param readOnly if the chain should be created read-only
      */
     public ClusterChain(Fat fat, boolean readOnly) {
-        this(fat, 0, readOnly);
+        super(readOnly);
+        
+        this.fat = fat;
+        this.device = fat.getDevice();
+        this.dataOffset = fat.getBootSector().getFilesOffset();
+        this.startCluster = 0;
+        this.clusterSize = fat.getBootSector().getBytesPerCluster();
+        this.origin = IoOrigin.FILE_DATA;
     }
     
-    public ClusterChain(Fat fat, long startCluster, boolean readOnly) {
+    public ClusterChain(Fat fat, long startCluster, boolean readOnly)
+            throws IOException {
+        
         super(readOnly);
         
         this.fat = fat;
@@ -65,6 +87,20 @@ final class ClusterChain extends AbstractFsObject {
         this.dataOffset = fat.getBootSector().getFilesOffset();
         this.startCluster = startCluster;
         this.clusterSize = fat.getBootSector().getBytesPerCluster();
+        this.origin = IoOrigin.FILE_DATA;
+    }
+    
+    /**
+     * Sets the origin the data transfers of this chain are accounted to.
+     * The default is {@link IoOrigin#FILE_DATA}. Accessing the FAT to find
+     * the clusters is always accounted as {@link IoOrigin#FAT}.
+     *
+     * @param origin the new origin for data transfers
+     */
+    void setIoOrigin(IoOrigin origin) {
+        if (origin == null) throw new NullPointerException();
+        
+        this.origin = origin;
     }
     
     public int getClusterSize() {
@@ -89,6 +125,21 @@ final class ClusterChain extends AbstractFsObject {
         return startCluster;
     }
     
+    /**
+     * Returns the extents of this chain, reading them from the FAT if
+     * necessary. This must not be called for an empty chain.
+     *
+     * @return the extents of this chain
+     * @throws IOException on error reading the FAT
+     */
+    private ClusterExtents getExtents() throws IOException {
+        if (this.extents == null) {
+            this.extents = ClusterExtents.read(fat, startCluster);
+        }
+        
+        return this.extents;
+    }
+    
     /**
      * Calculates the device offset (0-based) for the given cluster and offset
      * within the cluster.
@@ -107,8 +158,9 @@ final class ClusterChain extends AbstractFsObject {
      * Returns the size this {@code ClusterChain} occupies on the device.
      *
      * @return the size this chain occupies on the device in bytes
+     * @throws IOException on error reading the FAT
      */
-    public long getLengthOnDisk() {
+    public long getLengthOnDisk() throws IOException {
         if (getStartCluster() == 0) return 0;
         
         return getChainLength() * clusterSize;
@@ -139,12 +191,12 @@ final class ClusterChain extends AbstractFsObject {
      * Determines the length of this {@code ClusterChain} in clusters.
      *
      * @return the length of this chain
+     * @throws IOException on error reading the FAT
      */
-    public int getChainLength() {
+    public int getChainLength() throws IOException {
         if (getStartCluster() == 0) return 0;
         
-        final long[] chain = getFat().getChain(getStartCluster());
-        return chain.length;
+        return getExtents().getClusterCount();
     }
 
     /**
@@ -164,72 +216,80 @@ final class ClusterChain extends AbstractFsObject {
         } else if ((this.startCluster == 0) && (nrClusters > 0)) {
             final long[] chain = fat.allocNew(nrClusters);
             this.startCluster = chain[0];
+            this.extents = new ClusterExtents();
+            
+            for (long c : chain) {
+                extents.append(c);
+            }
         } else {
-            final long[] chain = fat.getChain(startCluster);
+            final ClusterExtents ext = getExtents();
+            final int length = ext.getClusterCount();
             
-            if (nrClusters != chain.length) {
-                if (nrClusters > chain.length) {
-                    /* grow the chain */
-                    int count = nrClusters - chain.length;
-                    
-                    while (count > 0) {
-                        fat.allocAppend(getStartCluster());
-                        count--;
-                    }
+            if (nrClusters > length) {
+                /* grow the chain */
+                final long[] added = fat.allocAppend(
+                        ext.getLastCluster(), nrClusters - length);
+
+                for (long c : added) {
+                    ext.append(c);
+                }
+            } else if (nrClusters < length) {
+                /* shrink the chain */
+                if (nrClusters > 0) {
+                    fat.setEof(ext.getCluster(nrClusters - 1));
+                }
+
+                for (int i = nrClusters; i < length; i++) {
+                    fat.setFree(ext.getCluster(i));
+                }
+
+                if (nrClusters > 0) {
+                    ext.truncate(nrClusters);
                 } else {
-                    /* shrink the chain */
-                    if (nrClusters > 0) {
-                        fat.setEof(chain[nrClusters - 1]);
-                        for (int i = nrClusters; i < chain.length; i++) {
-                            fat.setFree(chain[i]);
-                        }
-                    } else {
-                        for (int i=0; i < chain.length; i++) {
-                            fat.setFree(chain[i]);
-                        }
-                        
-                        this.startCluster = 0;
-                    }
+                    this.startCluster = 0;
+                    this.extents = null;
                 }
             }
         }
     }
     
+    /**
+     * Reads data from this cluster chain. Clusters which are stored next to
+     * each other on the device are read with a single device operation,
+     * as long as the {@link Fat#getMaxTransferSize() maximum transfer size}
+     * is not exceeded. All resulting transfers are handed to the device as
+     * one batch.
+     *
+     * @param offset the offset where to start reading
+     * @param dest the buffer to read into
+     * @throws IOException on read error
+     * @see BlockDevices#read(BlockDevice, long[], ByteBuffer[]) 
+     */
     public void readData(long offset, ByteBuffer dest)
             throws IOException {
 
-        int len = dest.remaining();
+        final int len = dest.remaining();
 
         if ((startCluster == 0 && len > 0)) {
             throw new EOFException("cannot read from empty cluster chain");
         }
         
-        final long[] chain = getFat().getChain(startCluster);
-        final BlockDevice dev = getDevice();
-
-        int chainIdx = (int) (offset / clusterSize);
+        final ClusterExtents chain = getExtents();
+        final int count = getSegments(chain, offset, dest, null, null);
+        final long[] devOffsets = new long[count];
+        final ByteBuffer[] buffers = new ByteBuffer[count];
         
-        if (offset % clusterSize != 0) {
-            int clusOfs = (int) (offset % clusterSize);
-            int size = Math.min(len,
-                    (int) (clusterSize - (offset % clusterSize)));
-            dest.limit(dest.position() + size);
-
-            dev.read(getDevOffset(chain[chainIdx], clusOfs), dest);
-            
-            len -= size;
-            chainIdx++;
-        }
-
-        while (len > 0) {
-            int size = Math.min(clusterSize, len);
-            dest.limit(dest.position() + size);
+        getSegments(chain, offset, dest, devOffsets, buffers);
 
-            dev.read(getDevOffset(chain[chainIdx], 0), dest);
+        final IoOrigin prev = origin.enter();
 
-            len -= size;
-            chainIdx++;
+        try {
+            BlockDevices.read(device, devOffsets, buffers);
+        } finally {
+            IoOrigin.leave(prev);
         }
+
+        dest.position(dest.limit());
     }
     
     /**
@@ -238,14 +298,20 @@ final class ClusterChain extends AbstractFsObject {
      * an exception, the buffer's {@link ByteBuffer#position() position} will
      * equal it's {@link ByteBuffer#limit() limit}, and the limit will not
      * have changed. This is not guaranteed if writing fails.
+     * 
+     * Clusters which are stored next to each other on the device are written
+     * with a single device operation, as long as the
+     * {@link Fat#getMaxTransferSize() maximum transfer size} is not exceeded.
+     * All resulting transfers are handed to the device as one batch.
      *
      * @param offset the offset where to write the first byte from the buffer
      * @param srcBuf the buffer to write to this {@code ClusterChain}
      * @throws IOException on write error
+     * @see BlockDevices#write(BlockDevice, long[], ByteBuffer[]) 
      */
     public void writeData(long offset, ByteBuffer srcBuf) throws IOException {
         
-        int len = srcBuf.remaining();
+        final int len = srcBuf.remaining();
 
         if (len == 0) return;
 
@@ -254,32 +320,88 @@ final class ClusterChain extends AbstractFsObject {
             setSize(minSize);
         }
         
-        final long[] chain = fat.getChain(getStartCluster());
+        final ClusterExtents chain = getExtents();
+        final int count = getSegments(chain, offset, srcBuf, null, null);
+        final long[] devOffsets = new long[count];
+        final ByteBuffer[] buffers = new ByteBuffer[count];
+
+        getSegments(chain, offset, srcBuf, devOffsets, buffers);
 
+        final IoOrigin prev = origin.enter();
+
+        try {
+            BlockDevices.write(device, devOffsets, buffers);
+        } finally {
+            IoOrigin.leave(prev);
+        }
+
+        srcBuf.position(srcBuf.limit());
+    }
+    
+    /**
+     * Splits a transfer into the segments which can be transferred with a
+     * single device operation. If the arrays are {@code null}, the segments
+     * are only counted.
+     *
+     * @param chain the chain extents
+     * @param offset the offset within the chain where the transfer starts
+     * @param buf the buffer holding the bytes to transfer
+     * @param devOffsets receives the device offset of each segment
+     * @param buffers receives a view of {@code buf} for each segment
+     * @return the number of segments
+     */
+    private int getSegments(ClusterExtents chain, long offset, ByteBuffer buf,
+            long[] devOffsets, ByteBuffer[] buffers) {
+        
+        int len = buf.remaining();
+        int pos = buf.position();
         int chainIdx = (int) (offset / clusterSize);
+        int clusOfs = (int) (offset % clusterSize);
+        int count = 0;
         
-        if (offset % clusterSize != 0) {
-            int clusOfs = (int) (offset % clusterSize);
-            int size = Math.min(len,
-                    (int) (clusterSize - (offset % clusterSize)));
-            srcBuf.limit(srcBuf.position() + size);
+        while (len > 0) {
+            final int size = getTransferSize(chain, chainIdx, clusOfs, len);
             
-            device.write(getDevOffset(chain[chainIdx], clusOfs), srcBuf);
+            if (devOffsets != null) {
+                devOffsets[count] = getDevOffset(
+                        chain.getCluster(chainIdx), clusOfs);
+                buffers[count] = buf.duplicate();
+                buffers[count].limit(pos + size);
+                buffers[count].position(pos);
+            }
             
+            count++;
+            pos += size;
             len -= size;
-            chainIdx++;
+            chainIdx += (clusOfs + size) / clusterSize;
+            clusOfs = 0;
         }
         
-        while (len > 0) {
-            int size = Math.min(clusterSize, len);
-            srcBuf.limit(srcBuf.position() + size);
-
-            device.write(getDevOffset(chain[chainIdx], 0), srcBuf);
-
-            len -= size;
-            chainIdx++;
-        }
+        return count;
+    }
+    
+    /**
+     * Determines how many bytes can be transferred with a single device
+     * operation, starting at the specified position in the chain. The
+     * transfer ends at the end of the run of consecutive clusters, the
+     * maximum transfer size (rounded down to full clusters, but at least one
+     * cluster) or after {@code len} bytes, whatever comes first.
+     *
+     * @param chain the chain extents
+     * @param chainIdx the position of the first cluster within the chain
+     * @param clusOfs the offset within the first cluster
+     * @param len the number of bytes remaining to transfer
+     * @return the number of bytes for the next device operation
+     */
+    private int getTransferSize(ClusterExtents chain,
+            int chainIdx, int clusOfs, int len) {
+        
+        final int maxClusters = Math.max(1,
+                fat.getMaxTransferSize() / clusterSize);
+        final int clusters = Math.min(maxClusters,
+                chain.getRunLength(chainIdx));
         
+        return (int) Math.min(len, (long) clusters * clusterSize - clusOfs);
     }
 
     @Override
@@ -19,6 +19,7 @@
  
 package de.waldheinz.fs.fat;
 
+import de.waldheinz.fs.IoOrigin;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -45,14 +46,18 @@ class ClusterChainDirectory extends AbstractDirectory {
      */
     final ClusterChain chain;
     
-    protected ClusterChainDirectory(ClusterChain chain, boolean isRoot) {
+    protected ClusterChainDirectory(ClusterChain chain, boolean isRoot)
+            throws IOException {
+        
         
         super(
                 chain.getFat().getFatType(),
                 (int)(chain.getLengthOnDisk() / FatDirectoryEntry.SIZE),
-                chain.isReadOnly(), isRoot);
+                chain.isReadOnly(), isRoot,
+                chain.getDevice().getSectorSize());
         
-        this.chain = chain;   
+        this.chain = chain;
+        this.chain.setIoOrigin(IoOrigin.DIRECTORY);
     }
     
     public static ClusterChainDirectory readRoot(
@@ -86,22 +91,28 @@ class ClusterChainDirectory extends AbstractDirectory {
     }
     
     @Override
-    protected final void read(ByteBuffer data) throws IOException {
-        this.chain.readData(0, data);
+    protected final void read(long offset, ByteBuffer data)
+            throws IOException {
+        
+        this.chain.readData(offset, data);
+    }
+    
+    /**
+     * Returns the cluster size, so lazy enumeration reads this directory
+     * cluster by cluster.
+     *
+     * @return the number of bytes per cluster
+     */
+    @Override
+    protected int getChunkSize() {
+        return chain.getClusterSize();
     }
 
     @Override
-    protected final void write(ByteBuffer data) throws IOException {
-        final int toWrite = data.remaining();
-        chain.writeData(0, data);
-        final long trueSize = chain.getLengthOnDisk();
+    protected final void write(long offset, ByteBuffer data)
+            throws IOException {
         
-        /* TODO: check if the code below is really needed */
-        if (trueSize > toWrite) {
-            final int rest = (int) (trueSize - toWrite);
-            final ByteBuffer fill = ByteBuffer.allocate(rest);
-            chain.writeData(toWrite, fill);
-        }
+        this.chain.writeData(offset, data);
     }
 
     /**
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A run-length encoded representation of a cluster chain. Each extent is a
+ * run of consecutive clusters, so a chain which is not fragmented needs only
+ * a single extent regardless of it's length. Looking up the cluster at a
+ * given position of the chain is a binary search over the extents.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see ClusterChain
+ */
+final class ClusterExtents {
+    
+    /**
+     * The first cluster of each extent.
+     */
+    private long[] starts;
+    
+    /**
+     * The position of each extent's first cluster within the chain.
+     */
+    private int[] positions;
+    
+    private int extentCount;
+    private int clusterCount;
+    
+    /**
+     * Creates a new, empty {@code ClusterExtents} instance.
+     */
+    ClusterExtents() {
+        this.starts = new long[4];
+        this.positions = new int[4];
+    }
+    
+    /**
+     * Reads the extents of a cluster chain by following the chain in the
+     * specified {@code Fat}.
+     *
+     * @param fat the {@code Fat} holding the chain
+     * @param startCluster the first cluster of the chain
+     * @return the extents of the chain
+     * @throws IOException on read error or if the chain contains a loop
+     */
+    public static ClusterExtents read(Fat fat, long startCluster)
+            throws IOException {
+        
+        final ClusterExtents result = new ClusterExtents();
+        final int maxLength = fat.getBootSector().getDataClusterCount() >
+                Integer.MAX_VALUE ? Integer.MAX_VALUE :
+                (int) fat.getBootSector().getDataClusterCount();
+        
+        long cluster = startCluster;
+        
+        while (cluster != -1) {
+            if (result.clusterCount == maxLength) throw new IOException(
+                    "cluster chain starting at " + startCluster +
+                    " contains a loop"); //NOI18N
+            
+            result.append(cluster);
+            cluster = fat.getNextCluster(cluster);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Returns the number of clusters in the chain.
+     *
+     * @return the chain length in clusters
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+    
+    /**
+     * Returns the number of runs of consecutive clusters the chain consists
+     * of.
+     *
+     * @return the number of extents
+     */
+    public int getExtentCount() {
+        return extentCount;
+    }
+    
+    /**
+     * Returns the cluster at the specified position of the chain.
+     *
+     * @param index the position within the chain, 0-based
+     * @return the cluster number
+     * @throws IndexOutOfBoundsException if the index is not within the chain
+     */
+    public long getCluster(int index) throws IndexOutOfBoundsException {
+        if ((index < 0) || (index >= clusterCount))
+            throw new IndexOutOfBoundsException(
+                    "index " + index + " of " + clusterCount); //NOI18N
+        
+        final int e = findExtent(index);
+        return starts[e] + (index - positions[e]);
+    }
+    
+    /**
+     * Returns the last cluster of the chain.
+     *
+     * @return the last cluster
+     * @throws IndexOutOfBoundsException if the chain is empty
+     */
+    public long getLastCluster() throws IndexOutOfBoundsException {
+        return getCluster(clusterCount - 1);
+    }
+    
+    /**
+     * Returns the number of physically consecutive clusters in the chain,
+     * starting at the specified position. This is at least 1 for every
+     * valid position.
+     *
+     * @param index the position within the chain, 0-based
+     * @return the number of consecutive clusters starting at the position
+     * @throws IndexOutOfBoundsException if the index is not within the chain
+     */
+    public int getRunLength(int index) throws IndexOutOfBoundsException {
+        if ((index < 0) || (index >= clusterCount))
+            throw new IndexOutOfBoundsException(
+                    "index " + index + " of " + clusterCount); //NOI18N
+        
+        final int e = findExtent(index);
+        final int end = (e + 1 < extentCount) ?
+            positions[e + 1] : clusterCount;
+        
+        return end - index;
+    }
+    
+    /**
+     * Appends a cluster to the chain. If the cluster directly follows the
+     * last cluster of the chain, the last extent is extended.
+     *
+     * @param cluster the cluster to append
+     */
+    public void append(long cluster) {
+        if ((extentCount > 0) && (cluster == starts[extentCount - 1] +
+                (clusterCount - positions[extentCount - 1]))) {
+            
+            clusterCount++;
+            return;
+        }
+        
+        if (extentCount == starts.length) {
+            this.starts = Arrays.copyOf(starts, extentCount * 2);
+            this.positions = Arrays.copyOf(positions, extentCount * 2);
+        }
+        
+        starts[extentCount] = cluster;
+        positions[extentCount] = clusterCount;
+        extentCount++;
+        clusterCount++;
+    }
+    
+    /**
+     * Shortens the chain to the specified number of clusters.
+     *
+     * @param length the new chain length in clusters
+     * @throws IllegalArgumentException if the length is negative or greater
+     *      than the current chain length
+     */
+    public void truncate(int length) throws IllegalArgumentException {
+        if ((length < 0) || (length > clusterCount))
+            throw new IllegalArgumentException(
+                    "invalid length " + length); //NOI18N
+        
+        if (length == 0) {
+            this.extentCount = 0;
+        } else {
+            this.extentCount = findExtent(length - 1) + 1;
+        }
+        
+        this.clusterCount = length;
+    }
+    
+    /**
+     * Returns the extent holding the specified chain position.
+     *
+     * @param index the position within the chain
+     * @return the index of the extent
+     */
+    private int findExtent(int index) {
+        final int pos = Arrays.binarySearch(positions, 0, extentCount, index);
+        return (pos >= 0) ? pos : -(pos + 1) - 1;
+    }
+    
+}
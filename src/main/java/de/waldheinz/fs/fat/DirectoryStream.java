@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.FsDirectoryEntry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Enumerates the entries of a {@link FatLfnDirectory} straight from the
+ * device, without reading the whole directory into memory. The directory is
+ * read in {@link AbstractDirectory#getChunkSize() chunks}, and the long file
+ * name parts are decoded directly from the chunk buffer. Only the real
+ * (8.3) entries are copied out of the buffer, to back the
+ * {@link FatLfnDirectoryEntry} instances which are returned.
+ * 
+ * The entries returned by this iterator are <em>detached</em>: they are not
+ * part of the directory's index until they are modified.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatLfnDirectory#attach(FatLfnDirectoryEntry) 
+ */
+final class DirectoryStream implements Iterator<FsDirectoryEntry> {
+    
+    /**
+     * The number of characters stored in one LFN part.
+     */
+    private final static int PART_CHARS = 13;
+    
+    private static final int F_VOLUME_ID = 0x08;
+    private static final int F_DIRECTORY = 0x10;
+    private static final int F_LFN = 0x0f;
+    
+    private final FatLfnDirectory parent;
+    private final AbstractDirectory dir;
+    private final FatType type;
+    private final ByteBuffer chunk;
+    private final int capacity;
+    
+    /**
+     * The index of the slot which is decoded next.
+     */
+    private int slot;
+    
+    /**
+     * The index of the first slot held in the chunk buffer.
+     */
+    private int chunkStart;
+    
+    /**
+     * The characters of the LFN parts seen since the last real entry, in
+     * the order they are stored on disk.
+     */
+    private char[] parts;
+    private int partCount;
+    private int firstSlot;
+    
+    private FatLfnDirectoryEntry next;
+    private boolean done;
+    
+    DirectoryStream(FatLfnDirectory parent) {
+        this.parent = parent;
+        this.dir = parent.dir;
+        this.type = parent.getFat().getFatType();
+        this.capacity = dir.getCapacity();
+        this.chunk = ByteBuffer.allocate(Math.max(FatDirectoryEntry.SIZE,
+                dir.getChunkSize() / FatDirectoryEntry.SIZE *
+                FatDirectoryEntry.SIZE));
+        this.chunk.limit(0);
+        this.parts = new char[4 * PART_CHARS];
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * @return {@inheritDoc}
+     * @throws IllegalStateException if reading the directory failed
+     */
+    @Override
+    public boolean hasNext() throws IllegalStateException {
+        if (next == null && !done) {
+            try {
+                this.next = decodeNext();
+            } catch (IOException ex) {
+                throw new IllegalStateException(
+                        "error reading directory", ex); //NOI18N
+            }
+        }
+        
+        return next != null;
+    }
+
+    @Override
+    public FsDirectoryEntry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        
+        final FatLfnDirectoryEntry result = next;
+        this.next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    private FatLfnDirectoryEntry decodeNext() throws IOException {
+        while (slot < capacity) {
+            final int pos = position(slot);
+            final int first = chunk.get(pos) & 0xff;
+            
+            if (first == 0) break;
+            
+            final int flags = chunk.get(pos + 0x0b) & 0xff;
+            
+            if (first == FatDirectoryEntry.ENTRY_DELETED_MAGIC ||
+                    (flags & F_LFN) != F_LFN &&
+                    (flags & (F_DIRECTORY | F_VOLUME_ID)) == F_VOLUME_ID) {
+                
+                /* free slots and the volume label end any LFN sequence */
+                this.partCount = 0;
+                this.slot++;
+            } else if ((flags & F_LFN) == F_LFN) {
+                if (partCount == 0) this.firstSlot = slot;
+                addPart(pos);
+                this.slot++;
+            } else {
+                if (partCount == 0) this.firstSlot = slot;
+                return createEntry(pos);
+            }
+        }
+        
+        this.done = true;
+        return null;
+    }
+    
+    private FatLfnDirectoryEntry createEntry(int pos) {
+        final byte[] data = new byte[FatDirectoryEntry.SIZE];
+        
+        for (int i=0; i < data.length; i++) {
+            data[i] = chunk.get(pos + i);
+        }
+        
+        final FatDirectoryEntry real =
+                new FatDirectoryEntry(type, data, dir.isReadOnly());
+        
+        final String name;
+        
+        if (partCount == 0) {
+            /* this is just an old plain 8.3 entry */
+            name = real.getShortName().asSimpleString();
+        } else {
+            /* stored in reverse order */
+            final StringBuilder sb = new StringBuilder(PART_CHARS * partCount);
+            
+            for (int i = partCount - 1; i >= 0; i--) {
+                final int ofs = i * PART_CHARS;
+                int end = 0;
+                
+                while (end < PART_CHARS && parts[ofs + end] != '\0') {
+                    end++;
+                }
+                
+                sb.append(parts, ofs, end);
+            }
+            
+            name = sb.toString().trim();
+        }
+        
+        final FatLfnDirectoryEntry result =
+                new FatLfnDirectoryEntry(parent, real, name);
+        result.firstSlot = firstSlot;
+        result.slotCount = slot - firstSlot + 1;
+        result.detached = true;
+        
+        this.partCount = 0;
+        this.slot++;
+        
+        return result;
+    }
+    
+    private void addPart(int pos) {
+        final int ofs = partCount * PART_CHARS;
+        
+        if (ofs + PART_CHARS > parts.length) {
+            final char[] grown = new char[parts.length * 2];
+            System.arraycopy(parts, 0, grown, 0, parts.length);
+            this.parts = grown;
+        }
+        
+        for (int i=0; i < 5; i++) {
+            parts[ofs + i] = getChar(pos + 1 + 2 * i);
+        }
+        
+        for (int i=0; i < 6; i++) {
+            parts[ofs + 5 + i] = getChar(pos + 14 + 2 * i);
+        }
+        
+        parts[ofs + 11] = getChar(pos + 28);
+        parts[ofs + 12] = getChar(pos + 30);
+        
+        this.partCount++;
+    }
+    
+    private char getChar(int pos) {
+        return (char) ((chunk.get(pos) & 0xff) |
+                ((chunk.get(pos + 1) & 0xff) << 8));
+    }
+    
+    /**
+     * Returns the position of the specified slot in the chunk buffer,
+     * reading the chunk containing the slot if necessary.
+     *
+     * @param idx the slot index
+     * @return the buffer position of the slot
+     * @throws IOException on read error
+     */
+    private int position(int idx) throws IOException {
+        final int slotsInChunk = chunk.limit() / FatDirectoryEntry.SIZE;
+        
+        if (idx < chunkStart || idx >= chunkStart + slotsInChunk) {
+            final int count = Math.min(
+                    chunk.capacity() / FatDirectoryEntry.SIZE,
+                    capacity - idx);
+            
+            chunk.clear();
+            chunk.limit(count * FatDirectoryEntry.SIZE);
+            
+            dir.read((long) idx * FatDirectoryEntry.SIZE, chunk);
+            
+            this.chunkStart = idx;
+        }
+        
+        return (idx - chunkStart) * FatDirectoryEntry.SIZE;
+    }
+    
+}
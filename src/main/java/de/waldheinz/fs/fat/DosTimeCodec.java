@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.util.TimeZone;
+
+/**
+ * Converts between Java time stamps and the date and time fields stored in
+ * FAT directory entries, using plain arithmetic instead of a
+ * {@code Calendar}. The DOS fields hold the local time, so the conversion
+ * asks the time zone for it's offset. For the day which was last
+ * encoded (usually "today"), the offset and the DOS date are cached, so
+ * stamping the current time does not even consult the time zone.
+ * 
+ * The results match those of a lenient {@code GregorianCalendar}, also for
+ * out-of-range DOS fields.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see DosUtils
+ */
+final class DosTimeCodec {
+    
+    private final static long MS_PER_SECOND = 1000;
+    private final static long MS_PER_MINUTE = 60 * MS_PER_SECOND;
+    private final static long MS_PER_HOUR = 60 * MS_PER_MINUTE;
+    private final static long MS_PER_DAY = 24 * MS_PER_HOUR;
+    
+    /**
+     * How often {@link #getDefault()} checks if the default time zone was
+     * changed, in milliseconds.
+     */
+    final static long ZONE_CHECK_MILLIS = 1000;
+    
+    private static volatile DosTimeCodec defaultCodec =
+            new DosTimeCodec(TimeZone.getDefault());
+    
+    private static volatile long lastZoneCheck = System.nanoTime();
+    
+    private final TimeZone zone;
+    private final int rawOffset;
+    
+    /**
+     * The day which was last encoded, or {@code null}.
+     */
+    private volatile Day day;
+    
+    /**
+     * Creates a new {@code DosTimeCodec} working in the specified time zone.
+     *
+     * @param zone the time zone of the DOS time stamps
+     */
+    DosTimeCodec(TimeZone zone) {
+        this.zone = (TimeZone) zone.clone();
+        this.rawOffset = zone.getRawOffset();
+    }
+    
+    /**
+     * Returns the codec for the default time zone. Looking up the default
+     * time zone creates a copy of it, so this is done at most every
+     * {@link #ZONE_CHECK_MILLIS} milliseconds. Thus a change of the default
+     * time zone takes effect after this delay.
+     *
+     * @return the default {@code DosTimeCodec}
+     * @see TimeZone#setDefault(java.util.TimeZone) 
+     */
+    static DosTimeCodec getDefault() {
+        final long now = System.nanoTime();
+        
+        if (now - lastZoneCheck >= ZONE_CHECK_MILLIS * 1000 * 1000) {
+            lastZoneCheck = now;
+            return checkDefaultZone();
+        }
+        
+        return defaultCodec;
+    }
+    
+    /**
+     * Replaces the default codec if the default time zone was changed,
+     * without waiting for the next periodic check.
+     *
+     * @return the (possibly new) default {@code DosTimeCodec}
+     * @see #getDefault() 
+     */
+    static DosTimeCodec checkDefaultZone() {
+        DosTimeCodec result = defaultCodec;
+        final TimeZone current = TimeZone.getDefault();
+        
+        if (!current.equals(result.zone)) {
+            result = new DosTimeCodec(current);
+            defaultCodec = result;
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Decodes the DOS date and time fields into a Java time stamp.
+     *
+     * @param dosDate the DOS date field
+     * @param dosTime the DOS time field
+     * @return the time in milliseconds since the epoch
+     */
+    long decodeDateTime(int dosDate, int dosTime) {
+        final long timeOfDay =
+                (dosTime & 0x1f) * 2 * MS_PER_SECOND +
+                ((dosTime >> 5) & 0x3f) * MS_PER_MINUTE +
+                (dosTime >> 11) * MS_PER_HOUR;
+        
+        final Day d = this.day;
+        
+        if (d != null && d.dosDate == dosDate && timeOfDay < MS_PER_DAY) {
+            return d.start + timeOfDay;
+        }
+        
+        final long local = localDayStart(dosDate) + timeOfDay;
+        return toUtc(local);
+    }
+    
+    /**
+     * Encodes the time of day of a Java time stamp as DOS time field.
+     *
+     * @param javaDateTime the time in milliseconds since the epoch
+     * @return the DOS time field
+     */
+    int encodeTime(long javaDateTime) {
+        final long ms = floorMod(
+                javaDateTime + offsetAt(javaDateTime), MS_PER_DAY);
+        
+        final int seconds = (int) (ms / MS_PER_SECOND);
+        
+        return 2048 * (seconds / 3600) + 32 * ((seconds / 60) % 60) +
+                (seconds % 60) / 2;
+    }
+    
+    /**
+     * Encodes the date of a Java time stamp as DOS date field.
+     *
+     * @param javaDateTime the time in milliseconds since the epoch
+     * @return the DOS date field
+     */
+    int encodeDate(long javaDateTime) {
+        final Day d = this.day;
+        
+        if (d != null && javaDateTime >= d.start && javaDateTime < d.end) {
+            return d.dosDate;
+        }
+        
+        final int offset = zone.getOffset(javaDateTime);
+        final long days = floorDiv(javaDateTime + offset, MS_PER_DAY);
+        final int result = dosDate(days);
+        
+        cacheDay(days, result);
+        
+        return result;
+    }
+    
+    private int offsetAt(long utc) {
+        final Day d = this.day;
+        
+        if (d != null && utc >= d.start && utc < d.end) {
+            return d.offset;
+        }
+        
+        return zone.getOffset(utc);
+    }
+    
+    /**
+     * Remembers the specified local day, unless the time zone offset changes
+     * during that day.
+     *
+     * @param days the local day, counted from the epoch
+     * @param dosDate the DOS date for that day
+     */
+    private void cacheDay(long days, int dosDate) {
+        final long localStart = days * MS_PER_DAY;
+        final long start = toUtc(localStart);
+        final long end = toUtc(localStart + MS_PER_DAY);
+        final int offset = zone.getOffset(start);
+        
+        if (end - start == MS_PER_DAY && zone.getOffset(end - 1) == offset) {
+            this.day = new Day(dosDate, start, end, offset);
+        }
+    }
+    
+    /**
+     * Converts a local time to UTC, treating times which fall into a gap
+     * caused by a daylight saving time change like the calendar does.
+     *
+     * @param local the local time in milliseconds since the (local) epoch
+     * @return the UTC time in milliseconds since the epoch
+     */
+    private long toUtc(long local) {
+        final int guess = zone.getOffset(local - rawOffset);
+        final int actual = zone.getOffset(local - guess);
+        
+        return local - ((guess == actual) ? guess : Math.min(guess, actual));
+    }
+    
+    /**
+     * Returns the start of the day specified by a DOS date field, in local
+     * milliseconds since the epoch. Out-of-range months and days roll over
+     * into the adjacent months or years.
+     *
+     * @param dosDate the DOS date field
+     * @return the local start of that day
+     */
+    private static long localDayStart(int dosDate) {
+        final int month0 = ((dosDate >> 5) & 0x0f) - 1;
+        final long year = 1980 + (dosDate >> 9) + floorDiv(month0, 12);
+        final int month = (int) floorMod(month0, 12) + 1;
+        
+        return (daysFromCivil(year, month) + (dosDate & 0x1f) - 1) *
+                MS_PER_DAY;
+    }
+    
+    private static int dosDate(long days) {
+        /* civil from days, see http://howardhinnant.github.io/date_algorithms.html */
+        
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final long d = doy - (153 * mp + 2) / 5 + 1;
+        final long m = (mp < 10) ? mp + 3 : mp - 9;
+        final long y = yoe + era * 400 + ((m <= 2) ? 1 : 0);
+        
+        return (int) (512 * (y - 1980) + 32 * m + d);
+    }
+    
+    /**
+     * Returns the number of days from the epoch to the first day of the
+     * specified month.
+     */
+    private static long daysFromCivil(long year, int month) {
+        final long y = (month <= 2) ? year - 1 : year;
+        final long era = floorDiv(y, 400);
+        final long yoe = y - era * 400;
+        final long doy = (153 * ((month > 2) ? month - 3 : month + 9) + 2) / 5;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        
+        return era * 146097 + doe - 719468;
+    }
+    
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return ((x % y != 0) && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+    
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+    
+    /**
+     * A local day without time zone offset changes.
+     */
+    private final static class Day {
+        
+        final int dosDate;
+        
+        /**
+         * The UTC start of the day, inclusive.
+         */
+        final long start;
+        
+        /**
+         * The UTC end of the day, exclusive.
+         */
+        final long end;
+        
+        final int offset;
+        
+        Day(int dosDate, long start, long end, int offset) {
+            this.dosDate = dosDate;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+        
+    }
+    
+}
@@ -19,12 +19,16 @@
  
 package de.waldheinz.fs.fat;
 
-import java.util.Calendar;
-
 /**
  * This class contains some methods for date and time conversions between Java
  * and the format known from DOS filesystems (e.g. fat)
  * 
+ * The conversions use the default time zone. Unlike a {@code Calendar}
+ * created for every call, the {@link DosTimeCodec} doing the work notices a
+ * {@link java.util.TimeZone#setDefault(java.util.TimeZone) changed} default
+ * time zone only after up to {@link DosTimeCodec#ZONE_CHECK_MILLIS}
+ * milliseconds.
+ * 
  * @author Ewout Prangsma &lt; epr at jnode.org&gt;
  */
 final class DosUtils {
@@ -37,20 +41,10 @@ final class DosUtils {
      * @param dosDate
      * @param dosTime
      * @return long
+     * @see DosTimeCodec#decodeDateTime(int, int) 
      */
     public static long decodeDateTime(int dosDate, int dosTime) {
-        final Calendar cal = Calendar.getInstance();
-        
-        cal.set(Calendar.MILLISECOND, 0);
-        cal.set(Calendar.SECOND, (dosTime & 0x1f) * 2);
-        cal.set(Calendar.MINUTE, (dosTime >> 5) & 0x3f);
-        cal.set(Calendar.HOUR_OF_DAY, dosTime >> 11);
-
-        cal.set(Calendar.DATE, dosDate & 0x1f);
-        cal.set(Calendar.MONTH, ((dosDate >> 5) & 0x0f) - 1);
-        cal.set(Calendar.YEAR, 1980 + (dosDate >> 9));
-        
-        return cal.getTimeInMillis();
+        return DosTimeCodec.getDefault().decodeDateTime(dosDate, dosTime);
     }
 
     /**
@@ -58,12 +52,10 @@ final class DosUtils {
      * 
      * @param javaDateTime
      * @return long
+     * @see DosTimeCodec#encodeTime(long) 
      */
     public static int encodeTime(long javaDateTime) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(javaDateTime);
-        return 2048 * cal.get(Calendar.HOUR_OF_DAY) + 32 * cal.get(Calendar.MINUTE) +
-                cal.get(Calendar.SECOND) / 2;
+        return DosTimeCodec.getDefault().encodeTime(javaDateTime);
     }
 
     /**
@@ -71,11 +63,9 @@ final class DosUtils {
      * 
      * @param javaDateTime
      * @return long
+     * @see DosTimeCodec#encodeDate(long) 
      */
     public static int encodeDate(long javaDateTime) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(javaDateTime);
-        return 512 * (cal.get(Calendar.YEAR) - 1980) + 32 * (cal.get(Calendar.MONTH) + 1) +
-                cal.get(Calendar.DATE);
+        return DosTimeCodec.getDefault().encodeDate(javaDateTime);
     }
 }
@@ -22,7 +22,6 @@ package de.waldheinz.fs.fat;
 import de.waldheinz.fs.BlockDevice;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 /**
  * 
@@ -37,7 +36,7 @@ final class Fat {
      */
     public final static int FIRST_CLUSTER = 2;
     
-    private final long[] entries;
+    private final FatStorage storage;
     private final FatType fatType;
     private final int sectorCount;
     private final int sectorSize;
@@ -47,6 +46,13 @@ final class Fat {
     private final int lastClusterIndex;
     
     private int lastAllocatedCluster;
+    private AllocationStrategy allocationStrategy;
+    private int maxTransferSize;
+    
+    /**
+     * Tracks the free clusters, this is created lazily for paged FATs.
+     */
+    private FreeClusterBitmap freeMap;
 
     /**
      * Reads a {@code Fat} as specified by a {@code BootSector}.
@@ -61,6 +67,26 @@ final class Fat {
     public static Fat read(BootSector bs, int fatNr)
             throws IOException, IllegalArgumentException {
         
+        return read(bs, fatNr, new FatMountOptions());
+    }
+    
+    /**
+     * Reads a {@code Fat} as specified by a {@code BootSector}, honoring the
+     * specified {@code FatMountOptions}. If the options specify a
+     * {@link FatMountOptions#getFatCacheSize() FAT cache size}, the returned
+     * {@code Fat} will read it's sectors only when they are accessed.
+     *
+     * @param bs the boot sector specifying the {@code Fat} layout
+     * @param fatNr the number of the {@code Fat} to read
+     * @param options the mount options to use
+     * @return the {@code Fat} that was read
+     * @throws IOException on read error
+     * @throws IllegalArgumentException if {@code fatNr} is greater than
+     *      {@link BootSector#getNrFats()}
+     */
+    public static Fat read(BootSector bs, int fatNr, FatMountOptions options)
+            throws IOException, IllegalArgumentException {
+        
         if (fatNr > bs.getNrFats()) {
             throw new IllegalArgumentException(
                     "boot sector says there are only " + bs.getNrFats() +
@@ -68,8 +94,13 @@ final class Fat {
         }
         
         final long fatOffset = bs.getFatOffset(fatNr);
-        final Fat result = new Fat(bs, fatOffset);
-        result.read();
+        final Fat result = new Fat(bs, fatOffset, options.getFatCacheSize());
+        result.allocationStrategy = options.getAllocationStrategy();
+        result.maxTransferSize = options.getMaxTransferSize();
+        result.storage.read();
+        
+        if (!result.isPaged()) result.getFreeMap();
+        
         return result;
     }
     
@@ -93,17 +124,20 @@ final class Fat {
         }
         
         final long fatOffset = bs.getFatOffset(fatNr);
-        final Fat result = new Fat(bs, fatOffset);
+        final Fat result = new Fat(bs, fatOffset, 0);
 
-        if (bs.getDataClusterCount() > result.entries.length)
+        if (bs.getDataClusterCount() > result.storage.getEntryCount())
             throw new IOException("FAT too small for device");
             
         result.init(bs.getMediumDescriptor());
+        result.getFreeMap();
         result.write();
         return result;
     }
     
-    private Fat(BootSector bs, long offset) throws IOException {
+    private Fat(BootSector bs, long offset, int cacheSize)
+            throws IOException {
+        
         this.bs = bs;
         this.fatType = bs.getFatType();
         if (bs.getSectorsPerFat() > Integer.MAX_VALUE)
@@ -122,6 +156,8 @@ final class Fat {
         this.device = bs.getDevice();
         this.offset = offset;
         this.lastAllocatedCluster = FIRST_CLUSTER;
+        this.allocationStrategy = AllocationStrategy.NEXT_FIT;
+        this.maxTransferSize = FatMountOptions.DEFAULT_MAX_TRANSFER_SIZE;
         
         if (bs.getDataClusterCount() > Integer.MAX_VALUE) throw
                 new IOException("too many data clusters");
@@ -131,12 +167,65 @@ final class Fat {
         
         this.lastClusterIndex = (int) bs.getDataClusterCount() + FIRST_CLUSTER;
 
-        entries = new long[(int) ((sectorCount * sectorSize) /
-                fatType.getEntrySize())];
-                
-        if (lastClusterIndex > entries.length) throw new IOException(
+        if (cacheSize > 0) {
+            this.storage = new PagedFatStorage(
+                    bs, offset, sectorCount, sectorSize, cacheSize);
+        } else {
+            this.storage = new ArrayFatStorage(
+                    bs, offset, sectorCount, sectorSize);
+        }
+        
+        if (lastClusterIndex > storage.getEntryCount()) throw new IOException(
             "file system has " + lastClusterIndex +
-            "clusters but only " + entries.length + " FAT entries");
+            "clusters but only " + storage.getEntryCount() + " FAT entries");
+    }
+    
+    /**
+     * Returns the bitmap of free clusters, scanning the FAT entries if the
+     * bitmap was not yet created.
+     *
+     * @return the free cluster bitmap
+     * @throws IOException on read error
+     */
+    private FreeClusterBitmap getFreeMap() throws IOException {
+        if (this.freeMap == null) {
+            final FreeClusterBitmap map =
+                    new FreeClusterBitmap(FIRST_CLUSTER, lastClusterIndex);
+            
+            for (int i=FIRST_CLUSTER; i < lastClusterIndex; i++) {
+                if (storage.getEntry(i) == 0) map.setFree(i, true);
+            }
+            
+            this.freeMap = map;
+        }
+        
+        return this.freeMap;
+    }
+    
+    /**
+     * Updates an entry, keeping the free cluster bitmap in sync.
+     *
+     * @param index the index of the entry to update
+     * @param value the new entry value
+     * @throws IOException on read error
+     */
+    private void setEntry(int index, long value) throws IOException {
+        storage.setEntry(index, value);
+        
+        if (freeMap != null && freeMap.contains(index)) {
+            freeMap.setFree(index, value == 0);
+        }
+    }
+    
+    /**
+     * Returns if this {@code Fat} keeps only some of it's sectors in memory
+     * and reads the others on demand.
+     *
+     * @return if this {@code Fat} is paged
+     * @see FatMountOptions#setFatCacheSize(int) 
+     */
+    public boolean isPaged() {
+        return (storage instanceof PagedFatStorage);
     }
     
     public FatType getFatType() {
@@ -161,25 +250,11 @@ final class Fat {
         return device;
     }
     
-    private void init(int mediumDescriptor) {
-        entries[0] = 
+    private void init(int mediumDescriptor) throws IOException {
+        setEntry(0,
                 (mediumDescriptor & 0xFF) |
-                (0xFFFFF00L & fatType.getBitMask());
-        entries[1] = fatType.getEofMarker();
-    }
-    
-    /**
-     * Read the contents of this FAT from the given device at the given offset.
-     * 
-     * @param offset the byte offset where to read the FAT from the device
-     * @throws IOException on read error
-     */
-    private void read() throws IOException {
-        final byte[] data = new byte[sectorCount * sectorSize];
-        device.read(offset, ByteBuffer.wrap(data));
-
-        for (int i = 0; i < entries.length; i++)
-            entries[i] = fatType.readEntry(data, i);
+                (0xFFFFF00L & fatType.getBitMask()));
+        setEntry(1, fatType.getEofMarker());
     }
     
     public void write() throws IOException {
@@ -193,13 +268,20 @@ final class Fat {
      * @throws IOException on write error
      */
     public void writeCopy(long offset) throws IOException {
-        final byte[] data = new byte[sectorCount * sectorSize];
-        
-        for (int index = 0; index < entries.length; index++) {
-            fatType.writeEntry(data, index, entries[index]);
-        }
-        
-        device.write(offset, ByteBuffer.wrap(data));
+        storage.writeCopy(offset);
+    }
+    
+    /**
+     * Writes the sectors of this FAT that were modified since the last
+     * invocation of this method to all FAT copies specified by the
+     * {@link #getBootSector() boot sector}. Sectors that were not modified
+     * are not written.
+     *
+     * @throws IOException on write error
+     * @see #writeCopy(long) 
+     */
+    public void flush() throws IOException {
+        storage.flush();
     }
     
     /**
@@ -207,8 +289,8 @@ final class Fat {
      * 
      * @return int
      */
-    public int getMediumDescriptor() {
-        return (int) (entries[0] & 0xFF);
+    public int getMediumDescriptor() throws IOException {
+        return (int) (storage.getEntry(0) & 0xFF);
     }
     
     /**
@@ -217,8 +299,8 @@ final class Fat {
      * @param index
      * @return long
      */
-    public long getEntry(int index) {
-        return entries[index];
+    public long getEntry(int index) throws IOException {
+        return storage.getEntry(index);
     }
 
     /**
@@ -230,22 +312,22 @@ final class Fat {
         return this.lastAllocatedCluster;
     }
     
-    public long[] getChain(long startCluster) {
+    public long[] getChain(long startCluster) throws IOException {
         testCluster(startCluster);
         // Count the chain first
         int count = 1;
         long cluster = startCluster;
-        while (!isEofCluster(entries[(int) cluster])) {
+        while (!isEofCluster(storage.getEntry((int) cluster))) {
             count++;
-            cluster = entries[(int) cluster];
+            cluster = storage.getEntry((int) cluster);
         }
         // Now create the chain
         long[] chain = new long[count];
         chain[0] = startCluster;
         cluster = startCluster;
         int i = 0;
-        while (!isEofCluster(entries[(int) cluster])) {
-            cluster = entries[(int) cluster];
+        while (!isEofCluster(storage.getEntry((int) cluster))) {
+            cluster = storage.getEntry((int) cluster);
             chain[++i] = cluster;
         }
         return chain;
@@ -257,9 +339,9 @@ final class Fat {
      * @param cluster
      * @return long The next cluster number or -1 which means eof.
      */
-    public long getNextCluster(long cluster) {
+    public long getNextCluster(long cluster) throws IOException {
         testCluster(cluster);
-        long entry = entries[(int) cluster];
+        long entry = storage.getEntry((int) cluster);
         if (isEofCluster(entry)) {
             return -1;
         } else {
@@ -274,38 +356,27 @@ final class Fat {
      * @throws IOException if there are no free clusters
      */
     public long allocNew() throws IOException {
-
-        int i;
-        int entryIndex = -1;
-
-        for (i = lastAllocatedCluster; i < lastClusterIndex; i++) {
-            if (isFreeCluster(i)) {
-                entryIndex = i;
-                break;
-            }
-        }
-        
-        if (entryIndex < 0) {
-            for (i = FIRST_CLUSTER; i < lastAllocatedCluster; i++) {
-                if (isFreeCluster(i)) {
-                    entryIndex = i;
-                    break;
-                }
-            }
-        }
-        
-        if (entryIndex < 0) {
-            throw new IOException(
-                    "FAT Full (" + (lastClusterIndex - FIRST_CLUSTER)
-                    + ", " + i + ")"); //NOI18N
-        }
-        
-        entries[entryIndex] = fatType.getEofMarker();
-        lastAllocatedCluster = entryIndex % lastClusterIndex;
-        if (lastAllocatedCluster < FIRST_CLUSTER)
-            lastAllocatedCluster = FIRST_CLUSTER;
-        
-        return entryIndex;
+        return allocNew(1)[0];
+    }
+    
+    /**
+     * Returns the maximum number of bytes the {@link ClusterChain}s stored
+     * in this {@code Fat} should transfer in one device operation.
+     *
+     * @return the maximum transfer size in bytes
+     * @see FatMountOptions#setMaxTransferSize(int) 
+     */
+    public int getMaxTransferSize() {
+        return maxTransferSize;
+    }
+    
+    /**
+     * Returns the strategy used to choose free clusters.
+     *
+     * @return the allocation strategy
+     */
+    public AllocationStrategy getAllocationStrategy() {
+        return allocationStrategy;
     }
     
     /**
@@ -319,14 +390,20 @@ final class Fat {
      * @see FsInfoSector#getFreeClusterCount()
      * @see BootSector#getDataClusterCount() 
      */
-    public int getFreeClusterCount() {
-        int result = 0;
-
-        for (int i=FIRST_CLUSTER; i < lastClusterIndex; i++) {
-            if (isFreeCluster(i)) result++;
-        }
-
-        return result;
+    public int getFreeClusterCount() throws IOException {
+        return getFreeMap().getFreeCount();
+    }
+    
+    /**
+     * Returns if the {@link #getFreeClusterCount() free cluster count} is
+     * known without scanning the FAT. This is always the case for FATs
+     * which are not {@link #isPaged() paged}, and for paged FATs once
+     * clusters have been allocated or the free cluster count was queried.
+     *
+     * @return if the free cluster count can be determined without I/O
+     */
+    public boolean isFreeClusterCountKnown() {
+        return (freeMap != null);
     }
 
     /**
@@ -339,23 +416,105 @@ final class Fat {
     }
     
     /**
-     * Allocate a series of clusters for a new file.
+     * Allocate a series of clusters for a new file. The clusters are
+     * linked to form a chain, which is terminated by an EOF marker.
      * 
      * @param nrClusters when number of clusters to allocate
-     * @return long
-     * @throws IOException if there are no free clusters
+     * @return the allocated clusters, in chain order
+     * @throws IOException if there are not enough free clusters
+     * @see #getAllocationStrategy() 
      */
     public long[] allocNew(int nrClusters) throws IOException {
-        final long rc[] = new long[nrClusters];
+        if (nrClusters <= 0) throw new IllegalArgumentException(
+                "invalid cluster count " + nrClusters); //NOI18N
         
-        rc[0] = allocNew();
-        for (int i = 1; i < nrClusters; i++) {
-            rc[i] = allocAppend(rc[i - 1]);
+        final FreeClusterBitmap map = getFreeMap();
+        
+        if (nrClusters > map.getFreeCount()) {
+            throw new IOException(
+                    "FAT Full (" + (lastClusterIndex - FIRST_CLUSTER)
+                    + ", " + map.getFreeCount() + " free, " +
+                    nrClusters + " requested)"); //NOI18N
         }
         
+        final long[] rc = new long[nrClusters];
+        int count = 0;
+        
+        while (count < nrClusters) {
+            final int start = findFreeRun(nrClusters - count);
+            final int end = Math.min(map.nextUsed(start),
+                    start + nrClusters - count);
+            
+            if (count > 0) {
+                /* link the previous run to this one */
+                setEntry((int) rc[count - 1], start);
+            }
+            
+            for (int i=start; i < end - 1; i++) {
+                rc[count++] = i;
+                setEntry(i, i + 1);
+            }
+            
+            rc[count++] = end - 1;
+            setEntry(end - 1, fatType.getEofMarker());
+        }
+        
+        lastAllocatedCluster = (int) rc[nrClusters - 1];
+        
         return rc;
     }
     
+    /**
+     * Searches for a run of free clusters according to the allocation
+     * strategy. If there is no run of at least {@code count} clusters, the
+     * largest run found is returned.
+     *
+     * @param count the desired length of the run
+     * @return the first cluster of the run
+     * @throws IOException on read error
+     */
+    private int findFreeRun(int count) throws IOException {
+        final FreeClusterBitmap map = getFreeMap();
+        final int from = (allocationStrategy == AllocationStrategy.NEXT_FIT) ?
+            lastAllocatedCluster : FIRST_CLUSTER;
+        
+        int fitStart = -1;
+        int fitLength = Integer.MAX_VALUE;
+        int maxStart = -1;
+        int maxLength = 0;
+        
+        /* search from the start point to the end, then wrap around */
+        for (int pass=0; pass < 2; pass++) {
+            int pos = (pass == 0) ? from : FIRST_CLUSTER;
+            final int end = (pass == 0) ? lastClusterIndex : from;
+            
+            while (pos < end) {
+                final int start = map.nextFree(pos);
+                if ((start < 0) || (start >= end)) break;
+                
+                final int stop = map.nextUsed(start);
+                final int length = stop - start;
+                
+                if (length >= count) {
+                    if (allocationStrategy != AllocationStrategy.BEST_FIT ||
+                            length == count) return start;
+                    
+                    if (length < fitLength) {
+                        fitStart = start;
+                        fitLength = length;
+                    }
+                } else if (length > maxLength) {
+                    maxStart = start;
+                    maxLength = length;
+                }
+                
+                pos = stop;
+            }
+        }
+        
+        return (fitStart >= 0) ? fitStart : maxStart;
+    }
+    
     /**
      * Allocate a cluster to append to a new file
      * 
@@ -367,28 +526,54 @@ final class Fat {
     public long allocAppend(long cluster)
             throws IOException {
         
+        return allocAppend(cluster, 1)[0];
+    }
+    
+    /**
+     * Allocates a series of clusters and appends them to an existing chain.
+     * Passing the last cluster of the chain avoids walking the chain.
+     *
+     * @param cluster a cluster from the chain where the new clusters should
+     *      be appended
+     * @param nrClusters the number of clusters to append
+     * @return the newly allocated clusters, in chain order
+     * @throws IOException if there are not enough free clusters
+     */
+    public long[] allocAppend(long cluster, int nrClusters)
+            throws IOException {
+        
         testCluster(cluster);
         
-        while (!isEofCluster(entries[(int) cluster])) {
-            cluster = entries[(int) cluster];
+        while (!isEofCluster(storage.getEntry((int) cluster))) {
+            cluster = storage.getEntry((int) cluster);
         }
         
-        long newCluster = allocNew();
-        entries[(int) cluster] = newCluster;
+        final long[] newClusters = allocNew(nrClusters);
+        setEntry((int) cluster, newClusters[0]);
 
-        return newCluster;
+        return newClusters;
     }
 
-    public void setEof(long cluster) {
+    public void setEof(long cluster) throws IOException {
         testCluster(cluster);
-        entries[(int) cluster] = fatType.getEofMarker();
+        setEntry((int) cluster, fatType.getEofMarker());
     }
 
-    public void setFree(long cluster) {
+    public void setFree(long cluster) throws IOException {
         testCluster(cluster);
-        entries[(int) cluster] = 0;
+        setEntry((int) cluster, 0);
     }
     
+    /**
+     * Compares this {@code Fat} with another object. Two {@code Fat}s are
+     * equal if they have the same layout and hold the same entries. For a
+     * {@link #isPaged() paged} {@code Fat}, this may require to read all
+     * sectors from the device.
+     *
+     * @param obj the object to compare with
+     * @return if the object is an equal {@code Fat}
+     * @throws IllegalStateException if reading the FAT failed
+     */
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Fat)) return false;
@@ -398,15 +583,24 @@ final class Fat {
         if (this.sectorCount != other.sectorCount) return false;
         if (this.sectorSize != other.sectorSize) return false;
         if (this.lastClusterIndex != other.lastClusterIndex) return false;
-        if (!Arrays.equals(this.entries, other.entries)) return false;
         
-        return (this.getMediumDescriptor() == other.getMediumDescriptor());
+        try {
+            return this.storage.contentEquals(other.storage);
+        } catch (IOException ex) {
+            throw new IllegalStateException("error reading FAT", ex);
+        }
     }
     
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = 23 * hash + Arrays.hashCode(this.entries);
+        
+        try {
+            hash = 23 * hash + this.storage.contentHashCode();
+        } catch (IOException ex) {
+            throw new IllegalStateException("error reading FAT", ex);
+        }
+        
         hash = 23 * hash + this.fatType.hashCode();
         hash = 23 * hash + this.sectorCount;
         hash = 23 * hash + this.sectorSize;
@@ -420,9 +614,14 @@ final class Fat {
      * @param entry
      * @return boolean
      */
-    protected boolean isFreeCluster(long entry) {
+    protected boolean isFreeCluster(long entry) throws IOException {
         if (entry > Integer.MAX_VALUE) throw new IllegalArgumentException();
-        return (entries[(int) entry] == 0);
+        
+        if (freeMap != null && freeMap.contains(entry)) {
+            return freeMap.isFree((int) entry);
+        }
+        
+        return (storage.getEntry((int) entry) == 0);
     }
     
     /**
@@ -446,12 +645,22 @@ final class Fat {
     }
     
     protected void testCluster(long cluster) throws IllegalArgumentException {
-        if ((cluster < FIRST_CLUSTER) || (cluster >= entries.length)) {
+        if ((cluster < FIRST_CLUSTER) ||
+                (cluster >= storage.getEntryCount())) {
+            
             throw new IllegalArgumentException(
                     "invalid cluster value " + cluster);
         }
     }
     
+    /**
+     * Returns a human-readable string representation of this {@code Fat}.
+     * The medium descriptor and the free cluster count are only included if
+     * this {@code Fat} is not {@link #isPaged() paged}, so this method never
+     * has to access the device.
+     *
+     * @return a string describing this {@code Fat}
+     */
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -459,14 +668,25 @@ final class Fat {
         sb.append(this.getClass().getSimpleName());
         sb.append("[type=");
         sb.append(fatType);
-        sb.append(", mediumDescriptor=0x");
-        sb.append(Integer.toHexString(getMediumDescriptor()));
         sb.append(", sectorCount=");
         sb.append(sectorCount);
         sb.append(", sectorSize=");
         sb.append(sectorSize);
-        sb.append(", freeClusters=");
-        sb.append(getFreeClusterCount());
+        
+        if (isPaged()) {
+            sb.append(", paged");
+        } else {
+            try {
+                sb.append(", mediumDescriptor=0x");
+                sb.append(Integer.toHexString(getMediumDescriptor()));
+                sb.append(", freeClusters=");
+                sb.append(getFreeClusterCount());
+            } catch (IOException ex) {
+                /* in-memory FATs do not access the device */
+                throw new AssertionError(ex);
+            }
+        }
+        
         sb.append("]");
         
         return sb.toString();
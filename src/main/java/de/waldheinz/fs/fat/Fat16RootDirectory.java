@@ -19,6 +19,7 @@
 package de.waldheinz.fs.fat;
 
 import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.IoOrigin;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -31,8 +32,11 @@ final class Fat16RootDirectory extends AbstractDirectory {
     private final BlockDevice device;
     private final long deviceOffset;
 
-    private Fat16RootDirectory(Fat16BootSector bs, boolean readOnly) {
-        super(bs.getFatType(), bs.getRootDirEntryCount(), readOnly, true);
+    private Fat16RootDirectory(Fat16BootSector bs, boolean readOnly)
+            throws IOException {
+        
+        super(bs.getFatType(), bs.getRootDirEntryCount(), readOnly, true,
+                bs.getDevice().getSectorSize());
 
         if (bs.getRootDirEntryCount() <= 0) throw new IllegalArgumentException(
                 "root directory size is " + bs.getRootDirEntryCount());
@@ -76,13 +80,25 @@ final class Fat16RootDirectory extends AbstractDirectory {
     }
     
     @Override
-    protected void read(ByteBuffer data) throws IOException {
-        this.device.read(deviceOffset, data);
+    protected void read(long offset, ByteBuffer data) throws IOException {
+        final IoOrigin prev = IoOrigin.DIRECTORY.enter();
+        
+        try {
+            this.device.read(deviceOffset + offset, data);
+        } finally {
+            IoOrigin.leave(prev);
+        }
     }
 
     @Override
-    protected void write(ByteBuffer data) throws IOException {
-        this.device.write(deviceOffset, data);
+    protected void write(long offset, ByteBuffer data) throws IOException {
+        final IoOrigin prev = IoOrigin.DIRECTORY.enter();
+        
+        try {
+            this.device.write(deviceOffset + offset, data);
+        } finally {
+            IoOrigin.leave(prev);
+        }
     }
 
     /**
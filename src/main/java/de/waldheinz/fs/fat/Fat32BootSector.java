@@ -19,6 +19,7 @@
 package de.waldheinz.fs.fat;
 
 import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.IoOrigin;
 import java.io.IOException;
 
 /**
@@ -193,7 +194,14 @@ final class Fat32BootSector extends BootSector {
             final long offset = (long)getBootSectorCopySector() * SIZE;
             buffer.rewind();
             buffer.limit(buffer.capacity());
-            device.write(offset, buffer);
+
+            final IoOrigin prev = IoOrigin.SECTOR.enter();
+
+            try {
+                device.write(offset, buffer);
+            } finally {
+                IoOrigin.leave(prev);
+            }
         }
     }
 
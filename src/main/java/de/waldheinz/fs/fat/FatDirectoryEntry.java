@@ -64,6 +64,12 @@ final class FatDirectoryEntry extends AbstractFsObject {
     private final FatType type;
     private boolean dirty;
     
+    /**
+     * The directory storing this entry and the index of it's slot there.
+     */
+    private AbstractDirectory owner;
+    private int slot;
+    
     FatDirectoryEntry(FatType fs, byte[] data, boolean readOnly) {
         super(readOnly);
         
@@ -111,6 +117,20 @@ final class FatDirectoryEntry extends AbstractFsObject {
         }
     }
     
+    /**
+     * Writes an entry which is marked as deleted to the specified buffer.
+     *
+     * @param buff the buffer to write the entry to
+     * @see #ENTRY_DELETED_MAGIC
+     */
+    public static void writeDeletedEntry(ByteBuffer buff) {
+        buff.put((byte) ENTRY_DELETED_MAGIC);
+        
+        for (int i=1; i < SIZE; i++) {
+            buff.put((byte) 0);
+        }
+    }
+    
     /**
      * Decides if this entry is a "volume label" entry according to the FAT
      * specification.
@@ -133,7 +153,7 @@ final class FatDirectoryEntry extends AbstractFsObject {
             setFlags(oldFlags & ~mask);
         }
 
-        this.dirty = true;
+        setDirty();
     }
 
     public boolean isSystemFlag() {
@@ -173,6 +193,36 @@ final class FatDirectoryEntry extends AbstractFsObject {
         return dirty;
     }
     
+    /**
+     * Tells this entry which directory slot it is stored in, so the slot
+     * can be marked for writing when this entry is modified.
+     *
+     * @param owner the directory storing this entry, or {@code null} if it
+     *      is not stored
+     * @param slot the index of the slot within the directory
+     */
+    void setSlot(AbstractDirectory owner, int slot) {
+        this.owner = owner;
+        this.slot = slot;
+    }
+    
+    /**
+     * Returns the index of the slot this entry is stored in.
+     *
+     * @param dir the directory to look in
+     * @return the slot index, or -1 if this entry is not stored in the
+     *      specified directory
+     */
+    int getSlot(AbstractDirectory dir) {
+        return (dir == owner) ? slot : -1;
+    }
+    
+    private void setDirty() {
+        this.dirty = true;
+        
+        if (owner != null) owner.slotChanged(slot);
+    }
+    
     private int getFlags() {
         return LittleEndian.getUInt8(data, OFFSET_ATTRIBUTES);
     }
@@ -251,7 +301,7 @@ final class FatDirectoryEntry extends AbstractFsObject {
         LittleEndian.setInt16(data, 0x10,
                 DosUtils.encodeDate(created));
 
-        this.dirty = true;
+        setDirty();
     }
 
     public long getLastModified() {
@@ -266,7 +316,7 @@ final class FatDirectoryEntry extends AbstractFsObject {
         LittleEndian.setInt16(data, 0x18,
                 DosUtils.encodeDate(lastModified));
 
-        this.dirty = true;
+        setDirty();
     }
 
     public long getLastAccessed() {
@@ -279,7 +329,33 @@ final class FatDirectoryEntry extends AbstractFsObject {
         LittleEndian.setInt16(data, 0x12,
                 DosUtils.encodeDate(lastAccessed));
 
-        this.dirty = true;
+        setDirty();
+    }
+    
+    /**
+     * Sets the "last accessed" date to the day of the specified time, unless
+     * that day is already recorded.
+     *
+     * @param lastAccessed the time of the access
+     * @param lazy if this entry should not be marked dirty, so the new date
+     *      is only written along with the next other change to the
+     *      directory
+     * @return if this entry was marked dirty
+     */
+    boolean touchLastAccessed(long lastAccessed, boolean lazy) {
+        final int date = DosUtils.encodeDate(lastAccessed);
+        
+        if (LittleEndian.getUInt16(data, 0x12) == date) return false;
+        
+        LittleEndian.setInt16(data, 0x12, date);
+        
+        if (!lazy) {
+            setDirty();
+        } else if (owner != null) {
+            owner.slotTouched(slot);
+        }
+        
+        return !lazy;
     }
     
     /**
@@ -309,6 +385,7 @@ final class FatDirectoryEntry extends AbstractFsObject {
      */
     public void setLength(long length) throws IllegalArgumentException {
         LittleEndian.setInt32(data, OFFSET_FILE_SIZE, length);
+        setDirty();
     }
     
     /**
@@ -339,7 +416,7 @@ final class FatDirectoryEntry extends AbstractFsObject {
         if (sn.equals(this.getShortName())) return;
         
         sn.write(this.data);
-        this.dirty = true;
+        setDirty();
     }
 
     /**
@@ -371,6 +448,8 @@ final class FatDirectoryEntry extends AbstractFsObject {
         } else {
             LittleEndian.setInt16(data, 0x1a, (int) startCluster);
         }
+        
+        setDirty();
     }
     
     @Override
@@ -23,6 +23,8 @@ import java.io.IOException;
 import de.waldheinz.fs.FsFile;
 import de.waldheinz.fs.ReadOnlyException;
 import java.io.EOFException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -35,16 +37,27 @@ import java.nio.ByteBuffer;
 public final class FatFile extends AbstractFsObject implements FsFile {
     private final FatDirectoryEntry entry;
     private final ClusterChain chain;
+    private final AccessTimePolicy accessTimePolicy;
     
-    private FatFile(FatDirectoryEntry myEntry, ClusterChain chain) {
+    /**
+     * The directory holding the {@link #entry}, which must stay in memory
+     * as long as this file does.
+     */
+    private FatLfnDirectory parent;
+    
+    private FatFile(FatDirectoryEntry myEntry, ClusterChain chain,
+            FatLfnDirectory parent, AccessTimePolicy accessTimePolicy) {
+        
         super(myEntry.isReadOnly());
         
         this.entry = myEntry;
         this.chain = chain;
+        this.parent = parent;
+        this.accessTimePolicy = accessTimePolicy;
     }
     
-    static FatFile get(Fat fat, FatDirectoryEntry entry)
-            throws IOException {
+    static FatFile get(Fat fat, FatDirectoryEntry entry,
+            FatLfnDirectory parent, MountContext mount) throws IOException {
         
         if (entry.isDirectory())
             throw new IllegalArgumentException(entry + " is a directory");
@@ -57,7 +70,7 @@ public final class FatFile extends AbstractFsObject implements FsFile {
                 ") is larger than associated cluster chain ("
                 + cc.getLengthOnDisk() + ")");
                 
-        return new FatFile(entry, cc);
+        return new FatFile(entry, cc, parent, mount.getAccessTimePolicy());
     }
     
     /**
@@ -89,7 +102,7 @@ public final class FatFile extends AbstractFsObject implements FsFile {
         
         if (getLength() == length) return;
         
-        updateTimeStamps(true);
+        updateTimeStamps();
         chain.setSize(length);
         
         this.entry.setStartCluster(chain.getStartCluster());
@@ -102,7 +115,8 @@ public final class FatFile extends AbstractFsObject implements FsFile {
      * </p><p>
      * Unless this file is {@link #isReadOnly() read-ony}, this method also
      * updates the "last accessed" field in the directory entry that is
-     * associated with this file.
+     * associated with this file, as specified by the file system's
+     * {@link AccessTimePolicy}.
      * </p>
      * 
      * @param offset {@inheritDoc}
@@ -122,7 +136,7 @@ public final class FatFile extends AbstractFsObject implements FsFile {
         }
         
         if (!isReadOnly()) {
-            updateTimeStamps(false);
+            updateAccessTime();
         }
         
         chain.readData(offset, dest);
@@ -135,8 +149,10 @@ public final class FatFile extends AbstractFsObject implements FsFile {
      * If the data to be written extends beyond the current
      * {@link #getLength() length} of this file, an attempt is made to
      * {@link #setLength(long) grow} the file so that the data will fit.
-     * Additionally, this method updates the "last accessed" and "last modified"
-     * fields on the directory entry that is associated with this file.
+     * Additionally, this method updates the "last modified" field on the
+     * directory entry that is associated with this file, and the "last
+     * accessed" field unless the {@link AccessTimePolicy} is
+     * {@link AccessTimePolicy#NEVER}.
      * </p>
      *
      * @param offset {@inheritDoc}
@@ -148,7 +164,7 @@ public final class FatFile extends AbstractFsObject implements FsFile {
 
         checkWritable();
 
-        updateTimeStamps(true);
+        updateTimeStamps();
         
         final long lastByte = offset + srcBuf.remaining();
 
@@ -159,15 +175,84 @@ public final class FatFile extends AbstractFsObject implements FsFile {
         chain.writeData(offset, srcBuf);
     }
     
-    private void updateTimeStamps(boolean write) {
+    private void updateTimeStamps() {
         final long now = System.currentTimeMillis();
-        entry.setLastAccessed(now);
         
-        if (write) {
-            entry.setLastModified(now);
+        if (accessTimePolicy != AccessTimePolicy.NEVER) {
+            entry.setLastAccessed(now);
+        }
+        
+        entry.setLastModified(now);
+        parent.setDirty();
+    }
+    
+    private void updateAccessTime() {
+        final boolean lazy;
+        
+        switch (accessTimePolicy) {
+            case DAILY: lazy = false; break;
+            case LAZY: lazy = true; break;
+            default: return;
+        }
+        
+        if (entry.touchLastAccessed(System.currentTimeMillis(), lazy)) {
+            parent.setDirty();
         }
     }
 
+    /**
+     * Returns a new {@code InputStream} reading this file from the start.
+     * The stream reads whole clusters and, when read sequentially, several
+     * clusters ahead, so small reads are served from memory. The stream
+     * does not see data written to this file while the stream buffers the
+     * affected clusters.
+     *
+     * @return a new stream reading this file
+     */
+    public InputStream newInputStream() {
+        checkValid();
+        
+        return new FatFileInputStream(new FatFileBuffer(this));
+    }
+    
+    /**
+     * Returns a new {@code OutputStream} writing to this file. Small writes
+     * are collected in a window of whole clusters, up to 64 KiB in size,
+     * which is written to this file when writing moves past the window, or
+     * when the stream is flushed or closed.
+     *
+     * @param append if the data should be appended to the end of this file;
+     *      if {@code false}, this file is truncated to zero length
+     * @return a new stream writing to this file
+     * @throws ReadOnlyException if this file is read-only
+     * @throws IOException on error truncating this file
+     */
+    public OutputStream newOutputStream(boolean append)
+            throws ReadOnlyException, IOException {
+        
+        checkWritable();
+        
+        if (!append) setLength(0);
+        
+        return new FatFileOutputStream(new FatFileBuffer(this),
+                append ? getLength() : 0);
+    }
+    
+    /**
+     * Returns a new {@code FatFileChannel} for reading and writing this file
+     * at arbitrary positions, buffered like the
+     * {@link #newInputStream() input} and
+     * {@link #newOutputStream(boolean) output} streams. If this file is
+     * read-only, the channel is read-only as well.
+     *
+     * @return a new channel for this file, positioned at the start
+     */
+    public FatFileChannel newByteChannel() {
+        checkValid();
+        
+        return new FatFileChannel(this);
+    }
+    
     /**
      * Has no effect besides possibly throwing an {@code ReadOnlyException}. To
      * make sure that all data is written out to disk use the
@@ -182,6 +267,16 @@ public final class FatFile extends AbstractFsObject implements FsFile {
         /* nothing else to do */
     }
     
+    /**
+     * Tells this file that it's directory entry was moved to another
+     * directory.
+     *
+     * @param parent the directory now holding the entry
+     */
+    void setParent(FatLfnDirectory parent) {
+        this.parent = parent;
+    }
+    
     /**
      * Returns the {@code ClusterChain} that holds the contents of
      * this {@code FatFile}.
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers the contents of a {@link FatFile} for the streams and channels
+ * returned by the file. The buffer holds a window of whole clusters, which
+ * is filled with more than the requested data when the file is read
+ * sequentially, and collects written data until the window is moved or
+ * the buffer is flushed. This way many small accesses are turned into a
+ * few cluster-sized device transfers.
+ *
+ * The buffer is not coherent with other buffers for the same file or with
+ * direct calls to the file's {@code read} and {@code write} methods.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+final class FatFileBuffer {
+    
+    /**
+     * The preferred size of the window in bytes. The window is always at
+     * least one cluster, and never larger than the
+     * {@link Fat#getMaxTransferSize() maximum transfer size} allows.
+     */
+    private final static int WINDOW_SIZE = 64 * 1024;
+    
+    private final FatFile file;
+    private final int clusterSize;
+    private final ByteBuffer window;
+    
+    /**
+     * The offset in the file where the {@link #window} starts, which is
+     * always a multiple of the cluster size.
+     */
+    private long windowStart;
+    
+    /**
+     * The number of bytes at the start of the window which hold the file's
+     * contents.
+     */
+    private int valid;
+    
+    private int dirtyFrom;
+    private int dirtyTo;
+    
+    /**
+     * The file offset where the last read ended, used to detect sequential
+     * reads. Reading from the start of the file is considered sequential.
+     */
+    private long lastReadEnd;
+    
+    FatFileBuffer(FatFile file) {
+        final ClusterChain chain = file.getChain();
+        final int clusters = Math.max(1, Math.min(WINDOW_SIZE,
+                chain.getFat().getMaxTransferSize()) / chain.getClusterSize());
+        
+        this.file = file;
+        this.clusterSize = chain.getClusterSize();
+        this.window = ByteBuffer.allocate(clusters * clusterSize);
+        this.windowStart = 0;
+        this.valid = 0;
+        this.lastReadEnd = 0;
+    }
+    
+    /**
+     * Returns the length of the file, including the data which was written
+     * to this buffer but not yet to the file.
+     *
+     * @return the length of the file in bytes
+     */
+    long getLength() {
+        return Math.max(file.getLength(), windowStart + dirtyTo);
+    }
+    
+    /**
+     * Sets the length of the file, flushing this buffer first.
+     *
+     * @param length the new file length
+     * @throws IOException on write error
+     */
+    void setLength(long length) throws IOException {
+        flush();
+        file.setLength(length);
+        
+        if (length < windowStart + valid) {
+            this.valid = (int) Math.max(0, length - windowStart);
+        }
+    }
+    
+    /**
+     * Reads data from the file at the specified offset.
+     *
+     * @param pos the offset in the file to start reading at
+     * @param dest the buffer to read to
+     * @return the number of bytes read, or -1 if {@code pos} is at or after
+     *      the end of the file
+     * @throws IOException on read error
+     */
+    int read(long pos, ByteBuffer dest) throws IOException {
+        final long length = getLength();
+        
+        if (pos >= length) return -1;
+        
+        final int count = (int) Math.min(dest.remaining(), length - pos);
+        final boolean sequential = (pos == lastReadEnd);
+        this.lastReadEnd = pos + count;
+        
+        if (count >= window.capacity() && !isBuffered(pos)) {
+            /* large read, which would not profit from the buffer */
+            
+            flush();
+            final int limit = dest.limit();
+            dest.limit(dest.position() + count);
+            
+            try {
+                file.read(pos, dest);
+            } finally {
+                dest.limit(limit);
+            }
+            
+            return count;
+        }
+        
+        int remaining = count;
+        
+        while (remaining > 0) {
+            if (!isBuffered(pos)) moveTo(pos);
+            
+            final int off = (int) (pos - windowStart);
+            final int want = Math.min(remaining, window.capacity() - off);
+            
+            if (off + want > valid) {
+                fill(sequential ? window.capacity() :
+                    roundUp(off + want));
+            }
+            
+            final ByteBuffer src = window.duplicate();
+            src.limit(off + want).position(off);
+            dest.put(src);
+            
+            pos += want;
+            remaining -= want;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Writes data to the file at the specified offset. The data is kept in
+     * this buffer until the window moves or the buffer is flushed.
+     *
+     * @param pos the offset in the file to start writing at
+     * @param src the data to write
+     * @throws IOException on error writing previously buffered data
+     */
+    void write(long pos, ByteBuffer src) throws IOException {
+        if (src.remaining() >= window.capacity() && dirtyTo == dirtyFrom) {
+            /* large write with nothing buffered, bypass the window */
+            
+            this.valid = 0;
+            file.write(pos, src);
+            return;
+        }
+        
+        while (src.hasRemaining()) {
+            if (!isBuffered(pos)) moveTo(pos);
+            
+            final int off = (int) (pos - windowStart);
+            final int count = Math.min(src.remaining(),
+                    window.capacity() - off);
+            
+            if (off > valid) fill(off);
+            
+            final ByteBuffer dst = window.duplicate();
+            dst.position(off);
+            final int limit = src.limit();
+            src.limit(src.position() + count);
+            dst.put(src);
+            src.limit(limit);
+            
+            if (dirtyTo == dirtyFrom) {
+                this.dirtyFrom = off;
+                this.dirtyTo = off + count;
+            } else {
+                this.dirtyFrom = Math.min(dirtyFrom, off);
+                this.dirtyTo = Math.max(dirtyTo, off + count);
+            }
+            
+            this.valid = Math.max(valid, off + count);
+            pos += count;
+        }
+    }
+    
+    /**
+     * Writes the data held in this buffer to the file.
+     *
+     * @throws IOException on write error
+     */
+    void flush() throws IOException {
+        if (dirtyTo == dirtyFrom) return;
+        
+        final ByteBuffer data = window.duplicate();
+        data.limit(dirtyTo).position(dirtyFrom);
+        file.write(windowStart + dirtyFrom, data);
+        
+        this.dirtyFrom = 0;
+        this.dirtyTo = 0;
+    }
+    
+    private boolean isBuffered(long pos) {
+        return (pos >= windowStart) && (pos < windowStart + window.capacity());
+    }
+    
+    private void moveTo(long pos) throws IOException {
+        flush();
+        
+        this.windowStart = pos - (pos % clusterSize);
+        this.valid = 0;
+    }
+    
+    private int roundUp(int off) {
+        return Math.min(window.capacity(),
+                (off + clusterSize - 1) / clusterSize * clusterSize);
+    }
+    
+    /**
+     * Makes the first {@code upTo} bytes of the window valid, reading
+     * the part which is stored in the file and zeroing the rest.
+     */
+    private void fill(int upTo) throws IOException {
+        if (upTo <= valid) return;
+        
+        final int stored = (int) Math.max(valid, Math.min(upTo,
+                file.getLength() - windowStart));
+        
+        if (stored > valid) {
+            final ByteBuffer dst = window.duplicate();
+            dst.limit(stored).position(valid);
+            file.read(windowStart + valid, dst);
+        }
+        
+        for (int i=stored; i < upTo; i++) {
+            window.put(i, (byte) 0);
+        }
+        
+        this.valid = upTo;
+    }
+    
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+
+/**
+ * A seekable {@code ByteChannel} for reading and writing a {@link FatFile}.
+ * The methods match those of {@code java.nio.channels.SeekableByteChannel}.
+ * Reads and writes go through a buffer holding whole clusters, and the
+ * written data is passed on to the file when the channel is
+ * {@link #flush() flushed} or closed.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatFile#newByteChannel()
+ */
+public final class FatFileChannel implements ByteChannel {
+    
+    private final FatFile file;
+    private final FatFileBuffer buffer;
+    private long position;
+    private boolean open;
+    
+    FatFileChannel(FatFile file) {
+        this.file = file;
+        this.buffer = new FatFileBuffer(file);
+        this.open = true;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        
+        if (!dst.hasRemaining()) return 0;
+        
+        final int count = buffer.read(position, dst);
+        if (count > 0) position += count;
+        return count;
+    }
+    
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        
+        if (file.isReadOnly()) throw new NonWritableChannelException();
+        
+        final int count = src.remaining();
+        buffer.write(position, src);
+        position += count;
+        return count;
+    }
+    
+    /**
+     * Returns the position in the file where the next read or write starts.
+     *
+     * @return the current position in bytes
+     * @throws ClosedChannelException if this channel is closed
+     */
+    public long position() throws ClosedChannelException {
+        checkOpen();
+        
+        return position;
+    }
+    
+    /**
+     * Sets the position in the file where the next read or write starts.
+     * Positions after the end of the file are allowed. Reading there
+     * returns end-of-file, writing there grows the file.
+     *
+     * @param newPosition the new position in bytes
+     * @return this {@code FatFileChannel}
+     * @throws ClosedChannelException if this channel is closed
+     * @throws IllegalArgumentException if the position is negative
+     */
+    public FatFileChannel position(long newPosition)
+            throws ClosedChannelException, IllegalArgumentException {
+        
+        checkOpen();
+        
+        if (newPosition < 0) throw new IllegalArgumentException(
+                "negative position"); //NOI18N
+        
+        this.position = newPosition;
+        return this;
+    }
+    
+    /**
+     * Returns the current size of the file, including data which was
+     * written to this channel but is not yet flushed.
+     *
+     * @return the file size in bytes
+     * @throws ClosedChannelException if this channel is closed
+     */
+    public long size() throws ClosedChannelException {
+        checkOpen();
+        
+        return buffer.getLength();
+    }
+    
+    /**
+     * Truncates the file to the specified size. If the size is not smaller
+     * than the current size, the file is not modified. The position is
+     * moved to the new size if it was beyond.
+     *
+     * @param size the new size in bytes
+     * @return this {@code FatFileChannel}
+     * @throws IOException on write error
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public FatFileChannel truncate(long size)
+            throws IOException, IllegalArgumentException {
+        
+        checkOpen();
+        
+        if (size < 0) throw new IllegalArgumentException(
+                "negative size"); //NOI18N
+        
+        if (file.isReadOnly()) throw new NonWritableChannelException();
+        
+        if (size < buffer.getLength()) buffer.setLength(size);
+        
+        this.position = Math.min(position, size);
+        return this;
+    }
+    
+    /**
+     * Writes the buffered data to the file.
+     *
+     * @throws IOException on write error
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        
+        buffer.flush();
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        
+        buffer.flush();
+        this.open = false;
+    }
+    
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+    
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@code InputStream} reading a {@link FatFile} through a
+ * {@link FatFileBuffer}.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatFile#newInputStream()
+ */
+final class FatFileInputStream extends InputStream {
+    
+    private final FatFileBuffer buffer;
+    private final ByteBuffer single;
+    private long position;
+    private boolean closed;
+    
+    FatFileInputStream(FatFileBuffer buffer) {
+        this.buffer = buffer;
+        this.single = ByteBuffer.allocate(1);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        
+        single.clear();
+        
+        if (buffer.read(position, single) < 0) return -1;
+        
+        position++;
+        return single.get(0) & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        if (len == 0) return 0;
+        
+        final int count = buffer.read(position, ByteBuffer.wrap(b, off, len));
+        if (count > 0) position += count;
+        return count;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        checkOpen();
+        
+        final long skipped = Math.max(0,
+                Math.min(n, buffer.getLength() - position));
+        
+        position += skipped;
+        return skipped;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        checkOpen();
+        
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.max(0, buffer.getLength() - position));
+    }
+    
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+    
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("stream is closed"); //NOI18N
+    }
+    
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@code OutputStream} writing to a {@link FatFile} through a
+ * {@link FatFileBuffer}. The buffered data is written to the file when
+ * the stream is flushed or closed.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatFile#newOutputStream(boolean)
+ */
+final class FatFileOutputStream extends OutputStream {
+    
+    private final FatFileBuffer buffer;
+    private final ByteBuffer single;
+    private long position;
+    private boolean closed;
+    
+    FatFileOutputStream(FatFileBuffer buffer, long position) {
+        this.buffer = buffer;
+        this.single = ByteBuffer.allocate(1);
+        this.position = position;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        
+        single.clear();
+        single.put(0, (byte) b);
+        buffer.write(position, single);
+        position++;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        buffer.write(position, ByteBuffer.wrap(b, off, len));
+        position += len;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        
+        buffer.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        
+        buffer.flush();
+        this.closed = true;
+    }
+    
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("stream is closed"); //NOI18N
+    }
+    
+}
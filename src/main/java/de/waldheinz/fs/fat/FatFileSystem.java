@@ -43,13 +43,14 @@ public final class FatFileSystem extends AbstractFileSystem {
     private final FsInfoSector fsiSector;
     private final BootSector bs;
     private final FatLfnDirectory rootDir;
+    private final MountContext mount;
     private final AbstractDirectory rootDirStore;
     private final FatType fatType;
     private final long filesOffset;
 
     FatFileSystem(BlockDevice api, boolean readOnly) throws IOException {
 
-        this(api, readOnly, false);
+        this(api, readOnly, new FatMountOptions(), false);
     }
     
     /**
@@ -57,11 +58,12 @@ public final class FatFileSystem extends AbstractFileSystem {
      * 
      * @param device the {@code BlockDevice} holding the file system
      * @param readOnly if this FS should be read-lonly
+     * @param options the mount options to use
      * @param ignoreFatDifferences
      * @throws IOException on read error
      */
     private FatFileSystem(BlockDevice device, boolean readOnly,
-            boolean ignoreFatDifferences)
+            FatMountOptions options, boolean ignoreFatDifferences)
             throws IOException {
         
         super(readOnly);
@@ -73,9 +75,10 @@ public final class FatFileSystem extends AbstractFileSystem {
         
         this.filesOffset = bs.getFilesOffset();
         this.fatType = bs.getFatType();
-        this.fat = Fat.read(bs, 0);
-
-        if (!ignoreFatDifferences) {
+        this.fat = Fat.read(bs, 0, options);
+        
+        /* comparing the FAT copies would mean reading them all */
+        if (!ignoreFatDifferences && !fat.isPaged()) {
             for (int i=1; i < bs.getNrFats(); i++) {
                 final Fat tmpFat = Fat.read(bs, i);
                 if (!fat.equals(tmpFat)) {
@@ -91,7 +94,11 @@ public final class FatFileSystem extends AbstractFileSystem {
             this.rootDirStore = ClusterChainDirectory.readRoot(rootChain);
             this.fsiSector = FsInfoSector.read(f32bs);
             
-            if (fsiSector.getFreeClusterCount() < fat.getFreeClusterCount()) {
+            if (fat.isFreeClusterCountKnown() &&
+                    fsiSector.getFreeClusterCount() != FsInfoSector.UNKNOWN &&
+                    fsiSector.getFreeClusterCount() <
+                    fat.getFreeClusterCount()) {
+                
                 throw new IOException("free cluster count mismatch - fat: " +
                         fat.getFreeClusterCount() + " - fsinfo: " +
                         fsiSector.getFreeClusterCount());
@@ -102,7 +109,9 @@ public final class FatFileSystem extends AbstractFileSystem {
             this.fsiSector = null;
         }
 
-        this.rootDir = new FatLfnDirectory(rootDirStore, fat, isReadOnly());
+        this.mount = new MountContext(options);
+        this.rootDir = new FatLfnDirectory(
+                rootDirStore, fat, isReadOnly(), null, mount);
             
     }
 
@@ -122,6 +131,24 @@ public final class FatFileSystem extends AbstractFileSystem {
         
         return new FatFileSystem(device, readOnly);
     }
+    
+    /**
+     * Reads the file system structure from the specified {@code BlockDevice}
+     * using the specified {@code FatMountOptions} and returns a fresh
+     * {@code FatFileSystem} instance to read or modify it.
+     *
+     * @param device the {@code BlockDevice} holding the file system
+     * @param readOnly if the {@code FatFileSystem} should be in read-only mode
+     * @param options the options to use for mounting the file system
+     * @return the {@code FatFileSystem} instance for the device
+     * @throws IOException on read error or if the file system structure could
+     *      not be parsed
+     */
+    public static FatFileSystem read(BlockDevice device, boolean readOnly,
+            FatMountOptions options) throws IOException {
+        
+        return new FatFileSystem(device, readOnly, options, false);
+    }
 
     long getFilesOffset() {
         checkClosed();
@@ -196,14 +223,15 @@ public final class FatFileSystem extends AbstractFileSystem {
             bs.write();
         }
         
-        for (int i = 0; i < bs.getNrFats(); i++) {
-            fat.writeCopy(bs.getFatOffset(i));
-        }
-        
+        /* flushing the directories may allocate clusters */
         rootDir.flush();
+        fat.flush();
         
         if (fsiSector != null) {
-            fsiSector.setFreeClusterCount(fat.getFreeClusterCount());
+            /* counting the free clusters may mean reading the whole FAT */
+            fsiSector.setFreeClusterCount(fat.isFreeClusterCountKnown() ?
+                fat.getFreeClusterCount() : FsInfoSector.UNKNOWN);
+                
             fsiSector.setLastAllocatedCluster(fat.getLastAllocatedCluster());
             fsiSector.write();
         }
@@ -216,6 +244,31 @@ public final class FatFileSystem extends AbstractFileSystem {
         return rootDir;
     }
     
+    /**
+     * Returns the entry for the specified path. The path is relative to the
+     * {@link #getRoot() root directory}, and it's components may be
+     * separated by slashes or backslashes. As with
+     * {@link FatLfnDirectory#getEntry(java.lang.String)}, the components
+     * are not case sensitive and may be either the long or the short names.
+     * The "." and ".." components have no special meaning.
+     * 
+     * The results are cached, including paths which do not exist, so
+     * resolving the same paths again is fast. The size of this cache is set
+     * by {@link FatMountOptions#setPathCacheSize(int)}.
+     *
+     * @param path the path of the entry to look up
+     * @return the entry, or {@code null} if there is no such entry
+     * @throws IOException on error reading a directory
+     * @throws IllegalArgumentException if the path is empty
+     */
+    public FatLfnDirectoryEntry resolve(String path)
+            throws IOException, IllegalArgumentException {
+        
+        checkClosed();
+        
+        return mount.getCache().getPaths().resolve(rootDir, path);
+    }
+    
     /**
      * Returns the fat.
      * 
@@ -224,6 +277,16 @@ public final class FatFileSystem extends AbstractFileSystem {
     Fat getFat() {
         return fat;
     }
+    
+    /**
+     * Returns the state shared by the directories and files of this file
+     * system.
+     * 
+     * @return the mount context
+     */
+    MountContext getMount() {
+        return mount;
+    }
 
     /**
      * Returns the bootsector.
@@ -240,9 +303,10 @@ public final class FatFileSystem extends AbstractFileSystem {
      * The free space of this file system.
      *
      * @return if -1 this feature is unsupported
+     * @throws IOException on error reading the FAT
      */
     @Override
-    public long getFreeSpace() {
+    public long getFreeSpace() throws IOException {
         checkClosed();
 
         return fat.getFreeClusterCount() * bs.getBytesPerCluster();
@@ -23,8 +23,8 @@ import de.waldheinz.fs.AbstractFsObject;
 import de.waldheinz.fs.FsDirectory;
 import de.waldheinz.fs.FsDirectoryEntry;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Iterator;
@@ -57,21 +57,72 @@ public final class FatLfnDirectory
     private final Fat fat;
     private final Map<ShortName, FatLfnDirectoryEntry> shortNameIndex;
     private final Map<String, FatLfnDirectoryEntry> longNameIndex;
-    private final Map<FatDirectoryEntry, FatFile> entryToFile;
-    private final Map<FatDirectoryEntry, FatLfnDirectory> entryToDirectory;
+    
+    /**
+     * The files and directories handed out by this directory. Which of them
+     * are kept in memory is decided by the {@link #cache}.
+     */
+    private final Map<FatDirectoryEntry, Reference<FatFile>> entryToFile;
+    private final Map<FatDirectoryEntry, Reference<FatLfnDirectory>>
+            entryToDirectory;
+    
     private final ShortNameGenerator sng;
+    private final MountContext mount;
+    private final ObjectCache cache;
+    
+    /**
+     * The directory containing this one, or {@code null} for the root
+     * directory. A directory must not be dropped while it's children are in
+     * use, because it holds their entries.
+     */
+    private FatLfnDirectory parent;
+    
+    /**
+     * If this directory was modified since it was last flushed.
+     */
+    private boolean dirty;
+    
+    /**
+     * If a directory below this one was modified since this directory was
+     * last flushed. When set on a directory, it is also set on all it's
+     * ancestors, so {@link #flush()} only needs to visit the subtrees which
+     * have this flag set.
+     */
+    private boolean childDirty;
+    
+    /**
+     * If the indices above were built. If not, the entries are
+     * {@link DirectoryStream streamed} off the device when needed.
+     */
+    private boolean indexed;
+    
+    /**
+     * The number of lookups which were served by streaming.
+     */
+    private int streamedLookups;
     
     final AbstractDirectory dir;
     
     FatLfnDirectory(AbstractDirectory dir, Fat fat, boolean readOnly)
             throws IOException {
         
+        this(dir, fat, readOnly, null,
+                new MountContext(new FatMountOptions()));
+    }
+    
+    FatLfnDirectory(AbstractDirectory dir, Fat fat, boolean readOnly,
+            FatLfnDirectory parent, MountContext mount) throws IOException {
+        
         super(readOnly);
         
-        if ((dir == null) || (fat == null)) throw new NullPointerException();
+        if ((dir == null) || (fat == null) || (mount == null))
+            throw new NullPointerException();
         
         this.fat = fat;
         this.dir = dir;
+        this.parent = parent;
+        this.mount = mount;
+        this.cache = mount.getCache();
         
         this.shortNameIndex =
                 new LinkedHashMap<ShortName, FatLfnDirectoryEntry>();
@@ -80,15 +131,46 @@ public final class FatLfnDirectory
                 new LinkedHashMap<String, FatLfnDirectoryEntry>();
                 
         this.entryToFile =
-                new LinkedHashMap<FatDirectoryEntry, FatFile>();
+                new LinkedHashMap<FatDirectoryEntry, Reference<FatFile>>();
                 
-        this.entryToDirectory =
-                new LinkedHashMap<FatDirectoryEntry, FatLfnDirectory>();
+        this.entryToDirectory = new LinkedHashMap<
+                FatDirectoryEntry, Reference<FatLfnDirectory>>();
                 
         this.usedNames = new HashSet<String>();
-        this.sng = new ShortNameGenerator(this.usedNames);
+        this.sng = new ShortNameGenerator(
+                this.usedNames, mount.getShortNameStyle());
         
+        if (dir.isLoaded()) {
+            parseLfn();
+            this.indexed = true;
+        }
+    }
+    
+    /**
+     * Makes sure the name indices of this directory are available, reading
+     * the directory if necessary. All operations which modify the directory
+     * or look up names more than once need the indices.
+     *
+     * @throws IOException on read error
+     */
+    private void ensureIndexed() throws IOException {
+        if (indexed) return;
+        
+        dir.load();
         parseLfn();
+        this.indexed = true;
+        
+        /* parsing may have freed broken LFN entries */
+        if (dir.isDirty() && !isReadOnly()) setDirty();
+    }
+    
+    /**
+     * Returns if the name indices of this directory were built.
+     *
+     * @return if this directory is indexed
+     */
+    boolean isIndexed() {
+        return this.indexed;
     }
 
     Fat getFat() {
@@ -96,28 +178,104 @@ public final class FatLfnDirectory
     }
     
     FatFile getFile(FatDirectoryEntry entry) throws IOException {
-        FatFile file = entryToFile.get(entry);
-
+        final Reference<FatFile> ref = entryToFile.get(entry);
+        FatFile file = (ref == null) ? null : ref.get();
+        
         if (file == null) {
-            file = FatFile.get(fat, entry);
-            entryToFile.put(entry, file);
+            file = FatFile.get(fat, entry, this, mount);
+            entryToFile.put(entry, new WeakReference<FatFile>(file));
         }
         
+        cache.touch(file);
         return file;
     }
     
+    /**
+     * Returns the file for the specified entry. For a
+     * {@link FatLfnDirectoryEntry#detached detached} entry in a read-only
+     * directory, the file is not cached so the directory needs not be
+     * indexed.
+     *
+     * @param entry the entry to get the file for
+     * @return the file
+     * @throws IOException on error reading the directory
+     */
+    FatFile getFile(FatLfnDirectoryEntry entry) throws IOException {
+        if (entry.detached && isReadOnly()) {
+            return FatFile.get(fat, entry.realEntry, this, mount);
+        }
+        
+        attach(entry);
+        return getFile(entry.realEntry);
+    }
+    
+    /**
+     * Returns the directory for the specified entry, see
+     * {@link #getFile(de.waldheinz.fs.fat.FatLfnDirectoryEntry)}.
+     *
+     * @param entry the entry to get the directory for
+     * @return the directory
+     * @throws IOException on error reading the directory
+     */
+    FatLfnDirectory getDirectory(FatLfnDirectoryEntry entry)
+            throws IOException {
+        
+        if (entry.detached && isReadOnly()) {
+            return new FatLfnDirectory(
+                    read(entry.realEntry, fat), fat, true, this, mount);
+        }
+        
+        attach(entry);
+        return getDirectory(entry.realEntry);
+    }
+    
     FatLfnDirectory getDirectory(FatDirectoryEntry entry) throws IOException {
-        FatLfnDirectory result = entryToDirectory.get(entry);
-
+        final Reference<FatLfnDirectory> ref = entryToDirectory.get(entry);
+        FatLfnDirectory result = (ref == null) ? null : ref.get();
+        
         if (result == null) {
             final ClusterChainDirectory storage = read(entry, fat);
-            result = new FatLfnDirectory(storage, fat, isReadOnly());
-            entryToDirectory.put(entry, result);
+            result = new FatLfnDirectory(
+                    storage, fat, isReadOnly(), this, mount);
+            entryToDirectory.put(entry,
+                    new WeakReference<FatLfnDirectory>(result));
         }
         
+        cache.touch(result);
         return result;
     }
     
+    /**
+     * Marks this directory as modified. It will stay in memory until it is
+     * {@link #flush() flushed}, and the ancestors are told that they have
+     * to visit it when they are flushed.
+     */
+    void setDirty() {
+        dir.setDirty();
+        cache.pin(this);
+        this.dirty = true;
+        parentsChildDirty();
+    }
+    
+    private void parentsChildDirty() {
+        FatLfnDirectory p = this.parent;
+        
+        while (p != null && !p.childDirty) {
+            p.childDirty = true;
+            p = p.parent;
+        }
+    }
+    
+    /**
+     * Returns if this directory or a directory below it was modified since
+     * it was last flushed.
+     *
+     * @return if this directory needs to be flushed
+     */
+    boolean isDirty() {
+        return this.dirty || this.childDirty;
+    }
+    
     /**
      * <p>
      * {@inheritDoc}
@@ -133,6 +291,7 @@ public final class FatLfnDirectory
     @Override
     public FatLfnDirectoryEntry addFile(String name) throws IOException {
         checkWritable();
+        ensureIndexed();
         checkUniqueName(name);
         
         name = name.trim();
@@ -141,18 +300,20 @@ public final class FatLfnDirectory
         final FatLfnDirectoryEntry entry =
                 new FatLfnDirectoryEntry(name, sn, this, false);
 
-        dir.addEntries(entry.compactForm());
+        store(entry);
         
-        shortNameIndex.put(sn, entry);
+        shortNameIndex.put(entry.realEntry.getShortName(), entry);
         longNameIndex.put(name.toLowerCase(Locale.ROOT), entry);
 
         getFile(entry.realEntry);
         
-        dir.setDirty();
+        cache.getPaths().linked(this, entry);
+        setDirty();
         return entry;
     }
     
-    boolean isFreeName(String name) {
+    boolean isFreeName(String name) throws IOException {
+        ensureIndexed();
         return !this.usedNames.contains(name.toLowerCase(Locale.ROOT));
     }
     
@@ -194,6 +355,7 @@ public final class FatLfnDirectory
     @Override
     public FatLfnDirectoryEntry addDirectory(String name) throws IOException {
         checkWritable();
+        ensureIndexed();
         checkUniqueName(name);
         
         name = name.trim();
@@ -204,20 +366,21 @@ public final class FatLfnDirectory
                 new FatLfnDirectoryEntry(this, real, name);
         
         try {
-            dir.addEntries(e.compactForm());
+            store(e);
         } catch (IOException ex) {
             final ClusterChain cc =
                     new ClusterChain(fat, real.getStartCluster(), false);
             cc.setChainLength(0);
-            dir.removeEntry(real);
             throw ex;
         }
         
-        shortNameIndex.put(sn, e);
+        shortNameIndex.put(real.getShortName(), e);
         longNameIndex.put(name.toLowerCase(Locale.ROOT), e);
 
         getDirectory(real);
         
+        cache.getPaths().linked(this, e);
+        setDirty();
         flush();
         return e;
     }
@@ -228,15 +391,32 @@ public final class FatLfnDirectory
      * </p><p>
      * According to the FAT file system specification, leading and trailing
      * spaces in the {@code name} are ignored by this method.
+     * </p><p>
+     * The first lookup in a directory which was not yet indexed scans the
+     * directory on the device. Only further lookups will build the index.
      * </p>
      *
      * @param name {@inheritDoc}
      * @return {@inheritDoc}
+     * @throws IllegalStateException on error reading the directory
      */
     @Override
-    public FatLfnDirectoryEntry getEntry(String name) {
+    public FatLfnDirectoryEntry getEntry(String name)
+            throws IllegalStateException {
+        
         name = name.trim().toLowerCase(Locale.ROOT);
         
+        if (!indexed) {
+            if (streamedLookups++ == 0) return findEntry(name);
+            
+            try {
+                ensureIndexed();
+            } catch (IOException ex) {
+                throw new IllegalStateException(
+                        "error reading directory", ex); //NOI18N
+            }
+        }
+        
         final FatLfnDirectoryEntry entry = longNameIndex.get(name);
         
         if (entry == null) {
@@ -247,33 +427,94 @@ public final class FatLfnDirectory
         }
     }
     
+    /**
+     * Scans the directory on the device for an entry with the specified
+     * (lower-case) long or short name. Like the index, a long name match
+     * wins over a short name match of some other entry.
+     *
+     * @param name the name to look for
+     * @return the detached entry, or {@code null} if there is no such entry
+     */
+    private FatLfnDirectoryEntry findEntry(String name) {
+        final ShortName sn = ShortName.canConvert(name) ?
+                ShortName.get(name) : null;
+        
+        final DirectoryStream ds = new DirectoryStream(this);
+        FatLfnDirectoryEntry shortMatch = null;
+        
+        while (ds.hasNext()) {
+            final FatLfnDirectoryEntry e = (FatLfnDirectoryEntry) ds.next();
+            
+            if (e.getName().toLowerCase(Locale.ROOT).equals(name)) {
+                return e;
+            } else if (shortMatch == null &&
+                    e.realEntry.getShortName().equals(sn)) {
+                
+                shortMatch = e;
+            }
+        }
+        
+        return shortMatch;
+    }
+    
+    /**
+     * Makes a detached entry, as returned while this directory was not
+     * indexed, part of the index. The entry takes the place of the indexed
+     * entry for the same slots, sharing the underlying
+     * {@link FatDirectoryEntry} so any files or directories already opened
+     * stay valid.
+     *
+     * @param entry the entry to attach
+     * @throws IOException if the entry is no longer part of this directory
+     */
+    void attach(FatLfnDirectoryEntry entry) throws IOException {
+        if (!entry.detached) return;
+        
+        ensureIndexed();
+        
+        final ShortName sn = entry.realEntry.getShortName();
+        final FatLfnDirectoryEntry indexed = shortNameIndex.get(sn);
+        
+        if (indexed == null) throw new IOException(
+                "the entry " + entry + " was removed"); //NOI18N
+        
+        entry.realEntry = indexed.realEntry;
+        entry.firstSlot = indexed.firstSlot;
+        entry.slotCount = indexed.slotCount;
+        entry.detached = false;
+        
+        shortNameIndex.put(sn, entry);
+        longNameIndex.put(entry.getName().toLowerCase(Locale.ROOT), entry);
+    }
+    
     private void parseLfn() throws IOException {
         int i = 0;
-        final int size = dir.getEntryCount();
+        final int size = dir.getSlotCount();
         
         while (i < size) {
-            // jump over empty entries
-            while (i < size && dir.getEntry(i) == null) {
+            final FatDirectoryEntry first = dir.getEntry(i);
+            
+            /* jump over free slots and the volume label */
+            if (first == null || first.isVolumeLabel()) {
                 i++;
+                continue;
             }
-
-            if (i >= size) {
-                break;
-            }
-
-            int offset = i; // beginning of the entry
+            
+            final int offset = i; // beginning of the entry
+            
             // check when we reach a real entry
-            while (dir.getEntry(i).isLfnEntry()) {
+            while (i < size && dir.getEntry(i) != null &&
+                    dir.getEntry(i).isLfnEntry()) {
+                
                 i++;
-                if (i >= size) {
-                    // This is a cutted entry, forgive it
-                    break;
-                }
             }
             
-            if (i >= size) {
+            if (i >= size || dir.getEntry(i) == null ||
+                    dir.getEntry(i).isVolumeLabel()) {
+                
                 // This is a cutted entry, forgive it
-                break;
+                dir.freeSlots(offset, i - offset);
+                continue;
             }
             
             final FatLfnDirectoryEntry current =
@@ -291,39 +532,87 @@ public final class FatLfnDirectory
         }
     }
     
-    private void updateLFN() throws IOException {
-        ArrayList<FatDirectoryEntry> dest =
-                new ArrayList<FatDirectoryEntry>();
-
-        for (FatLfnDirectoryEntry currentEntry : shortNameIndex.values()) {
-            FatDirectoryEntry[] encoded = currentEntry.compactForm();
-            dest.addAll(Arrays.asList(encoded));
-        }
+    /**
+     * Stores the slots making up the specified entry in the underlying
+     * directory, reusing free slots where possible.
+     *
+     * @param entry the entry to store
+     * @throws IOException on error growing the directory
+     */
+    private void store(FatLfnDirectoryEntry entry) throws IOException {
+        final FatDirectoryEntry[] encoded = entry.compactForm();
         
-        final int size = dest.size();
-
-        dir.changeSize(size);
-        dir.setEntries(dest);
+        entry.firstSlot = dir.addEntries(encoded);
+        entry.slotCount = encoded.length;
     }
 
+    /**
+     * <p>
+     * {@inheritDoc}
+     * </p><p>
+     * Only the sub-directories which were modified since they were last
+     * flushed, or have modified directories below them, are visited.
+     * </p>
+     * 
+     * @throws IOException {@inheritDoc}
+     */
     @Override
     public void flush() throws IOException {
         checkWritable();
         
-        for (FatFile f : entryToFile.values()) {
-            f.flush();
+        if (childDirty) {
+            final Iterator<Reference<FatLfnDirectory>> dit =
+                    entryToDirectory.values().iterator();
+
+            while (dit.hasNext()) {
+                final FatLfnDirectory d = dit.next().get();
+
+                if (d == null) {
+                    dit.remove();
+                } else if (d.isDirty()) {
+                    d.flush();
+                }
+            }
+            
+            this.childDirty = false;
         }
         
-        for (FatLfnDirectory d : entryToDirectory.values()) {
-            d.flush();
+        if (dirty || dir.isDirty()) {
+            final Iterator<Reference<FatFile>> fit =
+                    entryToFile.values().iterator();
+
+            while (fit.hasNext()) {
+                final FatFile f = fit.next().get();
+
+                if (f == null) {
+                    fit.remove();
+                } else {
+                    f.flush();
+                }
+            }
+            
+            dir.flush();
+            this.dirty = false;
         }
         
-        updateLFN();
-        dir.flush();
+        cache.unpin(this);
     }
 
+    /**
+     * <p>
+     * {@inheritDoc}
+     * </p><p>
+     * If this directory was not yet indexed, the returned iterator reads the
+     * entries straight from the device. The entries it returns are only
+     * added to the index when they are modified.
+     * </p>
+     * 
+     * @return {@inheritDoc}
+     */
     @Override
     public Iterator<FsDirectoryEntry> iterator() {
+        if (!indexed) return new DirectoryStream(this);
+        
         return new Iterator<FsDirectoryEntry>() {
 
             final Iterator<FatLfnDirectoryEntry> it =
@@ -361,18 +650,20 @@ public final class FatLfnDirectory
             throws IOException, IllegalArgumentException {
         
         checkWritable();
+        ensureIndexed();
         
         final FatLfnDirectoryEntry entry = getEntry(name);
         if (entry == null) return;
         
         unlinkEntry(entry);
         
+        this.entryToFile.remove(entry.realEntry);
+        this.entryToDirectory.remove(entry.realEntry);
+        
         final ClusterChain cc = new ClusterChain(
                 fat, entry.realEntry.getStartCluster(), false);
 
         cc.setChainLength(0);
-        
-        updateLFN();
     }
     
     /**
@@ -380,9 +671,12 @@ public final class FatLfnDirectory
      * deleting it.
      *
      * @param e the entry to be unlinked
+     * @throws IOException on error reading the directory
      * @see #linkEntry(de.waldheinz.fs.fat.FatLfnDirectoryEntry) 
      */
-    void unlinkEntry(FatLfnDirectoryEntry entry) {
+    void unlinkEntry(FatLfnDirectoryEntry entry) throws IOException {
+        attach(entry);
+        
         final ShortName sn = entry.realEntry.getShortName();
         
         if (sn.equals(ShortName.DOT) || sn.equals(ShortName.DOT_DOT)) throw
@@ -394,18 +688,21 @@ public final class FatLfnDirectory
         assert (this.longNameIndex.containsKey(lowerName));
         this.longNameIndex.remove(lowerName);
         
+        assert (this.usedNames.contains(lowerName));
+        this.usedNames.remove(lowerName);
+        
         assert (this.shortNameIndex.containsKey(sn));
         this.shortNameIndex.remove(sn);
         this.usedNames.remove(sn.asSimpleString().toLowerCase(Locale.ROOT));
         
-        assert (this.usedNames.contains(lowerName));
-        this.usedNames.remove(lowerName);
-        
-        if (entry.isFile()) {
-            this.entryToFile.remove(entry.realEntry);
-        } else {
-            this.entryToDirectory.remove(entry.realEntry);
+        if (entry.firstSlot >= 0) {
+            dir.freeSlots(entry.firstSlot, entry.slotCount);
+            entry.firstSlot = -1;
         }
+        
+        cache.getPaths().unlinked(this, entry);
+        
+        setDirty();
     }
     
     /**
@@ -416,15 +713,46 @@ public final class FatLfnDirectory
      * @see #unlinkEntry(de.waldheinz.fs.fat.FatLfnDirectoryEntry) 
      */
     void linkEntry(FatLfnDirectoryEntry entry) throws IOException {
+        ensureIndexed();
         checkUniqueName(entry.getName());
 
         final ShortName sn = makeShortName(entry.getName());
         entry.realEntry.setShortName(sn);
+        store(entry);
         
         this.longNameIndex.put(entry.getName().toLowerCase(Locale.ROOT), entry);
         this.shortNameIndex.put(entry.realEntry.getShortName(), entry);
         
-        updateLFN();
+        cache.getPaths().linked(this, entry);
+        setDirty();
+    }
+    
+    /**
+     * Hands the file or directory which was created for the specified entry
+     * over to another directory, after the entry was moved there. This
+     * keeps unsaved changes to the file or directory.
+     *
+     * @param entry the entry which was moved
+     * @param target the directory the entry was moved to
+     */
+    void handOver(FatDirectoryEntry entry, FatLfnDirectory target) {
+        final Reference<FatFile> fileRef = entryToFile.remove(entry);
+        final FatFile file = (fileRef == null) ? null : fileRef.get();
+        
+        if (file != null) {
+            file.setParent(target);
+            target.entryToFile.put(entry, fileRef);
+        }
+        
+        final Reference<FatLfnDirectory> dirRef =
+                entryToDirectory.remove(entry);
+        final FatLfnDirectory d = (dirRef == null) ? null : dirRef.get();
+        
+        if (d != null) {
+            d.parent = target;
+            target.entryToDirectory.put(entry, dirRef);
+            if (d.isDirty()) d.parentsChildDirty();
+        }
     }
     
     @Override
@@ -447,7 +775,7 @@ public final class FatLfnDirectory
         final ClusterChainDirectory result =
                 new ClusterChainDirectory(chain, false);
 
-        result.read();
+        result.readLazily();
         return result;
     }
     
@@ -41,7 +41,31 @@ public final class FatLfnDirectoryEntry
         extends AbstractFsObject
         implements FsDirectoryEntry {
     
-    final FatDirectoryEntry realEntry;
+    /**
+     * The underlying 8.3 entry. This is only reassigned when a
+     * {@link #detached} entry is attached to it's parent.
+     */
+    FatDirectoryEntry realEntry;
+    
+    /**
+     * The index of the first slot this entry occupies in the parent
+     * directory, or -1 if it is not stored there.
+     */
+    int firstSlot;
+    
+    /**
+     * The number of slots (LFN parts plus the real entry) this entry
+     * occupies in the parent directory.
+     */
+    int slotCount;
+    
+    /**
+     * If this entry was streamed from the parent directory and is not part
+     * of it's index. Such an entry is attached before it is modified.
+     * 
+     * @see FatLfnDirectory#attach(de.waldheinz.fs.fat.FatLfnDirectoryEntry) 
+     */
+    boolean detached;
     
     private FatLfnDirectory parent;
     private String fileName;
@@ -53,6 +77,7 @@ public final class FatLfnDirectoryEntry
         
         this.parent = parent;
         this.fileName = name;
+        this.firstSlot = -1;
         
         final long now = System.currentTimeMillis();
         this.realEntry = FatDirectoryEntry.create(
@@ -70,6 +95,7 @@ public final class FatLfnDirectoryEntry
         this.parent = parent;
         this.realEntry = realEntry;
         this.fileName = fileName;
+        this.firstSlot = -1;
     }
     
     static FatLfnDirectoryEntry extract(
@@ -93,7 +119,11 @@ public final class FatLfnDirectoryEntry
             fileName = name.toString().trim();
         }
         
-        return new FatLfnDirectoryEntry(dir, realEntry, fileName);
+        final FatLfnDirectoryEntry result =
+                new FatLfnDirectoryEntry(dir, realEntry, fileName);
+        result.firstSlot = offset;
+        result.slotCount = len;
+        return result;
     }
     
     /**
@@ -116,6 +146,7 @@ public final class FatLfnDirectoryEntry
      */
     public void setHiddenFlag(boolean hidden) throws ReadOnlyException {
         checkWritable();
+        beforeModification();
         
         this.realEntry.setHiddenFlag(hidden);
     }
@@ -140,6 +171,7 @@ public final class FatLfnDirectoryEntry
      */
     public void setSystemFlag(boolean systemEntry) throws ReadOnlyException {
         checkWritable();
+        beforeModification();
         
         this.realEntry.setSystemFlag(systemEntry);
     }
@@ -168,6 +200,7 @@ public final class FatLfnDirectoryEntry
      */
     public void setReadOnlyFlag(boolean readOnly) throws ReadOnlyException {
         checkWritable();
+        beforeModification();
         
         this.realEntry.setReadonlyFlag(readOnly);
     }
@@ -191,6 +224,7 @@ public final class FatLfnDirectoryEntry
      */
     public void setArchiveFlag(boolean archive) throws ReadOnlyException {
         checkWritable();
+        beforeModification();
 
         this.realEntry.setArchiveFlag(archive);
     }
@@ -289,6 +323,7 @@ public final class FatLfnDirectoryEntry
         }
         
         this.parent.unlinkEntry(this);
+        this.parent.handOver(realEntry, target);
         this.parent = target;
         this.fileName = newName;
         this.parent.linkEntry(this);
@@ -297,17 +332,36 @@ public final class FatLfnDirectoryEntry
     @Override
     public void setLastModified(long lastModified) {
         checkWritable();
+        beforeModification();
+        
         realEntry.setLastModified(lastModified);
     }
     
     @Override
     public FatFile getFile() throws IOException {
-        return parent.getFile(realEntry);
+        return parent.getFile(this);
     }
     
     @Override
     public FatLfnDirectory getDirectory() throws IOException {
-        return parent.getDirectory(realEntry);
+        return parent.getDirectory(this);
+    }
+    
+    /**
+     * Prepares this entry for being modified. It is attached to the
+     * parent directory if it is {@link #detached}, and the parent is
+     * marked as dirty.
+     *
+     * @throws IllegalStateException if attaching failed
+     */
+    private void beforeModification() throws IllegalStateException {
+        try {
+            parent.attach(this);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        
+        parent.setDirty();
     }
     
     @Override
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+/**
+ * Holds the settings which can be specified when mounting a
+ * {@link FatFileSystem}. The settings are evaluated when the file system is
+ * mounted, so changing an {@code FatMountOptions} instance afterwards has no
+ * effect on file systems which are already mounted.
+ *
+ * This class follows the "builder" pattern, which means it's setters always
+ * return the {@code FatMountOptions} instance they're called on:
+ * <pre>
+ *  FatFileSystem fs = FatFileSystem.read(dev, false,
+ *          new FatMountOptions().setFatCacheSize(1024 * 1024));
+ * </pre>
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatFileSystem#read(de.waldheinz.fs.BlockDevice, boolean, FatMountOptions)
+ */
+public final class FatMountOptions {
+
+    /**
+     * The default value for the {@link #getMaxTransferSize() maximum transfer
+     * size}, which is 1 MiB.
+     */
+    public final static int DEFAULT_MAX_TRANSFER_SIZE = 1024 * 1024;
+
+    /**
+     * The default value for the {@link #getObjectCacheSize() object cache
+     * size}.
+     */
+    public final static int DEFAULT_OBJECT_CACHE_SIZE = 4096;
+
+    /**
+     * The default value for the {@link #getPathCacheSize() path cache
+     * size}.
+     */
+    public final static int DEFAULT_PATH_CACHE_SIZE = 4096;
+
+    private int fatCacheSize;
+    private AllocationStrategy allocationStrategy;
+    private int maxTransferSize;
+    private ShortNameStyle shortNameStyle;
+    private int objectCacheSize;
+    private int pathCacheSize;
+    private AccessTimePolicy accessTimePolicy;
+
+    /**
+     * Creates a new {@code FatMountOptions} instance holding the default
+     * settings.
+     */
+    public FatMountOptions() {
+        this.fatCacheSize = 0;
+        this.allocationStrategy = AllocationStrategy.NEXT_FIT;
+        this.maxTransferSize = DEFAULT_MAX_TRANSFER_SIZE;
+        this.shortNameStyle = ShortNameStyle.NUMERIC;
+        this.objectCacheSize = DEFAULT_OBJECT_CACHE_SIZE;
+        this.pathCacheSize = DEFAULT_PATH_CACHE_SIZE;
+        this.accessTimePolicy = AccessTimePolicy.DAILY;
+    }
+
+    /**
+     * Returns the number of bytes that may be used to cache the file
+     * allocation table in memory.
+     *
+     * @return the FAT cache size in bytes, or 0 if the whole FAT is kept
+     *      in memory
+     * @see #setFatCacheSize(int)
+     */
+    public int getFatCacheSize() {
+        return fatCacheSize;
+    }
+
+    /**
+     * Sets the number of bytes that may be used to cache the file allocation
+     * table in memory. When set to 0 (the default), the whole FAT is read when
+     * the file system is mounted. Otherwise the FAT sectors are read on demand
+     * and the least recently used sectors are dropped when the specified
+     * memory budget is exhausted. This allows to mount large file systems
+     * quickly and with a fixed memory footprint, at the price of having to
+     * go to the device when sectors which are not cached are accessed.
+     *
+     * When the FAT is cached, the FAT copies are not compared when mounting
+     * the file system.
+     *
+     * @param size the FAT cache size in bytes, or 0 to keep the whole FAT in
+     *      memory
+     * @return this {@code FatMountOptions}
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public FatMountOptions setFatCacheSize(int size)
+            throws IllegalArgumentException {
+
+        if (size < 0) throw new IllegalArgumentException(
+                "negative FAT cache size"); //NOI18N
+
+        this.fatCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Returns the strategy used to choose free clusters for files.
+     *
+     * @return the cluster allocation strategy
+     * @see #setAllocationStrategy(AllocationStrategy)
+     */
+    public AllocationStrategy getAllocationStrategy() {
+        return allocationStrategy;
+    }
+
+    /**
+     * Sets the strategy used to choose free clusters for files. The default
+     * is {@link AllocationStrategy#NEXT_FIT}.
+     *
+     * @param strategy the new cluster allocation strategy
+     * @return this {@code FatMountOptions}
+     * @throws NullPointerException if the strategy is {@code null}
+     */
+    public FatMountOptions setAllocationStrategy(AllocationStrategy strategy)
+            throws NullPointerException {
+        
+        if (strategy == null) throw new NullPointerException();
+        
+        this.allocationStrategy = strategy;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of bytes that are read from or written to
+     * the device in a single operation when accessing file or directory
+     * contents.
+     *
+     * @return the maximum transfer size in bytes
+     * @see #setMaxTransferSize(int)
+     */
+    public int getMaxTransferSize() {
+        return maxTransferSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes that are read from or written to the
+     * device in a single operation when accessing file or directory
+     * contents. Clusters which are stored next to each other on the device
+     * are transferred together, up to this limit. At least one cluster is
+     * always transferred at once, regardless of this setting.
+     *
+     * @param size the maximum transfer size in bytes
+     * @return this {@code FatMountOptions}
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public FatMountOptions setMaxTransferSize(int size)
+            throws IllegalArgumentException {
+        
+        if (size <= 0) throw new IllegalArgumentException(
+                "invalid maximum transfer size " + size); //NOI18N
+        
+        this.maxTransferSize = size;
+        return this;
+    }
+
+    /**
+     * Returns the scheme used to make generated short names unique.
+     *
+     * @return the short name style
+     * @see #setShortNameStyle(ShortNameStyle)
+     */
+    public ShortNameStyle getShortNameStyle() {
+        return shortNameStyle;
+    }
+
+    /**
+     * Sets the scheme used to make generated short names unique. The default
+     * is {@link ShortNameStyle#NUMERIC}.
+     *
+     * @param style the new short name style
+     * @return this {@code FatMountOptions}
+     * @throws NullPointerException if the style is {@code null}
+     */
+    public FatMountOptions setShortNameStyle(ShortNameStyle style)
+            throws NullPointerException {
+        
+        if (style == null) throw new NullPointerException();
+        
+        this.shortNameStyle = style;
+        return this;
+    }
+
+    /**
+     * Returns the number of recently used files and directories which are
+     * kept in memory.
+     *
+     * @return the object cache size
+     * @see #setObjectCacheSize(int)
+     */
+    public int getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    /**
+     * Sets the number of recently used files and directories which are kept
+     * in memory, even if the application does not reference them. Files and
+     * directories beyond this limit are dropped when they are no longer
+     * referenced, and read from the device again when they are needed.
+     * Directories which were modified are kept in memory until they are
+     * flushed, regardless of this setting.
+     *
+     * @param size the maximum number of recently used objects to keep
+     * @return this {@code FatMountOptions}
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public FatMountOptions setObjectCacheSize(int size)
+            throws IllegalArgumentException {
+        
+        if (size < 0) throw new IllegalArgumentException(
+                "negative object cache size"); //NOI18N
+        
+        this.objectCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Returns the number of paths for which the result of
+     * {@link FatFileSystem#resolve(java.lang.String) resolving} them is
+     * cached.
+     *
+     * @return the path cache size
+     * @see #setPathCacheSize(int)
+     */
+    public int getPathCacheSize() {
+        return pathCacheSize;
+    }
+
+    /**
+     * Sets the number of paths for which the result of
+     * {@link FatFileSystem#resolve(java.lang.String) resolving} them is
+     * cached. This includes the paths which do not exist, and the prefixes
+     * of the resolved paths. The directories on the cached paths are kept
+     * in memory.
+     *
+     * @param size the maximum number of paths to cache, or 0 to disable
+     *      the path cache
+     * @return this {@code FatMountOptions}
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public FatMountOptions setPathCacheSize(int size)
+            throws IllegalArgumentException {
+        
+        if (size < 0) throw new IllegalArgumentException(
+                "negative path cache size"); //NOI18N
+        
+        this.pathCacheSize = size;
+        return this;
+    }
+
+    /**
+     * Returns the policy for updating the "last accessed" field of files
+     * which are read.
+     *
+     * @return the access time policy
+     * @see #setAccessTimePolicy(AccessTimePolicy)
+     */
+    public AccessTimePolicy getAccessTimePolicy() {
+        return accessTimePolicy;
+    }
+
+    /**
+     * Sets the policy for updating the "last accessed" field of files which
+     * are read. The default is {@link AccessTimePolicy#DAILY}. Choosing
+     * {@link AccessTimePolicy#NEVER} or {@link AccessTimePolicy#LAZY} makes
+     * reading files on a writable file system cause no directory writes
+     * at all. This setting has no effect on read-only file systems.
+     *
+     * @param policy the new access time policy
+     * @return this {@code FatMountOptions}
+     * @throws NullPointerException if the policy is {@code null}
+     */
+    public FatMountOptions setAccessTimePolicy(AccessTimePolicy policy)
+            throws NullPointerException {
+        
+        if (policy == null) throw new NullPointerException();
+        
+        this.accessTimePolicy = policy;
+        return this;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
+import de.waldheinz.fs.IoOrigin;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This is the abstract base class for the different ways a {@link Fat} can
+ * keep it's entries in memory.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+abstract class FatStorage {
+
+    protected final BootSector bs;
+    protected final BlockDevice device;
+    protected final FatType fatType;
+    protected final long offset;
+    protected final int sectorCount;
+    protected final int sectorSize;
+    private final int entryCount;
+
+    /**
+     * Creates a new instance of {@code FatStorage}.
+     *
+     * @param bs the boot sector describing the FAT layout
+     * @param offset the device offset of the FAT copy to read from
+     * @param sectorCount the number of sectors per FAT
+     * @param sectorSize the number of bytes per sector
+     */
+    protected FatStorage(BootSector bs, long offset,
+            int sectorCount, int sectorSize) {
+
+        this.bs = bs;
+        this.device = bs.getDevice();
+        this.fatType = bs.getFatType();
+        this.offset = offset;
+        this.sectorCount = sectorCount;
+        this.sectorSize = sectorSize;
+        this.entryCount = (int) ((sectorCount * sectorSize) /
+                fatType.getEntrySize());
+    }
+
+    /**
+     * Returns the number of entries that can be stored in this FAT. This
+     * may be more than the number of clusters in the data area.
+     *
+     * @return the number of FAT entries
+     */
+    public final int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets called when the FAT must read it's contents from the device.
+     *
+     * @throws IOException on read error
+     */
+    public abstract void read() throws IOException;
+
+    /**
+     * Returns the entry with the specified index.
+     *
+     * @param index the index of the entry to get
+     * @return the entry value
+     * @throws IOException on read error
+     */
+    public abstract long getEntry(int index) throws IOException;
+
+    /**
+     * Updates the entry with the specified index. The sectors holding the
+     * entry are remembered as dirty until the next {@link #flush() flush}.
+     *
+     * @param index the index of the entry to update
+     * @param value the new entry value
+     * @throws IOException on read error
+     */
+    public abstract void setEntry(int index, long value) throws IOException;
+
+    /**
+     * Writes the sectors which were modified since the last flush to all FAT
+     * copies specified by the boot sector.
+     *
+     * @throws IOException on write error
+     */
+    public abstract void flush() throws IOException;
+
+    /**
+     * Writes the complete contents of this FAT to the specified device
+     * offset.
+     *
+     * @param offset the device offset where to write the FAT copy
+     * @throws IOException on read or write error
+     */
+    public abstract void writeCopy(long offset) throws IOException;
+
+    /**
+     * Compares the entries of this storage with the entries of another one.
+     *
+     * @param other the storage to compare with
+     * @return if both storages hold the same entries
+     * @throws IOException on read error
+     */
+    public boolean contentEquals(FatStorage other) throws IOException {
+        if (this.entryCount != other.entryCount) return false;
+
+        for (int i=0; i < entryCount; i++) {
+            if (this.getEntry(i) != other.getEntry(i)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes a hash code over the entries of this storage. The result is
+     * the same {@link java.util.Arrays#hashCode(long[])} would give for an
+     * array holding all entries.
+     *
+     * @return the hash code of the entries
+     * @throws IOException on read error
+     */
+    public int contentHashCode() throws IOException {
+        int result = 1;
+
+        for (int i=0; i < entryCount; i++) {
+            final long e = getEntry(i);
+            result = 31 * result + (int) (e ^ (e >>> 32));
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the specified data to all FAT copies specified by the boot
+     * sector. All bytes from the buffer, starting at position 0 up to it's
+     * limit are written.
+     *
+     * @param sector the FAT sector where the data starts
+     * @param data the bytes to write
+     * @throws IOException on write error
+     */
+    protected final void writeToCopies(int sector, ByteBuffer data)
+            throws IOException {
+
+        writeToCopies(new int[] { sector }, new ByteBuffer[] { data });
+    }
+    
+    /**
+     * Writes a batch of sector runs to all FAT copies specified by the boot
+     * sector, using a single (vectored) device operation. For every run, all
+     * bytes from the buffer, starting at position 0 up to it's limit are
+     * written.
+     *
+     * @param sectors the FAT sectors where the runs start
+     * @param data the bytes to write for each run
+     * @throws IOException on write error
+     * @see BlockDevices#write(BlockDevice, long[], ByteBuffer[])
+     */
+    protected final void writeToCopies(int[] sectors, ByteBuffer[] data)
+            throws IOException {
+        
+        final int nrFats = bs.getNrFats();
+        final long[] devOffsets = new long[nrFats * sectors.length];
+        final ByteBuffer[] buffers = new ByteBuffer[devOffsets.length];
+        
+        for (int i=0; i < nrFats; i++) {
+            for (int j=0; j < sectors.length; j++) {
+                final int k = i * sectors.length + j;
+                devOffsets[k] = bs.getFatOffset(i) +
+                        (long) sectors[j] * sectorSize;
+                buffers[k] = data[j].duplicate();
+                buffers[k].rewind();
+            }
+        }
+        
+        final IoOrigin prev = IoOrigin.FAT.enter();
+
+        try {
+            BlockDevices.write(device, devOffsets, buffers);
+        } finally {
+            IoOrigin.leave(prev);
+        }
+    }
+
+}
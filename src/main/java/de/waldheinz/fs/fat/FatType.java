@@ -51,11 +51,14 @@ public enum FatType {
         void writeEntry(byte[] data, int index, long entry) {
             final int idx = (int) (index * 1.5);
             
+            /* preserve the nibble belonging to the neighbouring entry */
             if ((index % 2) == 0) {
                 data[idx] = (byte) (entry & 0xFF);
-                data[idx + 1] = (byte) ((entry >> 8) & 0x0F);
+                data[idx + 1] = (byte) ((data[idx + 1] & 0xF0) |
+                        ((entry >> 8) & 0x0F));
             } else {
-                data[idx] |= (byte) ((entry & 0x0F) << 4);
+                data[idx] = (byte) ((data[idx] & 0x0F) |
+                        ((entry & 0x0F) << 4));
                 data[idx + 1] = (byte) ((entry >> 4) & 0xFF);
             }
         }
@@ -129,8 +132,23 @@ public enum FatType {
         this.bitMask = bitMask;
     }
 
+    /**
+     * Decodes a FAT entry from it's on-disk representation.
+     *
+     * @param data the raw FAT bytes
+     * @param index the index of the entry to read
+     * @return the entry value
+     */
     abstract long readEntry(byte[] data, int index);
 
+    /**
+     * Encodes a FAT entry to it's on-disk representation. Only the bytes
+     * (or, for FAT12, the nibbles) occupied by the entry are modified.
+     *
+     * @param data the raw FAT bytes
+     * @param index the index of the entry to write
+     * @param entry the new entry value
+     */
     abstract void writeEntry(byte[] data, int index, long entry);
 
     /**
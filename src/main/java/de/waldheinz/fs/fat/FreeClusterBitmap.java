@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+/**
+ * Keeps track of the free clusters of a {@link Fat}, using one bit per
+ * cluster. Besides a running count of the free clusters, this allows to
+ * search for free clusters (and the end of free cluster runs) 64 clusters
+ * at a time.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+final class FreeClusterBitmap {
+
+    private final int firstCluster;
+    private final int endCluster;
+
+    /**
+     * Bit {@code i} is set if cluster {@code i} is free.
+     */
+    private final long[] words;
+    
+    private int freeCount;
+
+    /**
+     * Creates a new {@code FreeClusterBitmap} for the specified range of
+     * clusters. Initially, all clusters are marked as being in use.
+     *
+     * @param firstCluster the first cluster tracked by this bitmap
+     * @param endCluster the cluster after the last cluster tracked
+     */
+    FreeClusterBitmap(int firstCluster, int endCluster) {
+        if (firstCluster < 0 || endCluster < firstCluster) {
+            throw new IllegalArgumentException(
+                    "invalid cluster range " + firstCluster +
+                    " .. " + endCluster); //NOI18N
+        }
+        
+        this.firstCluster = firstCluster;
+        this.endCluster = endCluster;
+        this.words = new long[(endCluster + 63) >>> 6];
+    }
+    
+    /**
+     * Returns the number of clusters that are currently marked as free.
+     *
+     * @return the free cluster count
+     */
+    public int getFreeCount() {
+        return freeCount;
+    }
+    
+    /**
+     * Returns if the specified cluster is tracked by this bitmap.
+     *
+     * @param cluster the cluster to test
+     * @return if the cluster is within the range of this bitmap
+     */
+    public boolean contains(long cluster) {
+        return (cluster >= firstCluster) && (cluster < endCluster);
+    }
+    
+    /**
+     * Returns if the specified cluster is marked as free.
+     *
+     * @param cluster the cluster to test, must be tracked by this bitmap
+     * @return if the cluster is free
+     */
+    public boolean isFree(int cluster) {
+        return (words[cluster >>> 6] & (1L << cluster)) != 0;
+    }
+    
+    /**
+     * Marks a cluster as being free or in use.
+     *
+     * @param cluster the cluster to update
+     * @param free if the cluster is free
+     * @throws IllegalArgumentException if the cluster is not tracked by
+     *      this bitmap
+     */
+    public void setFree(int cluster, boolean free)
+            throws IllegalArgumentException {
+        
+        if (!contains(cluster)) throw new IllegalArgumentException(
+                "cluster " + cluster + " out of range"); //NOI18N
+        
+        final int idx = cluster >>> 6;
+        final long mask = 1L << cluster;
+        final boolean wasFree = (words[idx] & mask) != 0;
+
+        if (free == wasFree) return;
+
+        if (free) {
+            words[idx] |= mask;
+            freeCount++;
+        } else {
+            words[idx] &= ~mask;
+            freeCount--;
+        }
+    }
+    
+    /**
+     * Searches for the first free cluster which is not below {@code from}.
+     *
+     * @param from the cluster where to start the search
+     * @return the first free cluster found, or -1 if there is no free
+     *      cluster at or after {@code from}
+     */
+    public int nextFree(int from) {
+        if (from < firstCluster) from = firstCluster;
+        if (from >= endCluster) return -1;
+        
+        int idx = from >>> 6;
+        long word = words[idx] & (-1L << from);
+        
+        while (word == 0) {
+            if (++idx == words.length) return -1;
+            word = words[idx];
+        }
+        
+        /* bits beyond endCluster are never set */
+        return (idx << 6) + Long.numberOfTrailingZeros(word);
+    }
+    
+    /**
+     * Searches for the first cluster which is in use and not below
+     * {@code from}. Together with {@link #nextFree(int)} this allows to
+     * find runs of free clusters.
+     *
+     * @param from the cluster where to start the search
+     * @return the first used cluster found, or the end of the tracked
+     *      cluster range if all clusters from {@code from} on are free
+     */
+    public int nextUsed(int from) {
+        if (from < firstCluster) from = firstCluster;
+        if (from >= endCluster) return endCluster;
+
+        int idx = from >>> 6;
+        long word = ~words[idx] & (-1L << from);
+
+        while (word == 0) {
+            if (++idx == words.length) return endCluster;
+            word = ~words[idx];
+        }
+
+        return Math.min(endCluster,
+                (idx << 6) + Long.numberOfTrailingZeros(word));
+    }
+    
+}
@@ -43,6 +43,14 @@ final class FsInfoSector extends Sector {
      * The offset to the signature of this sector.
      */
     public static final int SIGNATURE_OFFSET = 0x1fe;
+    
+    /**
+     * The value stored as the free cluster count when the number of free
+     * clusters is not known.
+     *
+     * @see #setFreeClusterCount(long) 
+     */
+    public static final long UNKNOWN = -1;
 
     private FsInfoSector(BlockDevice device, long offset) {
         super(device, offset, BootSector.SIZE);
@@ -98,7 +106,7 @@ final class FsInfoSector extends Sector {
      * Sets the number of free clusters on the file system stored at
      * {@link #FREE_CLUSTERS_OFFSET}.
      *
-     * @param value the new free cluster count
+     * @param value the new free cluster count, or {@link #UNKNOWN}
      * @see Fat#getFreeClusterCount()
      */
     public void setFreeClusterCount(long value) {
@@ -156,7 +164,7 @@ final class FsInfoSector extends Sector {
         buffer.put((byte) 0x41);
         buffer.put((byte) 0x61);
         
-        setFreeClusterCount(-1);
+        setFreeClusterCount(UNKNOWN);
         setLastAllocatedCluster(Fat.FIRST_CLUSTER);
 
         buffer.position(SIGNATURE_OFFSET);
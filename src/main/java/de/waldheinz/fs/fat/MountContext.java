@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+/**
+ * Holds the state and settings which are shared by all directories and
+ * files of a mounted {@link FatFileSystem}.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatMountOptions
+ */
+final class MountContext {
+    
+    private final ObjectCache cache;
+    private final ShortNameStyle shortNameStyle;
+    private final AccessTimePolicy accessTimePolicy;
+    
+    /**
+     * Creates a new {@code MountContext} for the specified options.
+     *
+     * @param options the options the file system is mounted with
+     */
+    MountContext(FatMountOptions options) {
+        this(options, new ObjectCache(options.getObjectCacheSize(),
+                options.getPathCacheSize()));
+    }
+    
+    /**
+     * Creates a new {@code MountContext} for the specified options, which
+     * uses the specified {@code ObjectCache} instead of creating one.
+     *
+     * @param options the options the file system is mounted with
+     * @param cache the cache for files and directories
+     */
+    MountContext(FatMountOptions options, ObjectCache cache) {
+        if (cache == null) throw new NullPointerException();
+        
+        this.cache = cache;
+        this.shortNameStyle = options.getShortNameStyle();
+        this.accessTimePolicy = options.getAccessTimePolicy();
+    }
+    
+    /**
+     * Returns the cache for the files and directories.
+     *
+     * @return the object cache
+     */
+    ObjectCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Returns the scheme used to make generated short names unique.
+     *
+     * @return the short name style
+     */
+    ShortNameStyle getShortNameStyle() {
+        return shortNameStyle;
+    }
+    
+    /**
+     * Returns the policy for updating the "last accessed" field of files
+     * which are read.
+     *
+     * @return the access time policy
+     */
+    AccessTimePolicy getAccessTimePolicy() {
+        return accessTimePolicy;
+    }
+    
+}
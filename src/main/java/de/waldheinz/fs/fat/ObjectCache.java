@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Keeps the {@link FatFile} and {@link FatLfnDirectory} instances of a
+ * {@link FatFileSystem} in memory. The directories only hold weak
+ * references to the files and sub-directories they handed out, so it is up
+ * to this cache which of them stay around when the application does not
+ * reference them any more.
+ * 
+ * The most recently used objects are held up to a fixed count. Directories
+ * which were modified are <em>pinned</em> until they are flushed, because
+ * dropping them would lose the modifications. Everything else is left to
+ * the garbage collector, and re-read from the device when it is needed
+ * again.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatMountOptions#setObjectCacheSize(int) 
+ */
+final class ObjectCache {
+    
+    private final int maxSize;
+    
+    /**
+     * The recently used objects, in access order.
+     */
+    private final LinkedHashMap<Object, Object> recent;
+    
+    private final Set<FatLfnDirectory> pinned;
+    private final PathCache paths;
+    
+    /**
+     * Creates a new {@code ObjectCache} holding up to the specified number
+     * of recently used objects, which does not cache any paths.
+     *
+     * @param maxSize the maximum number of recently used objects to hold
+     * @throws IllegalArgumentException if the size is negative
+     */
+    ObjectCache(int maxSize) throws IllegalArgumentException {
+        this(maxSize, 0);
+    }
+    
+    /**
+     * Creates a new {@code ObjectCache} holding up to the specified number
+     * of recently used objects and resolved paths.
+     *
+     * @param maxSize the maximum number of recently used objects to hold
+     * @param pathCacheSize the maximum number of paths to cache
+     * @throws IllegalArgumentException if a size is negative
+     */
+    ObjectCache(int maxSize, int pathCacheSize)
+            throws IllegalArgumentException {
+        
+        if (maxSize < 0) throw new IllegalArgumentException(
+                "negative cache size " + maxSize); //NOI18N
+        
+        this.paths = new PathCache(pathCacheSize);
+        this.maxSize = maxSize;
+        this.recent = new LinkedHashMap<Object, Object>(16, 0.75f, true);
+        this.pinned = Collections.newSetFromMap(
+                new IdentityHashMap<FatLfnDirectory, Boolean>());
+    }
+    
+    /**
+     * Records an access to the specified object, possibly dropping the
+     * least recently used one.
+     *
+     * @param o the object which was accessed
+     */
+    void touch(Object o) {
+        if (maxSize == 0) return;
+        
+        recent.put(o, o);
+        
+        if (recent.size() > maxSize) {
+            final Iterator<Object> it = recent.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+    
+    /**
+     * Keeps the specified directory in memory until it is
+     * {@link #unpin(de.waldheinz.fs.fat.FatLfnDirectory) unpinned}.
+     *
+     * @param dir the directory which was modified
+     */
+    void pin(FatLfnDirectory dir) {
+        pinned.add(dir);
+    }
+    
+    /**
+     * Tells that the specified directory was flushed, so it may be dropped.
+     *
+     * @param dir the directory which was flushed
+     */
+    void unpin(FatLfnDirectory dir) {
+        pinned.remove(dir);
+    }
+    
+    /**
+     * Returns the cache for resolved paths.
+     *
+     * @return the path cache
+     */
+    PathCache getPaths() {
+        return paths;
+    }
+    
+    /**
+     * Returns the number of recently used objects which are held.
+     *
+     * @return the number of objects held because they were used recently
+     */
+    int getSize() {
+        return recent.size();
+    }
+    
+    /**
+     * Returns the number of directories which are held because they were
+     * modified and not flushed yet.
+     *
+     * @return the number of pinned directories
+     */
+    int getPinnedCount() {
+        return pinned.size();
+    }
+    
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.IoOrigin;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link FatStorage} which reads the FAT sectors on demand and keeps only
+ * a limited number of them in memory. When the cache is full, the least
+ * recently used sector is dropped, possibly writing it to the FAT copies
+ * if it was modified.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+final class PagedFatStorage extends FatStorage {
+
+    /**
+     * The maximum number of bytes that are read from or written to the
+     * device at once when copying the FAT.
+     */
+    private final static int COPY_CHUNK_SIZE = 64 * 1024;
+
+    private final int maxPages;
+    private final LinkedHashMap<Integer, Page> pages;
+
+    /**
+     * The most recently used page, saves the map look-up when consecutive
+     * accesses go to the same sector.
+     */
+    private Page lastPage;
+    private int lastPageNr;
+
+    /**
+     * Creates a new {@code PagedFatStorage}.
+     *
+     * @param bs the boot sector describing the FAT layout
+     * @param offset the device offset of the FAT copy to read from
+     * @param sectorCount the number of sectors per FAT
+     * @param sectorSize the number of bytes per sector
+     * @param cacheSize the maximum number of bytes to keep in memory, at
+     *      least one sector will always be cached
+     */
+    PagedFatStorage(BootSector bs, long offset,
+            int sectorCount, int sectorSize, int cacheSize) {
+
+        super(bs, offset, sectorCount, sectorSize);
+
+        this.maxPages = Math.max(1, cacheSize / sectorSize);
+        this.pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true);
+        this.lastPageNr = -1;
+    }
+
+    /**
+     * Drops all cached sectors, so they will be read from the device
+     * when accessed again.
+     */
+    @Override
+    public void read() {
+        this.pages.clear();
+        this.lastPage = null;
+        this.lastPageNr = -1;
+    }
+
+    /**
+     * Returns the number of FAT sectors that are currently held in memory.
+     *
+     * @return the number of cached sectors
+     */
+    int getCachedSectorCount() {
+        return pages.size();
+    }
+
+    @Override
+    public long getEntry(int index) throws IOException {
+        final int first = (int) (index * fatType.getEntrySize());
+        final int len = (int) Math.ceil(fatType.getEntrySize());
+        long result = 0;
+
+        for (int i = len - 1; i >= 0; i--) {
+            result = (result << 8) | getByte(first + i);
+        }
+
+        if (fatType == FatType.FAT12) {
+            if ((index % 2) == 0) {
+                return result & 0xFFF;
+            } else {
+                return result >> 4;
+            }
+        } else {
+            return result;
+        }
+    }
+
+    @Override
+    public void setEntry(int index, long value) throws IOException {
+        final int first = (int) (index * fatType.getEntrySize());
+
+        if (fatType == FatType.FAT12) {
+            if ((index % 2) == 0) {
+                setByte(first, (int) (value & 0xFF));
+                setByte(first + 1, (getByte(first + 1) & 0xF0) |
+                        (int) ((value >> 8) & 0x0F));
+            } else {
+                setByte(first, (getByte(first) & 0x0F) |
+                        (int) ((value & 0x0F) << 4));
+                setByte(first + 1, (int) ((value >> 4) & 0xFF));
+            }
+        } else {
+            final int len = (int) fatType.getEntrySize();
+
+            for (int i=0; i < len; i++) {
+                setByte(first + i, (int) ((value >> (8 * i)) & 0xFF));
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final List<Integer> dirty = new ArrayList<Integer>();
+
+        for (Map.Entry<Integer, Page> e : pages.entrySet()) {
+            if (e.getValue().dirty) dirty.add(e.getKey());
+        }
+
+        Collections.sort(dirty);
+
+        final int[] sectors = new int[dirty.size()];
+        final Page[] written = new Page[sectors.length];
+        final ByteBuffer[] buffers = new ByteBuffer[sectors.length];
+        
+        for (int i=0; i < sectors.length; i++) {
+            sectors[i] = dirty.get(i);
+            written[i] = pages.get(dirty.get(i));
+            buffers[i] = ByteBuffer.wrap(written[i].data);
+        }
+        
+        writeToCopies(sectors, buffers);
+        
+        for (Page p : written) {
+            p.dirty = false;
+        }
+    }
+
+    /**
+     * Writes all modified sectors to the FAT copies and then copies the FAT
+     * sector by sector to the specified offset.
+     *
+     * @param offset {@inheritDoc}
+     * @throws IOException {@inheritDoc}
+     */
+    @Override
+    public void writeCopy(long offset) throws IOException {
+        flush();
+
+        if (offset == this.offset) return;
+
+        final long size = (long) sectorCount * sectorSize;
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                (int) Math.min(size, COPY_CHUNK_SIZE));
+
+        final IoOrigin prev = IoOrigin.FAT.enter();
+        
+        try {
+            for (long pos = 0; pos < size; pos += buffer.capacity()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - pos));
+                device.read(this.offset + pos, buffer);
+                buffer.flip();
+                device.write(offset + pos, buffer);
+            }
+        } finally {
+            IoOrigin.leave(prev);
+        }
+    }
+
+    private int getByte(int offset) throws IOException {
+        return getPage(offset / sectorSize).data[offset % sectorSize] & 0xFF;
+    }
+
+    private void setByte(int offset, int value) throws IOException {
+        final Page p = getPage(offset / sectorSize);
+        p.data[offset % sectorSize] = (byte) value;
+        p.dirty = true;
+    }
+
+    private Page getPage(int nr) throws IOException {
+        if (nr == lastPageNr) return lastPage;
+
+        Page result = pages.get(nr);
+
+        if (result == null) {
+            final byte[] data;
+
+            if (pages.size() >= maxPages) {
+                data = evict();
+            } else {
+                data = new byte[sectorSize];
+            }
+
+            final IoOrigin prev = IoOrigin.FAT.enter();
+
+            try {
+                device.read(offset + (long) nr * sectorSize,
+                        ByteBuffer.wrap(data));
+            } finally {
+                IoOrigin.leave(prev);
+            }
+
+            result = new Page(data);
+            pages.put(nr, result);
+        }
+
+        this.lastPage = result;
+        this.lastPageNr = nr;
+
+        return result;
+    }
+
+    /**
+     * Removes the least recently used page from the cache, writing it out
+     * first if it is dirty.
+     *
+     * @return the (now unused) data array of the evicted page
+     * @throws IOException on write error
+     */
+    private byte[] evict() throws IOException {
+        final Iterator<Map.Entry<Integer, Page>> it =
+                pages.entrySet().iterator();
+
+        final Map.Entry<Integer, Page> eldest = it.next();
+        final Page p = eldest.getValue();
+
+        if (p.dirty) writePage(eldest.getKey(), p);
+
+        it.remove();
+
+        if (eldest.getKey() == lastPageNr) {
+            this.lastPage = null;
+            this.lastPageNr = -1;
+        }
+
+        return p.data;
+    }
+
+    private void writePage(int nr, Page p) throws IOException {
+        writeToCopies(nr, ByteBuffer.wrap(p.data));
+        p.dirty = false;
+    }
+
+    private final static class Page {
+        final byte[] data;
+        boolean dirty;
+
+        Page(byte[] data) {
+            this.data = data;
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Caches the results of resolving paths to directory entries, including the
+ * paths which do not exist. When a path is resolved, the results for all
+ * it's prefixes are cached as well, so resolving a path in a directory
+ * which was visited before starts there.
+ * 
+ * The paths are cached in a normalized form: the components are trimmed,
+ * converted to lower case, and joined by slashes. The directories notify
+ * this cache when entries are linked or unlinked, so the affected paths
+ * are dropped.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatFileSystem#resolve(java.lang.String) 
+ */
+final class PathCache {
+    
+    private final int maxSize;
+    
+    /**
+     * The cached paths in access order. A {@code null} entry denotes a path
+     * which does not exist.
+     */
+    private final LinkedHashMap<String, Node> nodes;
+    
+    /**
+     * The cached paths in lexical order, so all paths below a directory
+     * can be found quickly.
+     */
+    private final TreeMap<String, Node> sorted;
+    
+    /**
+     * Maps the directories to their cached paths. A directory can be cached
+     * under more than one path, when it is reached using both it's long
+     * name and it's short name. Only entries which are linked to or
+     * unlinked from these directories can affect the cached paths.
+     */
+    private final Map<FatLfnDirectory, Set<String>> dirPaths;
+    
+    /**
+     * Creates a new {@code PathCache} holding up to the specified number of
+     * paths.
+     *
+     * @param maxSize the maximum number of paths to cache
+     * @throws IllegalArgumentException if the size is negative
+     */
+    PathCache(int maxSize) throws IllegalArgumentException {
+        if (maxSize < 0) throw new IllegalArgumentException(
+                "negative cache size " + maxSize); //NOI18N
+        
+        this.maxSize = maxSize;
+        this.nodes = new LinkedHashMap<String, Node>(16, 0.75f, true);
+        this.sorted = new TreeMap<String, Node>();
+        this.dirPaths = new IdentityHashMap<FatLfnDirectory, Set<String>>();
+    }
+    
+    /**
+     * Resolves a path relative to the specified root directory.
+     *
+     * @param root the root directory
+     * @param path the path to resolve
+     * @return the entry, or {@code null} if there is no such entry
+     * @throws IOException on error reading a directory
+     * @throws IllegalArgumentException if the path is empty
+     */
+    FatLfnDirectoryEntry resolve(FatLfnDirectory root, String path)
+            throws IOException, IllegalArgumentException {
+        
+        final String key = normalize(path);
+        
+        if (key.length() == 0) throw new IllegalArgumentException(
+                "empty path"); //NOI18N
+        
+        final Node hit = nodes.get(key);
+        if (hit != null) return hit.entry;
+        
+        addDirPath(root, "");
+        
+        /* find the longest prefix which was resolved before */
+        
+        FatLfnDirectory dir = root;
+        int start = 0;
+        
+        for (int i = key.lastIndexOf('/'); i > 0;
+                i = key.lastIndexOf('/', i - 1)) {
+            
+            final Node known = nodes.get(key.substring(0, i));
+            
+            if (known != null) {
+                if (known.dir == null) return null;
+                
+                dir = known.dir;
+                start = i + 1;
+                break;
+            }
+        }
+        
+        while (true) {
+            int end = key.indexOf('/', start);
+            if (end < 0) end = key.length();
+            
+            /*
+             * a path can only be cached while changes to the directory
+             * holding it are tracked
+             */
+            
+            final boolean cacheable = dirPaths.containsKey(dir);
+            final String prefix = key.substring(0, end);
+            final FatLfnDirectoryEntry e =
+                    dir.getEntry(key.substring(start, end));
+            
+            if (e == null || !e.isDirectory()) {
+                if (cacheable) put(prefix, new Node(e, null));
+                return (end == key.length()) ? e : null;
+            }
+            
+            dir = e.getDirectory();
+            
+            if (cacheable) {
+                put(prefix, new Node(e, dir));
+                if (sorted.containsKey(prefix)) addDirPath(dir, prefix);
+            }
+            
+            if (end == key.length()) return e;
+            
+            start = end + 1;
+        }
+    }
+    
+    /**
+     * Tells that an entry was added to the specified directory. Any cached
+     * misses for it's names are dropped.
+     *
+     * @param dir the directory the entry was added to
+     * @param entry the new entry
+     */
+    void linked(FatLfnDirectory dir, FatLfnDirectoryEntry entry) {
+        for (String dirPath : getDirPaths(dir)) {
+            for (String name : names(entry)) {
+                final String path = child(dirPath, name);
+                final Node n = sorted.get(path);
+                
+                if (n != null && n.entry == null) {
+                    remove(path);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tells that an entry was removed from the specified directory. The
+     * entry's paths and all paths below them are dropped.
+     *
+     * @param dir the directory the entry was removed from
+     * @param entry the removed entry
+     */
+    void unlinked(FatLfnDirectory dir, FatLfnDirectoryEntry entry) {
+        for (String dirPath : getDirPaths(dir)) {
+            for (String name : names(entry)) {
+                removeTree(child(dirPath, name));
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of paths in this cache.
+     *
+     * @return the number of cached paths
+     */
+    int getSize() {
+        return nodes.size();
+    }
+    
+    private void put(String path, Node node) {
+        if (maxSize == 0) return;
+        
+        nodes.put(path, node);
+        sorted.put(path, node);
+        
+        while (nodes.size() > maxSize) {
+            removeTree(nodes.keySet().iterator().next());
+        }
+    }
+    
+    private void remove(String path) {
+        final Node n = sorted.remove(path);
+        
+        if (n != null) {
+            nodes.remove(path);
+            if (n.dir != null) removeDirPath(n.dir, path);
+        }
+    }
+    
+    /**
+     * Removes a path and all paths below it.
+     *
+     * @param path the path to remove
+     */
+    private void removeTree(String path) {
+        remove(path);
+        
+        /* '0' follows '/' */
+        final Iterator<Map.Entry<String, Node>> it = sorted.subMap(
+                path + '/', path + '0').entrySet().iterator();
+        
+        while (it.hasNext()) {
+            final Map.Entry<String, Node> e = it.next();
+            nodes.remove(e.getKey());
+            it.remove();
+            
+            if (e.getValue().dir != null) {
+                removeDirPath(e.getValue().dir, e.getKey());
+            }
+        }
+    }
+    
+    private void addDirPath(FatLfnDirectory dir, String path) {
+        Set<String> paths = dirPaths.get(dir);
+        
+        if (paths == null) {
+            paths = new HashSet<String>();
+            dirPaths.put(dir, paths);
+        }
+        
+        paths.add(path);
+    }
+    
+    private void removeDirPath(FatLfnDirectory dir, String path) {
+        final Set<String> paths = dirPaths.get(dir);
+        
+        if (paths != null && paths.remove(path) && paths.isEmpty()) {
+            dirPaths.remove(dir);
+        }
+    }
+    
+    /**
+     * Returns a copy of the cached paths of a directory, which stays
+     * unchanged while the paths are dropped.
+     */
+    private List<String> getDirPaths(FatLfnDirectory dir) {
+        final Set<String> paths = dirPaths.get(dir);
+        
+        return (paths == null) ? Collections.<String>emptyList() :
+                new ArrayList<String>(paths);
+    }
+    
+    private static String[] names(FatLfnDirectoryEntry entry) {
+        return new String[] {
+            entry.getName().trim().toLowerCase(Locale.ROOT),
+            entry.realEntry.getShortName().asSimpleString().
+                    toLowerCase(Locale.ROOT)
+        };
+    }
+    
+    private static String child(String dirPath, String name) {
+        return (dirPath.length() == 0) ? name : dirPath + '/' + name;
+    }
+    
+    /**
+     * Normalizes a path: both slashes and backslashes separate components,
+     * empty components are ignored, and the others are trimmed and
+     * converted to lower case.
+     *
+     * @param path the path to normalize
+     * @return the normalized path
+     */
+    static String normalize(String path) {
+        final StringBuilder sb = new StringBuilder(path.length());
+        int start = 0;
+        
+        while (start < path.length()) {
+            int end = start;
+            
+            while (end < path.length() && path.charAt(end) != '/' &&
+                    path.charAt(end) != '\\') {
+                
+                end++;
+            }
+            
+            final String name = path.substring(start, end).trim();
+            
+            if (name.length() > 0) {
+                if (sb.length() > 0) sb.append('/');
+                sb.append(name.toLowerCase(Locale.ROOT));
+            }
+            
+            start = end + 1;
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * A cached path.
+     */
+    private final static class Node {
+        
+        /**
+         * The entry for the path, or {@code null} if it does not exist.
+         */
+        final FatLfnDirectoryEntry entry;
+        
+        /**
+         * The directory for the path, or {@code null} if it is no directory.
+         */
+        final FatLfnDirectory dir;
+        
+        Node(FatLfnDirectoryEntry entry, FatLfnDirectory dir) {
+            this.entry = entry;
+            this.dir = dir;
+        }
+        
+    }
+    
+}
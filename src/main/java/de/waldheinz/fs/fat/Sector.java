@@ -19,6 +19,7 @@
 package de.waldheinz.fs.fat;
 
 import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.IoOrigin;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -56,7 +57,15 @@ class Sector {
     protected void read() throws IOException {
         buffer.rewind();
         buffer.limit(buffer.capacity());
-        device.read(offset, buffer);
+
+        final IoOrigin prev = IoOrigin.SECTOR.enter();
+
+        try {
+            device.read(offset, buffer);
+        } finally {
+            IoOrigin.leave(prev);
+        }
+
         this.dirty = false;
     }
     
@@ -82,7 +91,15 @@ class Sector {
         
         buffer.position(0);
         buffer.limit(buffer.capacity());
-        device.write(offset, buffer);
+
+        final IoOrigin prev = IoOrigin.SECTOR.enter();
+
+        try {
+            device.write(offset, buffer);
+        } finally {
+            IoOrigin.leave(prev);
+        }
+
         this.dirty = false;
     }
 
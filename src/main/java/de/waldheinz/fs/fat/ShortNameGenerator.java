@@ -19,7 +19,9 @@
 package de.waldheinz.fs.fat;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -29,8 +31,30 @@ import java.util.Set;
  */
 final class ShortNameGenerator {
     
+    /**
+     * The largest numeric tail which is generated.
+     */
+    private final static int MAX_TAIL = 99999;
+    
+    /**
+     * The number of numeric tails which are handed out before switching to
+     * hashed names, when using {@link ShortNameStyle#HASHED}.
+     */
+    private final static int HASH_THRESHOLD = 4;
+    
     private final Set<String> usedNames;
-
+    private final ShortNameStyle style;
+    
+    /**
+     * Maps the lower-case basis of a short name (the first six characters
+     * plus the extension) to the numeric tail which was handed out last for
+     * it. As all tails below were in use back then, the search for a free
+     * tail starts there.
+     */
+    private final Map<String, Integer> tails;
+    
+    private final StringBuilder candidate;
+    
     /**
      * Creates a new instance of {@code ShortNameGenerator} that will use
      * the specified set to avoid short-name collisions. It will never generate
@@ -41,7 +65,24 @@ final class ShortNameGenerator {
      * @param usedNames the look-up for already used 8.3 names
      */
     public ShortNameGenerator(Set<String> usedNames) {
+        this(usedNames, ShortNameStyle.NUMERIC);
+    }
+    
+    /**
+     * Creates a new instance of {@code ShortNameGenerator} using the
+     * specified scheme for making short names unique.
+     *
+     * @param usedNames the look-up for already used 8.3 names
+     * @param style the short name style to use
+     * @see #ShortNameGenerator(java.util.Set) 
+     */
+    public ShortNameGenerator(Set<String> usedNames, ShortNameStyle style) {
+        if (style == null) throw new NullPointerException();
+        
         this.usedNames = Collections.unmodifiableSet(usedNames);
+        this.style = style;
+        this.tails = new HashMap<String, Integer>();
+        this.candidate = new StringBuilder(12);
     }
     
     /*
@@ -145,29 +186,110 @@ final class ShortNameGenerator {
                 asSimpleString().toLowerCase(Locale.ROOT))) {
 
             /* we have to append the "~n" suffix */
-
-            final int maxLongIdx = Math.min(longName.length(), 8);
-
-            for (int i=1; i < 99999; i++) {
-                final String serial = "~" + i; //NOI18N
-                final int serialLen = serial.length();
-                final String shortName = longName.substring(
-                        0, Math.min(maxLongIdx, 8-serialLen)) + serial;
-                final ShortName result = new ShortName(shortName, shortExt);
-                
-                if (!usedNames.contains(
-                        result.asSimpleString().toLowerCase(Locale.ROOT))) {
-                    
-                    return result;
-                }
-            }
-
-            throw new IllegalStateException(
+            
+            final String result = makeUnique(longName, shortExt);
+            
+            if (result == null) throw new IllegalStateException(
                     "could not generate short name for \""
                     + longFullName + "\"");
+            
+            return new ShortName(result, shortExt);
         }
 
         return new ShortName(longName, shortExt);
     }
     
+    /**
+     * Finds a free name with a numeric tail for the specified basis. The
+     * search starts at the tail which was handed out last for the same
+     * basis, so generating many names with a common prefix does not probe
+     * all the tails already in use again and again.
+     *
+     * @param name the tidied long name
+     * @param ext the short extension
+     * @return the name part of the short name, or {@code null} if all
+     *      names are in use
+     */
+    private String makeUnique(String name, String ext) {
+        final String lowerName = name.toLowerCase(Locale.ROOT);
+        final String lowerExt = ext.toLowerCase(Locale.ROOT);
+        
+        candidate.setLength(0);
+        candidate.append(lowerName, 0, Math.min(lowerName.length(), 6));
+        candidate.append('.').append(lowerExt);
+        final String basis = candidate.toString();
+        
+        final Integer last = tails.get(basis);
+        int tail = (last == null) ? 1 : last;
+        boolean tryHashed = (style == ShortNameStyle.HASHED);
+        
+        for (int probes=0; probes < MAX_TAIL; probes++) {
+            if (tryHashed && tail > HASH_THRESHOLD) {
+                final String hashed = makeHashed(name, lowerName, lowerExt);
+                if (hashed != null) return hashed;
+                tryHashed = false;
+            }
+            
+            final int prefixLen = Math.min(name.length(),
+                    7 - digits(tail));
+            
+            if (isFree(lowerName, prefixLen, tail, lowerExt)) {
+                tails.put(basis, tail);
+                return name.substring(0, prefixLen) + "~" + tail; //NOI18N
+            }
+            
+            tail = (tail == MAX_TAIL) ? 1 : tail + 1;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Tries to find a free name made of the first two characters of the
+     * name, a hash of the name and a one digit tail.
+     *
+     * @param name the tidied long name
+     * @param lowerName the lower-case name
+     * @param lowerExt the lower-case extension
+     * @return the name part of the short name, or {@code null} if all
+     *      hashed names are in use
+     */
+    private String makeHashed(String name, String lowerName, String lowerExt) {
+        final int prefixLen = Math.min(name.length(), 2);
+        final int h = name.hashCode();
+        final String hash = Integer.toHexString(
+                0x10000 | ((h ^ (h >>> 16)) & 0xffff)).substring(1);
+        final String lowerPrefix = lowerName.substring(0, prefixLen) + hash;
+        
+        for (int tail=1; tail < 10; tail++) {
+            if (isFree(lowerPrefix, lowerPrefix.length(), tail, lowerExt)) {
+                return name.substring(0, prefixLen) +
+                        hash.toUpperCase(Locale.ROOT) + "~" + tail; //NOI18N
+            }
+        }
+        
+        return null;
+    }
+    
+    private boolean isFree(String lowerName, int prefixLen, int tail,
+            String lowerExt) {
+        
+        candidate.setLength(0);
+        candidate.append(lowerName, 0, prefixLen).append('~').append(tail);
+        if (lowerExt.length() > 0) candidate.append('.').append(lowerExt);
+        
+        return !usedNames.contains(candidate.toString());
+    }
+    
+    private static int digits(int tail) {
+        int result = 1;
+        
+        while (tail >= 10) {
+            tail /= 10;
+            result++;
+        }
+        
+        return result;
+    }
+    
 }
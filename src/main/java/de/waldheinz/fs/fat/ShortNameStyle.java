@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2003-2009 JNode.org
+ *               2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package de.waldheinz.fs.fat;
+
+/**
+ * Enumerates the schemes a {@link FatFileSystem} can use to make the 8.3
+ * short names unique when the truncated long names collide.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FatMountOptions#setShortNameStyle(ShortNameStyle)
+ */
+public enum ShortNameStyle {
+
+    /**
+     * Appends a numeric tail ("~1", "~2", ...) to the truncated long name.
+     * This is the default.
+     */
+    NUMERIC,
+
+    /**
+     * Uses numeric tails for the first four collisions only. Further short
+     * names are made of the first two characters of the long name, four
+     * hex digits derived from a hash of the long name and a numeric tail,
+     * like Windows does. This keeps the short names of many similar long
+     * names apart, but makes them harder to guess.
+     */
+    HASHED;
+
+}
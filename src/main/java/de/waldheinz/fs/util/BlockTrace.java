@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads a block I/O trace as written by a {@link TracingBlockDevice}. The
+ * records are read one after the other by calling {@link #next()}, and the
+ * getters describe the current record.
+ * 
+ * The file format is as follows (all numbers are big-endian):
+ * <ul>
+ * <li>the magic number {@code "FSTR"} (4 bytes)</li>
+ * <li>the format version, currently 1 (4 bytes)</li>
+ * <li>the size of the traced device (8 bytes)</li>
+ * <li>the sector size of the traced device (4 bytes)</li>
+ * <li>a flag telling if the records carry a payload hash (1 byte)</li>
+ * <li>the records, each made up of
+ *      <ul>
+ *      <li>the {@link Operation} ordinal, with the highest bit set if the
+ *          next record belongs to the same batch (1 byte)</li>
+ *      <li>the {@link IoOrigin} ordinal (1 byte)</li>
+ *      <li>the device offset (8 bytes)</li>
+ *      <li>the length (4 bytes)</li>
+ *      <li>the start time in nanoseconds, relative to the start of the
+ *          trace (8 bytes)</li>
+ *      <li>the CRC-32 of the payload, if enabled (4 bytes)</li>
+ *      </ul>
+ * </li>
+ * </ul>
+ * 
+ * The segments of a batch, as transferred by a single call to a
+ * {@link de.waldheinz.fs.VectoredBlockDevice}, are recorded as consecutive
+ * records.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class BlockTrace {
+    
+    private final static int MAGIC = 0x46535452; /* "FSTR" */
+    private final static int VERSION = 1;
+    
+    /**
+     * Set in the operation byte of all but the last record of a batch.
+     */
+    final static int CONTINUED = 0x80;
+    
+    private final static Operation[] OPERATIONS = Operation.values();
+    private final static IoOrigin[] ORIGINS = IoOrigin.values();
+    
+    private final DataInputStream in;
+    private final long deviceSize;
+    private final int sectorSize;
+    private final boolean hashed;
+    
+    private Operation operation;
+    private IoOrigin origin;
+    private long offset;
+    private int length;
+    private long timestamp;
+    private int hash;
+    private boolean continued;
+    
+    private BlockTrace(DataInputStream in) throws IOException {
+        this.in = in;
+        
+        if (in.readInt() != MAGIC) throw new IOException(
+                "not a block trace"); //NOI18N
+        
+        final int version = in.readInt();
+        
+        if (version != VERSION) throw new IOException(
+                "unsupported version " + version); //NOI18N
+        
+        this.deviceSize = in.readLong();
+        this.sectorSize = in.readInt();
+        this.hashed = in.readBoolean();
+    }
+    
+    /**
+     * Opens a trace file.
+     *
+     * @param file the trace file
+     * @return the opened trace, positioned before the first record
+     * @throws IOException on read error or if the file is not a trace
+     */
+    public static BlockTrace open(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        
+        try {
+            return new BlockTrace(in);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+    
+    static void writeHeader(DataOutputStream out, long deviceSize,
+            int sectorSize, boolean hashed) throws IOException {
+        
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(deviceSize);
+        out.writeInt(sectorSize);
+        out.writeBoolean(hashed);
+    }
+    
+    /**
+     * Advances to the next record.
+     *
+     * @return if there was another record
+     * @throws IOException on read error or if the trace is corrupt
+     */
+    public boolean next() throws IOException {
+        int op = in.read();
+        
+        if (op < 0) return false;
+        
+        this.continued = (op & CONTINUED) != 0;
+        op &= ~CONTINUED;
+        
+        try {
+            final int org = in.readUnsignedByte();
+            
+            if (op >= OPERATIONS.length || org >= ORIGINS.length) {
+                throw new IOException("corrupt trace record"); //NOI18N
+            }
+            
+            this.operation = OPERATIONS[op];
+            this.origin = ORIGINS[org];
+            this.offset = in.readLong();
+            this.length = in.readInt();
+            this.timestamp = in.readLong();
+            this.hash = hashed ? in.readInt() : 0;
+        } catch (EOFException ex) {
+            throw new IOException("truncated trace record", ex); //NOI18N
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Closes the trace file.
+     *
+     * @throws IOException on error closing the file
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    /**
+     * Returns the size of the device the trace was recorded on.
+     *
+     * @return the device size in bytes
+     */
+    public long getDeviceSize() {
+        return deviceSize;
+    }
+    
+    /**
+     * Returns the sector size of the device the trace was recorded on.
+     *
+     * @return the sector size in bytes
+     */
+    public int getSectorSize() {
+        return sectorSize;
+    }
+    
+    /**
+     * Returns if the records carry a payload hash.
+     *
+     * @return if {@link #getHash()} is meaningful
+     */
+    public boolean isHashed() {
+        return hashed;
+    }
+    
+    /**
+     * Returns the kind of operation of the current record.
+     *
+     * @return the operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+    
+    /**
+     * Returns if the next record belongs to the same batch as the current
+     * one. The records of a batch were transferred by a single call to the
+     * traced device.
+     *
+     * @return if the batch continues with the next record
+     */
+    public boolean isContinued() {
+        return continued;
+    }
+    
+    /**
+     * Returns the part of the file system which caused the operation of the
+     * current record.
+     *
+     * @return the origin of the operation
+     */
+    public IoOrigin getOrigin() {
+        return origin;
+    }
+    
+    /**
+     * Returns the device offset of the current record.
+     *
+     * @return the device offset, always 0 for flushes
+     */
+    public long getOffset() {
+        return offset;
+    }
+    
+    /**
+     * Returns the number of bytes transferred by the current record.
+     *
+     * @return the length, always 0 for flushes
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Returns when the operation of the current record was started.
+     *
+     * @return the time since the trace was started, in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Returns the CRC-32 of the bytes transferred by the current record.
+     *
+     * @return the payload hash, or 0 if the trace carries no hashes
+     * @see #isHashed() 
+     */
+    public int getHash() {
+        return hash;
+    }
+    
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
+import de.waldheinz.fs.ReadOnlyException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BlockDevice} which caches the contents of another device in
+ * memory. The device is divided into blocks of a fixed size, and the least
+ * recently used blocks are dropped when the cache exceeds it's size limit.
+ * 
+ * In write-back mode, writes only update the cache and the modified blocks
+ * are written to the underlying device when they are dropped from the cache,
+ * on {@link #flush()} and on {@link #close()}. Otherwise, writes go to the
+ * cache and the underlying device at the same time.
+ * 
+ * <pre>
+ *  BlockDevice dev = new CachingBlockDevice(
+ *          new FileDisk(file, false), 4 * 1024 * 1024, true);
+ * </pre>
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class CachingBlockDevice implements BlockDevice {
+
+    /**
+     * The default block size, which is 4 KiB.
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final BlockDevice dev;
+    private final int blockSize;
+    private final int maxBlocks;
+    private final boolean writeBack;
+    private final long size;
+    private final LinkedHashMap<Long, Block> blocks;
+    
+    private long hits;
+    private long misses;
+    
+    /**
+     * Creates a new {@code CachingBlockDevice} using the
+     * {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param dev the device to cache
+     * @param cacheSize the maximum number of bytes to cache
+     * @param writeBack if modified blocks should only be written to the
+     *      underlying device when they are dropped from the cache or on
+     *      {@link #flush()}
+     * @throws IOException on error determining the device size
+     */
+    public CachingBlockDevice(BlockDevice dev, long cacheSize,
+            boolean writeBack) throws IOException {
+        
+        this(dev, DEFAULT_BLOCK_SIZE, cacheSize, writeBack);
+    }
+    
+    /**
+     * Creates a new {@code CachingBlockDevice}.
+     *
+     * @param dev the device to cache
+     * @param blockSize the number of bytes per cached block
+     * @param cacheSize the maximum number of bytes to cache, at least one
+     *      block will always be cached
+     * @param writeBack if modified blocks should only be written to the
+     *      underlying device when they are dropped from the cache or on
+     *      {@link #flush()}
+     * @throws IOException on error determining the device size
+     * @throws IllegalArgumentException if the block size is not positive or
+     *      the cache size is negative
+     */
+    public CachingBlockDevice(BlockDevice dev, int blockSize, long cacheSize,
+            boolean writeBack) throws IOException, IllegalArgumentException {
+        
+        if (blockSize <= 0) throw new IllegalArgumentException(
+                "invalid block size " + blockSize); //NOI18N
+        
+        if (cacheSize < 0) throw new IllegalArgumentException(
+                "negative cache size"); //NOI18N
+        
+        this.dev = dev;
+        this.blockSize = blockSize;
+        this.maxBlocks = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE, cacheSize / blockSize));
+        this.writeBack = writeBack;
+        this.size = dev.getSize();
+        this.blocks = new LinkedHashMap<Long, Block>(16, 0.75f, true);
+    }
+    
+    /**
+     * Returns the number of blocks currently held in the cache.
+     *
+     * @return the number of cached blocks
+     */
+    public int getCachedBlockCount() {
+        return blocks.size();
+    }
+    
+    /**
+     * Returns the number of block accesses that could be served from the
+     * cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits;
+    }
+    
+    /**
+     * Returns the number of block accesses that required to read the block
+     * from the underlying device.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses;
+    }
+    
+    @Override
+    public long getSize() {
+        checkClosed();
+        
+        return this.size;
+    }
+
+    @Override
+    public void read(long devOffset, ByteBuffer dest) throws IOException {
+        checkClosed();
+        checkRange(devOffset, dest.remaining());
+        
+        while (dest.hasRemaining()) {
+            final long nr = devOffset / blockSize;
+            final int ofs = (int) (devOffset % blockSize);
+            final Block b = getBlock(nr, false);
+            final int len = Math.min(dest.remaining(), b.length - ofs);
+            
+            dest.put(b.data, ofs, len);
+            devOffset += len;
+        }
+    }
+
+    @Override
+    public void write(long devOffset, ByteBuffer src)
+            throws ReadOnlyException, IOException {
+        
+        checkClosed();
+        
+        if (isReadOnly()) throw new ReadOnlyException();
+        
+        checkRange(devOffset, src.remaining());
+        
+        final ByteBuffer through = writeBack ? null : src.duplicate();
+        final long start = devOffset;
+        
+        while (src.hasRemaining()) {
+            final long nr = devOffset / blockSize;
+            final int ofs = (int) (devOffset % blockSize);
+            final int blockLen = getBlockLength(nr);
+            final int len = Math.min(src.remaining(), blockLen - ofs);
+            final Block b = getBlock(nr, (ofs == 0) && (len == blockLen));
+            
+            src.get(b.data, ofs, len);
+            b.dirty |= writeBack;
+            devOffset += len;
+        }
+        
+        if (through != null) dev.write(start, through);
+    }
+
+    /**
+     * Writes all modified blocks to the underlying device and flushes it.
+     *
+     * @throws IOException on write error
+     */
+    @Override
+    public void flush() throws IOException {
+        checkClosed();
+        
+        writeDirtyBlocks();
+        dev.flush();
+    }
+
+    @Override
+    public int getSectorSize() throws IOException {
+        checkClosed();
+        
+        return dev.getSectorSize();
+    }
+
+    /**
+     * Writes all modified blocks to the underlying device, drops the cached
+     * blocks and closes the underlying device.
+     *
+     * @throws IOException on write error
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed()) return;
+        
+        try {
+            if (!dev.isReadOnly()) writeDirtyBlocks();
+        } finally {
+            this.blocks.clear();
+            dev.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return dev.isClosed();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        checkClosed();
+        
+        return dev.isReadOnly();
+    }
+    
+    private void checkClosed() {
+        if (isClosed()) throw new IllegalStateException(
+                "device already closed"); //NOI18N
+    }
+    
+    private void checkRange(long devOffset, int length) throws IOException {
+        if ((devOffset < 0) || (devOffset + length > size)) {
+            throw new IOException("offset=" + devOffset +
+                ", length=" + length + ", size=" + size); //NOI18N
+        }
+    }
+    
+    /**
+     * Returns the cached block with the specified number, reading it from
+     * the underlying device if it is not cached.
+     *
+     * @param nr the number of the block to get
+     * @param overwrite if the caller is going to overwrite the whole block,
+     *      so there is no need to read it from the device
+     * @return the block
+     * @throws IOException on read error
+     */
+    private Block getBlock(long nr, boolean overwrite) throws IOException {
+        Block result = blocks.get(nr);
+        
+        if (result != null) {
+            hits++;
+            return result;
+        }
+        
+        misses++;
+        
+        final byte[] data = (blocks.size() >= maxBlocks) ?
+            evict() : new byte[blockSize];
+        
+        result = new Block(data, getBlockLength(nr));
+        
+        if (!overwrite) {
+            dev.read(nr * blockSize, ByteBuffer.wrap(data, 0, result.length));
+        }
+        
+        blocks.put(nr, result);
+        return result;
+    }
+    
+    /**
+     * Returns the number of bytes in the specified block, which is less than
+     * the block size for the last block if the device size is not a multiple
+     * of the block size.
+     *
+     * @param nr the block number
+     * @return the length of the block
+     */
+    private int getBlockLength(long nr) {
+        return (int) Math.min(blockSize, size - nr * blockSize);
+    }
+    
+    /**
+     * Removes the least recently used block from the cache, writing it to
+     * the underlying device first if it is dirty.
+     *
+     * @return the (now unused) data array of the evicted block
+     * @throws IOException on write error
+     */
+    private byte[] evict() throws IOException {
+        final Iterator<Map.Entry<Long, Block>> it =
+                blocks.entrySet().iterator();
+        
+        final Map.Entry<Long, Block> eldest = it.next();
+        final Block b = eldest.getValue();
+        
+        if (b.dirty) {
+            dev.write(eldest.getKey() * blockSize,
+                    ByteBuffer.wrap(b.data, 0, b.length));
+        }
+        
+        it.remove();
+        return b.data;
+    }
+    
+    private void writeDirtyBlocks() throws IOException {
+        final List<Map.Entry<Long, Block>> dirty =
+                new ArrayList<Map.Entry<Long, Block>>();
+        
+        /* iterating does not change the access order, other than get() */
+        for (Map.Entry<Long, Block> e : blocks.entrySet()) {
+            if (e.getValue().dirty) dirty.add(e);
+        }
+        
+        if (dirty.isEmpty()) return;
+        
+        Collections.sort(dirty, new Comparator<Map.Entry<Long, Block>>() {
+
+            @Override
+            public int compare(
+                    Map.Entry<Long, Block> a, Map.Entry<Long, Block> b) {
+                
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+        
+        final long[] offsets = new long[dirty.size()];
+        final ByteBuffer[] buffers = new ByteBuffer[offsets.length];
+        
+        for (int i=0; i < offsets.length; i++) {
+            final Block b = dirty.get(i).getValue();
+            offsets[i] = dirty.get(i).getKey() * blockSize;
+            buffers[i] = ByteBuffer.wrap(b.data, 0, b.length);
+        }
+        
+        BlockDevices.write(dev, offsets, buffers);
+        
+        for (Map.Entry<Long, Block> e : dirty) {
+            e.getValue().dirty = false;
+        }
+    }
+    
+    private final static class Block {
+        final byte[] data;
+        final int length;
+        boolean dirty;
+        
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+    
+}
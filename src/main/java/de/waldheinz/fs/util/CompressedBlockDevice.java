@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.ReadOnlyException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only {@link BlockDevice} backed by a compressed image file which
+ * allows random access. The image is divided into blocks of a fixed size,
+ * which are compressed independently of each other. An index of the
+ * compressed blocks is stored at the start of the file, so a read only has
+ * to inflate the blocks it touches. Recently used blocks are kept in memory.
+ * 
+ * The file format is as follows (all numbers are big-endian):
+ * <ul>
+ * <li>the magic number {@code "FSCZ"} (4 bytes)</li>
+ * <li>the format version, currently 1 (4 bytes)</li>
+ * <li>the sector size (4 bytes)</li>
+ * <li>the block size (4 bytes)</li>
+ * <li>the size of the uncompressed image (8 bytes)</li>
+ * <li>the number of blocks {@code n} (4 bytes)</li>
+ * <li>{@code n + 1} file offsets (8 bytes each), entry {@code i} being the
+ *      start of block {@code i} and the last entry the end of the last
+ *      block</li>
+ * <li>the blocks, compressed with {@link Deflater}; blocks which would not
+ *      get smaller by compressing them are stored as they are</li>
+ * </ul>
+ * 
+ * Images in this format can be created with {@link #compress} or by running
+ * this class as a program.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class CompressedBlockDevice implements BlockDevice {
+    
+    /**
+     * The default size of the compressed blocks, which is 64 KiB.
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    
+    /**
+     * The default number of bytes used for caching inflated blocks, which
+     * is 4 MiB.
+     */
+    public final static int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+    
+    private final static int MAGIC = 0x4653435a; /* "FSCZ" */
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 28;
+    
+    private final RandomAccessFile raf;
+    private final int sectorSize;
+    private final int blockSize;
+    private final long size;
+    private final long[] offsets;
+    private final int maxCachedBlocks;
+    private final LinkedHashMap<Integer, byte[]> cache;
+    private final Inflater inflater;
+    private byte[] compressed;
+    private boolean closed;
+    
+    /**
+     * Opens a compressed image using the {@link #DEFAULT_CACHE_SIZE}.
+     *
+     * @param file the compressed image
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException on read error or if the file is not a compressed
+     *      image
+     */
+    public CompressedBlockDevice(File file)
+            throws FileNotFoundException, IOException {
+        
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * Opens a compressed image.
+     *
+     * @param file the compressed image
+     * @param cacheSize the number of bytes to use for caching inflated
+     *      blocks, at least one block is always cached
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException on read error or if the file is not a compressed
+     *      image
+     */
+    public CompressedBlockDevice(File file, int cacheSize)
+            throws FileNotFoundException, IOException {
+        
+        this.raf = new RandomAccessFile(file, "r"); //NOI18N
+        
+        try {
+            if (raf.readInt() != MAGIC) throw new IOException(
+                    "not a compressed image"); //NOI18N
+            
+            final int version = raf.readInt();
+            
+            if (version != VERSION) throw new IOException(
+                    "unsupported version " + version); //NOI18N
+            
+            this.sectorSize = raf.readInt();
+            this.blockSize = raf.readInt();
+            this.size = raf.readLong();
+            final int count = raf.readInt();
+            
+            if (sectorSize <= 0 || blockSize <= 0 || size < 0 || count < 0 ||
+                    (size + blockSize - 1) / blockSize != count) {
+                
+                throw new IOException("corrupt header"); //NOI18N
+            }
+            
+            final byte[] index = new byte[(count + 1) * 8];
+            raf.readFully(index);
+            this.offsets = new long[count + 1];
+            ByteBuffer.wrap(index).asLongBuffer().get(offsets);
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        
+        this.maxCachedBlocks = Math.max(1, cacheSize / blockSize);
+        this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+        this.inflater = new Inflater();
+    }
+    
+    /**
+     * Compresses the contents of a {@code BlockDevice} into a new compressed
+     * image file.
+     *
+     * @param source the device to compress
+     * @param target the file to write the compressed image to
+     * @param blockSize the size of the blocks that are compressed
+     *      independently, smaller blocks allow faster random access but
+     *      compress worse
+     * @throws IOException on read or write error
+     * @throws IllegalArgumentException if the block size is not positive
+     */
+    public static void compress(BlockDevice source, File target, int blockSize)
+            throws IOException, IllegalArgumentException {
+        
+        if (blockSize <= 0) throw new IllegalArgumentException(
+                "invalid block size " + blockSize); //NOI18N
+        
+        final long size = source.getSize();
+        final long count = (size + blockSize - 1) / blockSize;
+        
+        if (count >= Integer.MAX_VALUE) throw new IllegalArgumentException(
+                "too many blocks, use a larger block size"); //NOI18N
+        
+        final long[] index = new long[(int) count + 1];
+        final RandomAccessFile out = new RandomAccessFile(target, "rw"); //NOI18N
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(source.getSectorSize());
+            out.writeInt(blockSize);
+            out.writeLong(size);
+            out.writeInt((int) count);
+            out.seek(HEADER_SIZE + 8L * index.length);
+            
+            final byte[] block = new byte[blockSize];
+            final byte[] buffer = new byte[blockSize];
+            
+            for (int i=0; i < count; i++) {
+                final long start = (long) i * blockSize;
+                final int len = (int) Math.min(blockSize, size - start);
+                source.read(start, ByteBuffer.wrap(block, 0, len));
+                
+                deflater.reset();
+                deflater.setInput(block, 0, len);
+                deflater.finish();
+                
+                int clen = 0;
+                
+                while (!deflater.finished() && clen < buffer.length) {
+                    clen += deflater.deflate(
+                            buffer, clen, buffer.length - clen);
+                }
+                
+                index[i] = out.getFilePointer();
+                
+                if (deflater.finished() && clen < len) {
+                    out.write(buffer, 0, clen);
+                } else {
+                    out.write(block, 0, len);
+                }
+            }
+            
+            index[(int) count] = out.getFilePointer();
+            
+            final ByteBuffer bb = ByteBuffer.allocate(8 * index.length);
+            bb.asLongBuffer().put(index);
+            out.seek(HEADER_SIZE);
+            out.write(bb.array());
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+    
+    /**
+     * Converts a raw disk image to a compressed image.
+     * 
+     * @param args the raw image file, the compressed image file and
+     *      optionally the block size
+     * @throws IOException on read or write error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: CompressedBlockDevice " +
+                    "<raw image> <compressed image> [block size]");
+            System.exit(1);
+        }
+        
+        final int blockSize = (args.length == 3) ?
+            Integer.parseInt(args[2]) : DEFAULT_BLOCK_SIZE;
+        final FileDisk source = new FileDisk(new File(args[0]), true);
+        
+        try {
+            compress(source, new File(args[1]), blockSize);
+        } finally {
+            source.close();
+        }
+    }
+    
+    @Override
+    public long getSize() {
+        checkClosed();
+        
+        return size;
+    }
+
+    @Override
+    public synchronized void read(long devOffset, ByteBuffer dest)
+            throws IOException {
+        
+        checkClosed();
+        
+        if ((devOffset < 0) || (devOffset + dest.remaining() > size)) {
+            throw new IOException("reading past end of device"); //NOI18N
+        }
+        
+        while (dest.hasRemaining()) {
+            final int nr = (int) (devOffset / blockSize);
+            final int ofs = (int) (devOffset % blockSize);
+            final byte[] block = getBlock(nr);
+            final int len = Math.min(dest.remaining(), block.length - ofs);
+            
+            dest.put(block, ofs, len);
+            devOffset += len;
+        }
+    }
+    
+    /**
+     * Returns the number of inflated blocks currently held in memory.
+     *
+     * @return the number of cached blocks
+     */
+    public synchronized int getCachedBlockCount() {
+        return cache.size();
+    }
+    
+    private byte[] getBlock(int nr) throws IOException {
+        byte[] result = cache.get(nr);
+        if (result != null) return result;
+        
+        final int len = (int) Math.min(blockSize, size - (long) nr * blockSize);
+        final int clen = (int) (offsets[nr + 1] - offsets[nr]);
+        
+        if (clen < 0 || clen > len) throw new IOException(
+                "corrupt index for block " + nr); //NOI18N
+        
+        if (cache.size() >= maxCachedBlocks) {
+            final Iterator<Map.Entry<Integer, byte[]>> it =
+                    cache.entrySet().iterator();
+            final byte[] eldest = it.next().getValue();
+            it.remove();
+            
+            /* the last block may be shorter */
+            result = (eldest.length == len) ? eldest : new byte[len];
+        } else {
+            result = new byte[len];
+        }
+        
+        raf.seek(offsets[nr]);
+        
+        if (clen == len) {
+            raf.readFully(result);
+        } else {
+            if (compressed == null || compressed.length < clen) {
+                compressed = new byte[Math.max(clen, 1024)];
+            }
+            
+            raf.readFully(compressed, 0, clen);
+            inflate(nr, clen, result);
+        }
+        
+        cache.put(nr, result);
+        return result;
+    }
+    
+    private void inflate(int nr, int clen, byte[] dest) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, clen);
+        
+        try {
+            int total = 0;
+            
+            while (total < dest.length) {
+                final int n = inflater.inflate(
+                        dest, total, dest.length - total);
+                
+                if (n == 0 && (inflater.finished() ||
+                        inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                
+                total += n;
+            }
+            
+            if (total != dest.length) throw new IOException(
+                    "block " + nr + " is truncated"); //NOI18N
+        } catch (DataFormatException ex) {
+            throw new IOException("block " + nr + " is corrupt", ex); //NOI18N
+        }
+    }
+    
+    /**
+     * Always throws a {@code ReadOnlyException}.
+     *
+     * @param devOffset ignored
+     * @param src ignored
+     * @throws ReadOnlyException always
+     */
+    @Override
+    public void write(long devOffset, ByteBuffer src)
+            throws ReadOnlyException {
+        
+        checkClosed();
+        
+        throw new ReadOnlyException();
+    }
+
+    @Override
+    public void flush() {
+        checkClosed();
+    }
+
+    @Override
+    public int getSectorSize() {
+        checkClosed();
+        
+        return sectorSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        
+        this.closed = true;
+        this.cache.clear();
+        this.inflater.end();
+        this.raf.close();
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+    
+    private void checkClosed() {
+        if (isClosed()) throw new IllegalStateException(
+                "device already closed"); //NOI18N
+    }
+
+    /**
+     * Returns always {@code true}, as compressed images can not be modified.
+     *
+     * @return always {@code true}
+     */
+    @Override
+    public boolean isReadOnly() {
+        checkClosed();
+        
+        return true;
+    }
+    
+}
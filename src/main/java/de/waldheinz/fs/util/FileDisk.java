@@ -18,21 +18,27 @@
 
 package de.waldheinz.fs.util;
 
-import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
 import de.waldheinz.fs.ReadOnlyException;
+import de.waldheinz.fs.VectoredBlockDevice;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * This is a {@code BlockDevice} that uses a {@link File} as it's backing store.
+ * Batches of segments are sorted by their device offset, and segments which
+ * are adjacent on the device are transferred with a single scattering or
+ * gathering operation.
  *
  * @author Matthias Treydte &lt;matthias.treydte at meetwise.com&gt;
  */
-public final class FileDisk implements BlockDevice {
+public final class FileDisk implements VectoredBlockDevice {
 
     /**
      * The number of bytes per sector for all {@code FileDisk} instances.
@@ -141,6 +147,91 @@ public final class FileDisk implements BlockDevice {
         }
     }
 
+    @Override
+    public void read(long[] devOffsets, ByteBuffer[] dests)
+            throws IOException {
+        
+        checkClosed();
+        transfer(devOffsets, dests, false);
+    }
+
+    @Override
+    public void write(long[] devOffsets, ByteBuffer[] srcs)
+            throws IOException {
+
+        checkClosed();
+        
+        if (this.readOnly) throw new ReadOnlyException();
+
+        transfer(devOffsets, srcs, true);
+    }
+    
+    private void transfer(final long[] devOffsets, ByteBuffer[] buffers,
+            boolean write) throws IOException {
+        
+        BlockDevices.checkSegments(devOffsets, buffers);
+        
+        final long size = getSize();
+        final Integer[] order = new Integer[devOffsets.length];
+        
+        for (int i=0; i < order.length; i++) {
+            if (devOffsets[i] + buffers[i].remaining() > size) {
+                throw new IOException((write ? "writing" : "reading") +
+                        " past end of device"); //NOI18N
+            }
+            
+            order[i] = Integer.valueOf(i);
+        }
+        
+        Arrays.sort(order, new Comparator<Integer>() {
+            
+            @Override
+            public int compare(Integer a, Integer b) {
+                final long oa = devOffsets[a.intValue()];
+                final long ob = devOffsets[b.intValue()];
+                return (oa < ob) ? -1 : ((oa == ob) ? 0 : 1);
+            }
+        });
+        
+        int first = 0;
+        
+        while (first < order.length) {
+            final long start = devOffsets[order[first]];
+            long end = start + buffers[order[first]].remaining();
+            int last = first + 1;
+            
+            while ((last < order.length) && (devOffsets[order[last]] == end)) {
+                end += buffers[order[last]].remaining();
+                last++;
+            }
+            
+            final ByteBuffer[] group = new ByteBuffer[last - first];
+            
+            for (int i=0; i < group.length; i++) {
+                group[i] = buffers[order[first + i]];
+            }
+            
+            transferGroup(start, end - start, group, write);
+            first = last;
+        }
+    }
+    
+    /**
+     * Transfers a group of buffers which are adjacent on the device using a
+     * scattering read or gathering write.
+     */
+    private void transferGroup(long devOffset, long length,
+            ByteBuffer[] group, boolean write) throws IOException {
+        
+        fc.position(devOffset);
+        
+        while (length > 0) {
+            final long count = write ? fc.write(group) : fc.read(group);
+            if (count < 0) throw new IOException();
+            length -= count;
+        }
+    }
+    
     @Override
     public void flush() throws IOException {
         checkClosed();
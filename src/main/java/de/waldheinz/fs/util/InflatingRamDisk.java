@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A {@link BlockDevice} which inflates a GZIP compressed disk image into a
+ * {@link RamDisk} on a background thread. The device can be used right away,
+ * for example to mount a file system while the image is still being
+ * inflated: accesses to parts of the image which were not yet inflated
+ * block until the data is available.
+ * 
+ * <pre>
+ *  InflatingRamDisk dev = InflatingRamDisk.start(in, imageSize);
+ *  FatFileSystem fs = FatFileSystem.read(dev, false);
+ * </pre>
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see RamDisk#readGzipped(java.io.InputStream, long)
+ */
+public final class InflatingRamDisk implements BlockDevice {
+    
+    private final RamDisk disk;
+    private final InputStream in;
+    
+    /**
+     * The number of bytes inflated so far, guarded by {@code this}.
+     */
+    private long available;
+    private IOException error;
+    private boolean finished;
+    
+    private InflatingRamDisk(InputStream in, long size) {
+        this.in = in;
+        this.disk = new RamDisk(size);
+    }
+    
+    /**
+     * Starts inflating a GZIP compressed disk image of the specified size.
+     * The stream is read and closed by a background thread.
+     *
+     * @param in the stream to read the compressed image from
+     * @param size the size of the decompressed image
+     * @return the device holding the image
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public static InflatingRamDisk start(InputStream in, long size)
+            throws IllegalArgumentException {
+        
+        final InflatingRamDisk result = new InflatingRamDisk(in, size);
+        final Thread t = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                result.inflate();
+            }
+            
+        }, "inflate disk image"); //NOI18N
+        
+        t.setDaemon(true);
+        t.start();
+        
+        return result;
+    }
+    
+    private void inflate() {
+        final long size = disk.getSize();
+        
+        try {
+            try {
+                final GZIPInputStream zis = new GZIPInputStream(in, 64 * 1024);
+                final byte[] chunk = new byte[RamDisk.INFLATE_CHUNK_SIZE];
+                long offset = 0;
+
+                while (true) {
+                    final int read = RamDisk.readFully(zis, chunk);
+                    if (read < 0) break;
+                    
+                    if (offset + read > size) throw new IOException(
+                            "image is larger than " + size + " bytes"); //NOI18N
+                    
+                    if (disk.isClosed()) return;
+                    
+                    disk.write(offset, ByteBuffer.wrap(chunk, 0, read));
+                    offset += read;
+                    
+                    synchronized (this) {
+                        this.available = offset;
+                        notifyAll();
+                    }
+                }
+
+                if (offset != size) throw new IOException("image has only " +
+                        offset + " of " + size + " bytes"); //NOI18N
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        } catch (RuntimeException ex) {
+            fail(new IOException(ex));
+        } finally {
+            synchronized (this) {
+                this.finished = true;
+                notifyAll();
+            }
+        }
+    }
+    
+    private synchronized void fail(IOException ex) {
+        this.error = ex;
+    }
+    
+    /**
+     * Returns if the image was completely inflated or inflating failed.
+     *
+     * @return if the background thread is done
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+    
+    /**
+     * Waits until the image is completely inflated and the GZIP trailer was
+     * verified.
+     *
+     * @throws IOException if inflating the image failed
+     * @throws InterruptedIOException if the calling thread was interrupted
+     *      while waiting
+     */
+    public synchronized void awaitCompletion() throws IOException {
+        while (!finished) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        if (error != null) throw new IOException(
+                "inflating disk image failed", error); //NOI18N
+    }
+    
+    /**
+     * Waits until the first {@code end} bytes of the image are inflated.
+     */
+    private synchronized void awaitAvailable(long end) throws IOException {
+        while (available < end) {
+            if (error != null) throw new IOException(
+                    "inflating disk image failed", error); //NOI18N
+            
+            if (finished) throw new IOException(
+                    "disk image is incomplete"); //NOI18N
+            
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        
+        if (error != null) throw new IOException(
+                "inflating disk image failed", error); //NOI18N
+    }
+    
+    @Override
+    public long getSize() {
+        return disk.getSize();
+    }
+
+    @Override
+    public void read(long devOffset, ByteBuffer dest) throws IOException {
+        awaitAvailable(devOffset + dest.remaining());
+        disk.read(devOffset, dest);
+    }
+
+    @Override
+    public void write(long devOffset, ByteBuffer src) throws IOException {
+        awaitAvailable(devOffset + src.remaining());
+        disk.write(devOffset, src);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        disk.flush();
+    }
+
+    @Override
+    public int getSectorSize() {
+        return disk.getSectorSize();
+    }
+
+    /**
+     * Closes this device, causing the background thread to stop inflating
+     * the image.
+     *
+     * @throws IOException never
+     */
+    @Override
+    public void close() throws IOException {
+        disk.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return disk.isClosed();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return disk.isReadOnly();
+    }
+    
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.VectoredBlockDevice;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link BlockDevice} which records statistics about the operations
+ * performed on another device. For every {@link IoOrigin} and
+ * {@link Operation}, the number of operations, the number of bytes
+ * transferred and histograms of transfer sizes and latencies are kept.
+ * 
+ * <pre>
+ *  InstrumentedBlockDevice dev = new InstrumentedBlockDevice(
+ *          new FileDisk(file, false));
+ *  FatFileSystem fs = FatFileSystem.read(dev, false);
+ *  ...
+ *  IoStatistics fatWrites =
+ *          dev.getStatistics(IoOrigin.FAT, Operation.WRITE);
+ * </pre>
+ * 
+ * The statistics can also be published using JMX by registering the
+ * device with an {@code MBeanServer}, as it implements the
+ * {@link InstrumentedBlockDeviceMXBean} interface:
+ * 
+ * <pre>
+ *  ManagementFactory.getPlatformMBeanServer().registerMBean(dev,
+ *          new ObjectName("de.waldheinz.fs:type=BlockDevice,name=disk0"));
+ * </pre>
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class InstrumentedBlockDevice
+        implements VectoredBlockDevice, InstrumentedBlockDeviceMXBean {
+    
+    /**
+     * The kinds of operations which are recorded.
+     */
+    public enum Operation {
+        
+        /**
+         * Reading from the device.
+         */
+        READ,
+        
+        /**
+         * Writing to the device.
+         */
+        WRITE,
+        
+        /**
+         * Flushing the device.
+         */
+        FLUSH
+    }
+    
+    private final BlockDevice dev;
+    private final Recorder[][] recorders;
+    
+    /**
+     * Creates a new {@code InstrumentedBlockDevice}.
+     *
+     * @param dev the device to record the operations on
+     */
+    public InstrumentedBlockDevice(BlockDevice dev) {
+        this.dev = dev;
+        this.recorders = new Recorder[
+                IoOrigin.values().length][Operation.values().length];
+        
+        for (Recorder[] rs : recorders) {
+            for (int i=0; i < rs.length; i++) {
+                rs[i] = new Recorder();
+            }
+        }
+    }
+    
+    /**
+     * Returns the statistics for one kind of operation originating from
+     * one part of the file system.
+     *
+     * @param origin the origin of the operations
+     * @param op the kind of operation
+     * @return a snapshot of the statistics
+     */
+    public IoStatistics getStatistics(IoOrigin origin, Operation op) {
+        return recorders[origin.ordinal()][op.ordinal()].snapshot();
+    }
+    
+    /**
+     * Returns the statistics for one kind of operation, regardless of
+     * their origin.
+     *
+     * @param op the kind of operation
+     * @return a snapshot of the statistics
+     */
+    public IoStatistics getStatistics(Operation op) {
+        IoStatistics result = null;
+        
+        for (IoOrigin origin : IoOrigin.values()) {
+            final IoStatistics s = getStatistics(origin, op);
+            result = (result == null) ? s : result.plus(s);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Returns a snapshot of all statistics for which at least one operation
+     * was recorded. The keys are formed as described in
+     * {@link InstrumentedBlockDeviceMXBean}.
+     *
+     * @return the statistics, sorted by their key
+     */
+    public Map<String, IoStatistics> getSnapshot() {
+        final Map<String, IoStatistics> result =
+                new TreeMap<String, IoStatistics>();
+        
+        for (IoOrigin origin : IoOrigin.values()) {
+            for (Operation op : Operation.values()) {
+                final IoStatistics s = getStatistics(origin, op);
+                
+                if (s.getCount() > 0) {
+                    result.put(origin.name() + "." + op.name(), s); //NOI18N
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        
+        for (Map.Entry<String, IoStatistics> e : getSnapshot().entrySet()) {
+            result.put(e.getKey(), e.getValue().getCount());
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> getByteCounts() {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        
+        for (Map.Entry<String, IoStatistics> e : getSnapshot().entrySet()) {
+            result.put(e.getKey(), e.getValue().getBytes());
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> getMedianLatencies() {
+        return getLatencies(0.5);
+    }
+    
+    @Override
+    public Map<String, Long> get99thPercentileLatencies() {
+        return getLatencies(0.99);
+    }
+    
+    private Map<String, Long> getLatencies(double fraction) {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+        
+        for (Map.Entry<String, IoStatistics> e : getSnapshot().entrySet()) {
+            result.put(e.getKey(),
+                    e.getValue().getLatencyPercentile(fraction));
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public void reset() {
+        for (Recorder[] rs : recorders) {
+            for (Recorder r : rs) {
+                r.reset();
+            }
+        }
+    }
+    
+    @Override
+    public long getSize() throws IOException {
+        return dev.getSize();
+    }
+
+    @Override
+    public void read(long devOffset, ByteBuffer dest) throws IOException {
+        final int len = dest.remaining();
+        final long start = System.nanoTime();
+        
+        dev.read(devOffset, dest);
+        record(Operation.READ, len, start);
+    }
+
+    @Override
+    public void read(long[] devOffsets, ByteBuffer[] dests)
+            throws IOException {
+        
+        final long len = remaining(dests);
+        final long start = System.nanoTime();
+        
+        BlockDevices.read(dev, devOffsets, dests);
+        record(Operation.READ, len, start);
+    }
+    
+    @Override
+    public void write(long devOffset, ByteBuffer src) throws IOException {
+        final int len = src.remaining();
+        final long start = System.nanoTime();
+        
+        dev.write(devOffset, src);
+        record(Operation.WRITE, len, start);
+    }
+    
+    @Override
+    public void write(long[] devOffsets, ByteBuffer[] srcs)
+            throws IOException {
+        
+        final long len = remaining(srcs);
+        final long start = System.nanoTime();
+        
+        BlockDevices.write(dev, devOffsets, srcs);
+        record(Operation.WRITE, len, start);
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        final long start = System.nanoTime();
+        
+        dev.flush();
+        record(Operation.FLUSH, 0, start);
+    }
+
+    @Override
+    public int getSectorSize() throws IOException {
+        return dev.getSectorSize();
+    }
+
+    /**
+     * Closes the underlying device. The statistics remain available.
+     *
+     * @throws IOException on error closing the underlying device
+     */
+    @Override
+    public void close() throws IOException {
+        dev.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return dev.isClosed();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return dev.isReadOnly();
+    }
+    
+    private void record(Operation op, long bytes, long start) {
+        final long nanos = System.nanoTime() - start;
+        recorders[IoOrigin.current().ordinal()][op.ordinal()].record(
+                bytes, Math.max(0, nanos));
+    }
+    
+    private static long remaining(ByteBuffer[] buffers) {
+        long result = 0;
+        
+        for (ByteBuffer b : buffers) {
+            result += b.remaining();
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Collects the statistics for one kind of operation.
+     */
+    private final static class Recorder {
+        
+        private long count;
+        private long bytes;
+        private long totalNanos;
+        private long maxNanos;
+        private final long[] sizes = new long[IoStatistics.BUCKET_COUNT];
+        private final long[] latencies = new long[IoStatistics.BUCKET_COUNT];
+        
+        synchronized void record(long size, long nanos) {
+            this.count++;
+            this.bytes += size;
+            this.totalNanos += nanos;
+            this.maxNanos = Math.max(maxNanos, nanos);
+            this.sizes[IoStatistics.getBucket(size)]++;
+            this.latencies[IoStatistics.getBucket(nanos)]++;
+        }
+        
+        synchronized IoStatistics snapshot() {
+            return new IoStatistics(count, bytes,
+                    totalNanos, maxNanos, sizes, latencies);
+        }
+        
+        synchronized void reset() {
+            this.count = 0;
+            this.bytes = 0;
+            this.totalNanos = 0;
+            this.maxNanos = 0;
+            
+            for (int i=0; i < IoStatistics.BUCKET_COUNT; i++) {
+                this.sizes[i] = 0;
+                this.latencies[i] = 0;
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import java.util.Map;
+
+/**
+ * The management interface of an {@link InstrumentedBlockDevice}. The maps
+ * returned by the getters are keyed by the {@link de.waldheinz.fs.IoOrigin}
+ * and the {@link InstrumentedBlockDevice.Operation}, separated by a dot
+ * (for example {@code "FAT.WRITE"}), and only contain entries for the kinds
+ * of operations which actually occurred.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public interface InstrumentedBlockDeviceMXBean {
+    
+    /**
+     * Returns the number of operations.
+     *
+     * @return the operation counts
+     */
+    public Map<String, Long> getOperationCounts();
+    
+    /**
+     * Returns the number of bytes transferred.
+     *
+     * @return the byte counts
+     */
+    public Map<String, Long> getByteCounts();
+    
+    /**
+     * Returns the median operation latencies.
+     *
+     * @return the median latencies in nanoseconds
+     * @see IoStatistics#getLatencyPercentile(double) 
+     */
+    public Map<String, Long> getMedianLatencies();
+    
+    /**
+     * Returns the 99th percentile of the operation latencies.
+     *
+     * @return the 99th percentile latencies in nanoseconds
+     * @see IoStatistics#getLatencyPercentile(double) 
+     */
+    public Map<String, Long> get99thPercentileLatencies();
+    
+    /**
+     * Discards all statistics collected so far.
+     */
+    public void reset();
+    
+}
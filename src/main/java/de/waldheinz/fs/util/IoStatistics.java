@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+/**
+ * An immutable snapshot of the statistics an
+ * {@link InstrumentedBlockDevice} collected for one kind of operation.
+ * Transfer sizes and latencies are recorded in histograms with
+ * power-of-two buckets: bucket {@code i} counts the values {@code v} with
+ * {@code 2^(i-1) <= v < 2^i}, and bucket 0 counts the zeros.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class IoStatistics {
+    
+    /**
+     * The number of buckets in the size and latency histograms.
+     */
+    public final static int BUCKET_COUNT = 64;
+    
+    private final long count;
+    private final long bytes;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] sizeHistogram;
+    private final long[] latencyHistogram;
+
+    IoStatistics(long count, long bytes, long totalNanos, long maxNanos,
+            long[] sizeHistogram, long[] latencyHistogram) {
+        
+        this.count = count;
+        this.bytes = bytes;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.sizeHistogram = sizeHistogram.clone();
+        this.latencyHistogram = latencyHistogram.clone();
+    }
+    
+    /**
+     * Returns the histogram bucket a value belongs to.
+     *
+     * @param value the non-negative value
+     * @return the bucket index
+     */
+    static int getBucket(long value) {
+        return Math.min(BUCKET_COUNT - 1,
+                64 - Long.numberOfLeadingZeros(value));
+    }
+    
+    /**
+     * Returns the number of operations.
+     *
+     * @return the operation count
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Returns the number of bytes transferred by all operations together.
+     *
+     * @return the byte count
+     */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /**
+     * Returns the time spent in all operations together.
+     *
+     * @return the total latency in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+    
+    /**
+     * Returns the latency of the slowest operation.
+     *
+     * @return the maximum latency in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+    
+    /**
+     * Returns the average latency of the operations.
+     *
+     * @return the mean latency in nanoseconds, or 0 if there were no
+     *      operations
+     */
+    public long getMeanNanos() {
+        return (count == 0) ? 0 : totalNanos / count;
+    }
+    
+    /**
+     * Returns an upper bound for the latency of the specified fraction of
+     * the operations. As the latencies are recorded in power-of-two buckets,
+     * the result may be up to twice the exact value, but never exceeds
+     * the {@link #getMaxNanos() maximum latency}.
+     *
+     * @param fraction the fraction of operations, for example {@code 0.99}
+     *      for the 99th percentile
+     * @return the latency percentile in nanoseconds, or 0 if there were no
+     *      operations
+     * @throws IllegalArgumentException if the fraction is not between
+     *      0 and 1
+     */
+    public long getLatencyPercentile(double fraction)
+            throws IllegalArgumentException {
+        
+        if (fraction < 0 || fraction > 1) throw new IllegalArgumentException(
+                "invalid fraction " + fraction); //NOI18N
+        
+        if (count == 0) return 0;
+        
+        final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        
+        for (int i=0; i < BUCKET_COUNT; i++) {
+            seen += latencyHistogram[i];
+            
+            if (seen >= rank) {
+                final long bound = (i == 0) ? 0 : (1L << i) - 1;
+                return Math.min(bound, maxNanos);
+            }
+        }
+        
+        return maxNanos;
+    }
+    
+    /**
+     * Returns the histogram of transfer sizes.
+     *
+     * @return a copy of the size histogram
+     */
+    public long[] getSizeHistogram() {
+        return sizeHistogram.clone();
+    }
+    
+    /**
+     * Returns the histogram of latencies, measured in nanoseconds.
+     *
+     * @return a copy of the latency histogram
+     */
+    public long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+    
+    /**
+     * Combines this statistics with another one, as if all operations
+     * were recorded together.
+     *
+     * @param other the statistics to combine with
+     * @return the combined statistics
+     */
+    public IoStatistics plus(IoStatistics other) {
+        final long[] sizes = this.sizeHistogram.clone();
+        final long[] latencies = this.latencyHistogram.clone();
+        
+        for (int i=0; i < BUCKET_COUNT; i++) {
+            sizes[i] += other.sizeHistogram[i];
+            latencies[i] += other.latencyHistogram[i];
+        }
+        
+        return new IoStatistics(count + other.count, bytes + other.bytes,
+                totalNanos + other.totalNanos,
+                Math.max(maxNanos, other.maxNanos), sizes, latencies);
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [count=" + count + //NOI18N
+                ", bytes=" + bytes + ", mean=" + getMeanNanos() + //NOI18N
+                "ns, p99=" + getLatencyPercentile(0.99) + "ns]"; //NOI18N
+    }
+    
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.ReadOnlyException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@code BlockDevice} that maps a {@link File} into memory. Reads and writes
+ * are served by copying from / to the mapping, without a system call per
+ * access. Because a single mapping is limited to 2 GiB, the file is mapped
+ * as a sequence of segments, so files of any size can be used.
+ * 
+ * The size of the device is determined when it is created, changing the
+ * size of the file afterwards is not supported.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ * @see FileDisk
+ */
+public final class MappedFileDisk implements BlockDevice {
+
+    /**
+     * The number of bytes per sector for all {@code MappedFileDisk}
+     * instances.
+     */
+    public final static int BYTES_PER_SECTOR = 512;
+    
+    /**
+     * The default size of the segments the file is mapped in, which is
+     * 1 GiB.
+     */
+    public final static int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    
+    private final RandomAccessFile raf;
+    private final FileChannel fc;
+    private final boolean readOnly;
+    private final long size;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+    
+    /**
+     * Creates a new instance of {@code MappedFileDisk} for the specified
+     * {@code File}.
+     *
+     * @param file the file that holds the disk contents
+     * @param readOnly if the file should be mapped in read-only mode, which
+     *      will result in a read-only {@code MappedFileDisk} instance
+     * @throws FileNotFoundException if the specified file does not exist
+     * @throws IOException on error mapping the file
+     */
+    public MappedFileDisk(File file, boolean readOnly)
+            throws FileNotFoundException, IOException {
+        
+        this(file, readOnly, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * Creates a new instance of {@code MappedFileDisk} for the specified
+     * {@code File}, using the specified segment size.
+     *
+     * @param file the file that holds the disk contents
+     * @param readOnly if the file should be mapped in read-only mode
+     * @param segmentSize the maximum size of a single mapping
+     * @throws FileNotFoundException if the specified file does not exist
+     * @throws IOException on error mapping the file
+     * @throws IllegalArgumentException if the segment size is not positive
+     */
+    MappedFileDisk(File file, boolean readOnly, int segmentSize)
+            throws FileNotFoundException, IOException,
+            IllegalArgumentException {
+        
+        if (!file.exists()) throw new FileNotFoundException();
+        
+        if (segmentSize <= 0) throw new IllegalArgumentException(
+                "invalid segment size " + segmentSize); //NOI18N
+        
+        this.readOnly = readOnly;
+        this.segmentSize = segmentSize;
+        this.raf = new RandomAccessFile(file, readOnly ? "r" : "rw"); //NOI18N
+        this.fc = raf.getChannel();
+        
+        try {
+            this.size = raf.length();
+            this.segments = map();
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Creates a new {@code MappedFileDisk} of the specified size. The
+     * {@code MappedFileDisk} returned by this method will be writable.
+     *
+     * @param file the file to hold the {@code MappedFileDisk} contents
+     * @param size the size of the new {@code MappedFileDisk}
+     * @return the created {@code MappedFileDisk} instance
+     * @throws IOException on error creating the {@code MappedFileDisk}
+     * @throws IllegalArgumentException if size is &lt; 0
+     */
+    public static MappedFileDisk create(File file, long size)
+            throws IOException, IllegalArgumentException {
+        
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be >= 0");
+        }
+        
+        final RandomAccessFile raf =
+                new RandomAccessFile(file, "rw"); //NOI18N
+        
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+        
+        return new MappedFileDisk(file, false);
+    }
+    
+    private MappedByteBuffer[] map() throws IOException {
+        final int count = (int) ((size + segmentSize - 1) / segmentSize);
+        final MappedByteBuffer[] result = new MappedByteBuffer[count];
+        final FileChannel.MapMode mode = readOnly ?
+            FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        
+        for (int i=0; i < count; i++) {
+            final long start = (long) i * segmentSize;
+            result[i] = fc.map(mode, start, Math.min(segmentSize, size - start));
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public long getSize() {
+        checkClosed();
+        
+        return this.size;
+    }
+
+    @Override
+    public void read(long devOffset, ByteBuffer dest) throws IOException {
+        checkClosed();
+        checkRange(devOffset, dest.remaining(), "reading"); //NOI18N
+        
+        while (dest.hasRemaining()) {
+            final ByteBuffer seg = getSegment(devOffset, dest.remaining());
+            devOffset += seg.remaining();
+            dest.put(seg);
+        }
+    }
+
+    @Override
+    public void write(long devOffset, ByteBuffer src) throws IOException {
+        checkClosed();
+        
+        if (this.readOnly) throw new ReadOnlyException();
+        
+        checkRange(devOffset, src.remaining(), "writing"); //NOI18N
+        
+        final int limit = src.limit();
+        
+        try {
+            while (src.hasRemaining()) {
+                final ByteBuffer seg = getSegment(devOffset, src.remaining());
+                final int len = seg.remaining();
+                
+                src.limit(src.position() + len);
+                seg.put(src);
+                src.limit(limit);
+                devOffset += len;
+            }
+        } finally {
+            src.limit(limit);
+        }
+    }
+    
+    /**
+     * Returns a view of the mapping starting at the specified device offset.
+     * The view ends after {@code maxLength} bytes or at the end of the
+     * segment holding the offset, whatever comes first.
+     */
+    private ByteBuffer getSegment(long devOffset, int maxLength) {
+        final int nr = (int) (devOffset / segmentSize);
+        final int ofs = (int) (devOffset % segmentSize);
+        final ByteBuffer result = segments[nr].duplicate();
+        
+        result.position(ofs);
+        result.limit((int) Math.min(result.capacity(), (long) ofs + maxLength));
+        
+        return result;
+    }
+    
+    private void checkRange(long devOffset, int length, String what)
+            throws IOException {
+        
+        if ((devOffset < 0) || (devOffset + length > size)) {
+            throw new IOException(what + " past end of device"); //NOI18N
+        }
+    }
+    
+    /**
+     * Forces all modifications to the mapping to be written to the file.
+     *
+     * @throws IOException on write error
+     */
+    @Override
+    public void flush() throws IOException {
+        checkClosed();
+        
+        if (readOnly) return;
+        
+        for (MappedByteBuffer seg : segments) {
+            seg.force();
+        }
+    }
+
+    @Override
+    public int getSectorSize() {
+        checkClosed();
+        
+        return BYTES_PER_SECTOR;
+    }
+
+    /**
+     * Writes all modifications to the file and closes it. Please note that
+     * the mapping itself is only released when it is garbage collected.
+     *
+     * @throws IOException on write error
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed()) return;
+        
+        try {
+            flush();
+        } finally {
+            this.segments = null;
+            this.fc.close();
+            this.raf.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return (this.segments == null);
+    }
+    
+    private void checkClosed() {
+        if (isClosed()) throw new IllegalStateException(
+                "device already closed"); //NOI18N
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        checkClosed();
+        
+        return this.readOnly;
+    }
+    
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.ReadOnlyException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BlockDevice} which lays a writable, copy-on-write layer over
+ * another device. All reads go to the base device until a block is
+ * modified; from then on, the block is served from a private delta store.
+ * The base device is never written to (unless the changes are explicitly
+ * {@link #commit() committed}), so a single read-only image can be shared
+ * by many overlays, and creating an overlay only costs as much memory or
+ * disk space as there are blocks modified through it.
+ * 
+ * <pre>
+ *  BlockDevice golden = new FileDisk(imageFile, true);
+ *  BlockDevice sandbox = new OverlayBlockDevice(golden);
+ *  FatFileSystem fs = FatFileSystem.read(sandbox, false);
+ * </pre>
+ *
+ * The delta store can either live in memory or in a scratch file. The
+ * scratch file is only meaningful while the overlay is open, use
+ * {@link #export(BlockDevice)} to save the modified image.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class OverlayBlockDevice implements BlockDevice {
+    
+    /**
+     * The default block size, which is 4 KiB.
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 4096;
+    
+    /**
+     * The maximum number of bytes copied at once by {@link #export}.
+     */
+    private final static int COPY_CHUNK_SIZE = 1024 * 1024;
+    
+    private final BlockDevice base;
+    private final int blockSize;
+    private final long size;
+    
+    /**
+     * Maps the numbers of the modified blocks to their slot in the delta
+     * store.
+     */
+    private final Map<Long, Integer> slots;
+    
+    /**
+     * The delta blocks when they are kept in memory, indexed by slot.
+     */
+    private final List<byte[]> memory;
+    
+    /**
+     * The scratch file holding the delta blocks, or {@code null} if they are
+     * kept in memory.
+     */
+    private final RandomAccessFile scratch;
+    
+    private boolean closed;
+    
+    /**
+     * Creates a new overlay which keeps the modified blocks in memory, using
+     * the {@link #DEFAULT_BLOCK_SIZE}.
+     * 
+     * @param base the device to lay the overlay over
+     * @throws IOException on error determining the base device size
+     */
+    public OverlayBlockDevice(BlockDevice base) throws IOException {
+        this(base, DEFAULT_BLOCK_SIZE, null);
+    }
+    
+    /**
+     * Creates a new overlay.
+     * 
+     * @param base the device to lay the overlay over
+     * @param blockSize the granularity of the delta store, in bytes
+     * @param scratchFile the file to store the modified blocks in, or
+     *      {@code null} to keep them in memory; the file is truncated
+     * @throws IOException on error determining the base device size or
+     *      creating the scratch file
+     * @throws IllegalArgumentException if the block size is not positive
+     */
+    public OverlayBlockDevice(BlockDevice base, int blockSize, File scratchFile)
+            throws IOException, IllegalArgumentException {
+        
+        if (blockSize <= 0) throw new IllegalArgumentException(
+                "invalid block size " + blockSize); //NOI18N
+        
+        this.base = base;
+        this.blockSize = blockSize;
+        this.size = base.getSize();
+        this.slots = new HashMap<Long, Integer>();
+        
+        if (scratchFile == null) {
+            this.memory = new ArrayList<byte[]>();
+            this.scratch = null;
+        } else {
+            this.memory = null;
+            this.scratch = new RandomAccessFile(scratchFile, "rw"); //NOI18N
+            this.scratch.setLength(0);
+        }
+    }
+    
+    /**
+     * Returns the number of blocks which were modified through this overlay
+     * and are held in the delta store.
+     *
+     * @return the number of modified blocks
+     */
+    public synchronized int getModifiedBlockCount() {
+        return slots.size();
+    }
+    
+    /**
+     * Returns the number of bytes per block of the delta store.
+     *
+     * @return the block size
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+    
+    @Override
+    public long getSize() {
+        checkClosed();
+        
+        return size;
+    }
+
+    @Override
+    public synchronized void read(long devOffset, ByteBuffer dest)
+            throws IOException {
+        
+        checkClosed();
+        checkRange(devOffset, dest.remaining());
+        
+        while (dest.hasRemaining()) {
+            final long nr = devOffset / blockSize;
+            final int ofs = (int) (devOffset % blockSize);
+            final int len = Math.min(dest.remaining(), blockSize - ofs);
+            final Integer slot = slots.get(nr);
+            final ByteBuffer part = dest.duplicate();
+            part.limit(part.position() + len);
+            
+            if (slot == null) {
+                base.read(devOffset, part);
+            } else {
+                readSlot(slot, ofs, part);
+            }
+            
+            dest.position(dest.position() + len);
+            devOffset += len;
+        }
+    }
+
+    /**
+     * Writes to the delta store. Blocks which are not completely overwritten
+     * are copied from the base device first.
+     * 
+     * @param devOffset {@inheritDoc}
+     * @param src {@inheritDoc}
+     * @throws IOException {@inheritDoc}
+     */
+    @Override
+    public synchronized void write(long devOffset, ByteBuffer src)
+            throws IOException {
+        
+        checkClosed();
+        checkRange(devOffset, src.remaining());
+        
+        while (src.hasRemaining()) {
+            final long nr = devOffset / blockSize;
+            final int ofs = (int) (devOffset % blockSize);
+            final int blockLen = getBlockLength(nr);
+            final int len = Math.min(src.remaining(), blockLen - ofs);
+            Integer slot = slots.get(nr);
+            
+            if (slot == null) {
+                slot = slots.size();
+                final ByteBuffer copy = ByteBuffer.allocate(blockSize);
+                
+                if (len < blockLen) {
+                    copy.limit(blockLen);
+                    base.read(nr * blockSize, copy);
+                }
+                
+                copy.clear();
+                writeSlot(slot, 0, copy);
+                slots.put(nr, slot);
+            }
+            
+            final ByteBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            writeSlot(slot, ofs, part);
+            
+            src.position(src.position() + len);
+            devOffset += len;
+        }
+    }
+    
+    /**
+     * Writes all modified blocks to the base device and empties the delta
+     * store. Afterwards, the base device holds the same contents as this
+     * overlay.
+     *
+     * @throws ReadOnlyException if the base device is read-only
+     * @throws IOException on read or write error
+     */
+    public synchronized void commit() throws ReadOnlyException, IOException {
+        checkClosed();
+        
+        if (base.isReadOnly()) throw new ReadOnlyException();
+        
+        final Long[] modified = slots.keySet().toArray(new Long[0]);
+        Arrays.sort(modified);
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        
+        for (Long nr : modified) {
+            buffer.clear();
+            buffer.limit(getBlockLength(nr));
+            readSlot(slots.get(nr), 0, buffer);
+            buffer.flip();
+            base.write(nr * blockSize, buffer);
+        }
+        
+        base.flush();
+        clear();
+    }
+    
+    /**
+     * Drops all modifications, so this overlay shows the contents of the
+     * base device again.
+     *
+     * @throws IOException on error truncating the scratch file
+     */
+    public synchronized void clear() throws IOException {
+        checkClosed();
+        
+        slots.clear();
+        
+        if (memory != null) {
+            memory.clear();
+        } else {
+            scratch.setLength(0);
+        }
+    }
+    
+    /**
+     * Writes the complete contents of this overlay, that is the base device
+     * with the modifications applied, to another device.
+     * 
+     * @param target the device to write the image to
+     * @throws IOException on read or write error
+     * @throws IllegalArgumentException if the target device is too small
+     */
+    public synchronized void export(BlockDevice target)
+            throws IOException, IllegalArgumentException {
+        
+        checkClosed();
+        
+        if (target.getSize() < size) throw new IllegalArgumentException(
+                "target device is too small"); //NOI18N
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                (int) Math.min(size, COPY_CHUNK_SIZE));
+        
+        for (long pos = 0; pos < size; pos += buffer.capacity()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - pos));
+            read(pos, buffer);
+            buffer.flip();
+            target.write(pos, buffer);
+        }
+        
+        target.flush();
+    }
+    
+    /**
+     * Forces the scratch file (if any) to be written to disk. The base
+     * device is not touched.
+     * 
+     * @throws IOException on write error
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkClosed();
+        
+        if (scratch != null) scratch.getChannel().force(false);
+    }
+    
+    @Override
+    public int getSectorSize() throws IOException {
+        checkClosed();
+        
+        return base.getSectorSize();
+    }
+
+    /**
+     * Closes this overlay, discarding all modifications which were not
+     * committed. The base device is left open, as it may be shared with
+     * other overlays.
+     * 
+     * @throws IOException on error closing the scratch file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        
+        this.closed = true;
+        this.slots.clear();
+        
+        if (memory != null) {
+            memory.clear();
+        } else {
+            scratch.close();
+        }
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns always {@code false}, as overlays are writable even if the
+     * base device is not.
+     *
+     * @return always {@code false}
+     */
+    @Override
+    public boolean isReadOnly() {
+        checkClosed();
+        
+        return false;
+    }
+    
+    private int getBlockLength(long nr) {
+        return (int) Math.min(blockSize, size - nr * blockSize);
+    }
+    
+    private void readSlot(int slot, int ofs, ByteBuffer dest)
+            throws IOException {
+        
+        if (memory != null) {
+            dest.put(memory.get(slot), ofs, dest.remaining());
+        } else {
+            final long pos = (long) slot * blockSize + ofs - dest.position();
+            
+            while (dest.hasRemaining()) {
+                if (scratch.getChannel().read(
+                        dest, pos + dest.position()) < 0) {
+                    
+                    throw new IOException(
+                            "scratch file is truncated"); //NOI18N
+                }
+            }
+        }
+    }
+    
+    private void writeSlot(int slot, int ofs, ByteBuffer src)
+            throws IOException {
+        
+        if (memory != null) {
+            if (slot == memory.size()) memory.add(new byte[blockSize]);
+            src.get(memory.get(slot), ofs, src.remaining());
+        } else {
+            final long pos = (long) slot * blockSize + ofs - src.position();
+            
+            while (src.hasRemaining()) {
+                scratch.getChannel().write(src, pos + src.position());
+            }
+        }
+    }
+    
+    private void checkClosed() {
+        if (isClosed()) throw new IllegalStateException(
+                "device already closed"); //NOI18N
+    }
+    
+    private void checkRange(long devOffset, int length) throws IOException {
+        if ((devOffset < 0) || (devOffset + length > size)) {
+            throw new IOException("offset=" + devOffset +
+                ", length=" + length + ", size=" + size); //NOI18N
+        }
+    }
+    
+}
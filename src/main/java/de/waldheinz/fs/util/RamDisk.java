@@ -19,18 +19,26 @@
 package de.waldheinz.fs.util;
 
 import de.waldheinz.fs.*;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 /**
- * A {@link BlockDevice} that lives entirely in heap memory. This is basically
+ * A {@link BlockDevice} that lives entirely in memory. This is basically
  * a RAM disk. A {@code RamDisk} is always writable.
+ * 
+ * The contents are stored outside of the Java heap, in a sequence of direct
+ * buffers, so a {@code RamDisk} may be larger than 2 GiB. All accesses work
+ * on private views of these buffers, so any number of threads may read
+ * from a {@code RamDisk} concurrently. Concurrent writes to overlapping
+ * regions are not synchronized.
  *
  * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
  */
@@ -41,52 +49,126 @@ public final class RamDisk implements BlockDevice {
      */
     public final static int DEFAULT_SECTOR_SIZE = 512;
     
+    /**
+     * The maximum size of a single buffer backing a {@code RamDisk}, which
+     * is 1 GiB.
+     */
+    final static int SEGMENT_SIZE = 1 << 30;
+    
     private final int sectorSize;
-    private final ByteBuffer data;
-    private final int size;
-    private boolean closed;
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    private final long size;
+    private volatile boolean closed;
 
+    /**
+     * The number of bytes that are inflated at once when reading a GZIP
+     * compressed image.
+     */
+    final static int INFLATE_CHUNK_SIZE = 1024 * 1024;
+    
     /**
      * Reads a GZIP compressed disk image from the specified input stream and
-     * returns a {@code RamDisk} holding the decompressed image.
+     * returns a {@code RamDisk} holding the decompressed image. As the size
+     * of the image is not known in advance, the image is first inflated to
+     * temporary heap buffers. When the size is known,
+     * {@link #readGzipped(java.io.InputStream, long)} should be preferred.
      *
      * @param in the stream to read the disk image from
      * @return the decompressed {@code RamDisk}
      * @throws IOException on read or decompression error
      */
     public static RamDisk readGzipped(InputStream in) throws IOException {
-        final GZIPInputStream zis = new GZIPInputStream(in);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final GZIPInputStream zis = new GZIPInputStream(in, 64 * 1024);
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        long total = 0;
+        int last = 0;
+        
+        while (last >= 0) {
+            final byte[] chunk = new byte[INFLATE_CHUNK_SIZE];
+            last = readFully(zis, chunk);
+            
+            if (last > 0) {
+                chunks.add(chunk);
+                total += last;
+            }
+        }
         
-        final byte[] buffer = new byte[4096];
+        checkImageSize(total);
         
-        int read = zis.read(buffer);
-        int total = 0;
+        final RamDisk result = new RamDisk(total, DEFAULT_SECTOR_SIZE);
+        long offset = 0;
         
-        while (read >= 0) {
-            total += read;
-            bos.write(buffer, 0, read);
-            read = zis.read(buffer);
+        for (int i=0; i < chunks.size(); i++) {
+            final int len = (int) Math.min(INFLATE_CHUNK_SIZE, total - offset);
+            result.write(offset, ByteBuffer.wrap(chunks.get(i), 0, len));
+            
+            /* release the chunk as soon as possible */
+            chunks.set(i, null);
+            offset += len;
         }
-
-        if (total < DEFAULT_SECTOR_SIZE) throw new IOException(
-                "read only " + total + " bytes"); //NOI18N
-                
-        final ByteBuffer bb = ByteBuffer.wrap(bos.toByteArray(), 0, total);
-        return new RamDisk(bb, DEFAULT_SECTOR_SIZE);
+        
+        return result;
+    }
+    
+    /**
+     * Reads a GZIP compressed disk image of known size from the specified
+     * input stream. The image is inflated directly into a {@code RamDisk} of
+     * the specified size, so no additional memory is required.
+     *
+     * @param in the stream to read the disk image from
+     * @param size the size of the decompressed image
+     * @return the decompressed {@code RamDisk}
+     * @throws IOException on read or decompression error, or if the size of
+     *      the decompressed image does not match the specified size
+     */
+    public static RamDisk readGzipped(InputStream in, long size)
+            throws IOException {
+        
+        checkImageSize(size);
+        
+        final RamDisk result = new RamDisk(size, DEFAULT_SECTOR_SIZE);
+        final long total = result.inflate(in);
+        
+        if (total < 0) throw new IOException(
+                "image is larger than " + size + " bytes"); //NOI18N
+        
+        if (total != size) throw new IOException(
+                "image has only " + total + " of " + size + " bytes"); //NOI18N
+        
+        return result;
     }
     
     /**
-     * Reads a GZIP compressed file into a new {@code RamDisk} instance.
+     * Reads a GZIP compressed file into a new {@code RamDisk} instance. The
+     * size of the image is taken from the GZIP trailer, which allows to
+     * inflate the file directly into the {@code RamDisk}. If the trailer
+     * can not be trusted (because the image is larger than 4 GiB or the file
+     * consists of multiple GZIP members), the file is read like a stream of
+     * unknown size.
      * 
      * @param f the file to read
      * @return the new RamDisk with the file contents
      * @throws FileNotFoundException if the specified file does not exist
      * @throws IOException on read error
+     * @see #getGzipSizeHint(java.io.File) 
      */
     public static RamDisk readGzipped(File f)
             throws FileNotFoundException, IOException {
         
+        final long hint = getGzipSizeHint(f);
+        
+        if (hint >= DEFAULT_SECTOR_SIZE) {
+            final FileInputStream is = new FileInputStream(f);
+            
+            try {
+                final RamDisk result = new RamDisk(hint, DEFAULT_SECTOR_SIZE);
+                if (result.inflate(is) == hint) return result;
+            } finally {
+                is.close();
+            }
+        }
+        
         final FileInputStream is = new FileInputStream(f);
         
         try {
@@ -96,20 +178,118 @@ public final class RamDisk implements BlockDevice {
         }
     }
     
-    private RamDisk(ByteBuffer buffer, int sectorSize) {
-        this.size = buffer.limit();
-        this.sectorSize = sectorSize;
-        this.data = buffer;
-        this.closed = false;
+    /**
+     * Returns the uncompressed size of a GZIP file as stored in the ISIZE
+     * field of the GZIP trailer. This is the uncompressed size modulo 4 GiB
+     * of the last member of the file, so it is only a hint.
+     *
+     * @param f the GZIP file
+     * @return the uncompressed size according to the trailer, or -1 if the
+     *      file is too short to have a trailer
+     * @throws IOException on read error
+     */
+    public static long getGzipSizeHint(File f) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(f, "r"); //NOI18N
+        
+        try {
+            /* 10 bytes header, 8 bytes trailer */
+            if (raf.length() < 18) return -1;
+            
+            raf.seek(raf.length() - 4);
+            final byte[] isize = new byte[4];
+            raf.readFully(isize);
+            
+            return ((isize[0] & 0xffL)) | ((isize[1] & 0xffL) << 8) |
+                   ((isize[2] & 0xffL) << 16) | ((isize[3] & 0xffL) << 24);
+        } finally {
+            raf.close();
+        }
     }
-
+    
+    private static void checkImageSize(long size) throws IOException {
+        if (size < DEFAULT_SECTOR_SIZE) throw new IOException(
+                "read only " + size + " bytes"); //NOI18N
+    }
+    
+    /**
+     * Reads from a stream until the buffer is full or the stream ends.
+     *
+     * @param in the stream to read from
+     * @param buffer the buffer to fill
+     * @return the number of bytes read, or -1 if the stream ended before
+     *      any byte could be read
+     * @throws IOException on read error
+     */
+    static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        
+        while (total < buffer.length) {
+            final int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        
+        return (total == 0 && buffer.length > 0) ? -1 : total;
+    }
+    
+    /**
+     * Inflates a GZIP compressed stream into this {@code RamDisk}, starting
+     * at offset 0.
+     *
+     * @param in the compressed stream
+     * @return the number of bytes inflated, or -1 if the image is larger
+     *      than this {@code RamDisk}
+     * @throws IOException on read or decompression error
+     */
+    private long inflate(InputStream in) throws IOException {
+        final GZIPInputStream zis = new GZIPInputStream(in, 64 * 1024);
+        final byte[] chunk = new byte[
+                (int) Math.min(INFLATE_CHUNK_SIZE, Math.max(1, size))];
+        long offset = 0;
+        
+        while (true) {
+            final int read = readFully(zis, chunk);
+            if (read < 0) return offset;
+            if (offset + read > size) return -1;
+            
+            write(offset, ByteBuffer.wrap(chunk, 0, read));
+            offset += read;
+        }
+    }
+    
     /**
      * Creates a new instance of {@code RamDisk} of this specified
-     * size and using the {@link #DEFAULT_SECTOR_SIZE}.
+     * size and using the {@link #DEFAULT_SECTOR_SIZE}. This constructor is
+     * kept for binary compatibility with code compiled against earlier
+     * versions.
      *
      * @param size the size of the new block device
+     * @see #RamDisk(long) 
      */
     public RamDisk(int size) {
+        this((long) size);
+    }
+    
+    /**
+     * Creates a new instance of {@code RamDisk} of this specified
+     * size and sector size. This constructor is kept for binary
+     * compatibility with code compiled against earlier versions.
+     *
+     * @param size the size of the new block device
+     * @param sectorSize the sector size of the new block device
+     * @see #RamDisk(long, int) 
+     */
+    public RamDisk(int size, int sectorSize) {
+        this((long) size, sectorSize);
+    }
+    
+    /**
+     * Creates a new instance of {@code RamDisk} of this specified
+     * size and using the {@link #DEFAULT_SECTOR_SIZE}.
+     *
+     * @param size the size of the new block device
+     */
+    public RamDisk(long size) {
         this(size, DEFAULT_SECTOR_SIZE);
     }
 
@@ -120,13 +300,44 @@ public final class RamDisk implements BlockDevice {
      * @param size the size of the new block device
      * @param sectorSize the sector size of the new block device
      */
-    public RamDisk(int size, int sectorSize) {
+    public RamDisk(long size, int sectorSize) {
+        this(size, sectorSize, SEGMENT_SIZE);
+    }
+    
+    /**
+     * Creates a new instance of {@code RamDisk} using the specified size of
+     * the buffers backing the disk.
+     * 
+     * @param size the size of the new block device
+     * @param sectorSize the sector size of the new block device
+     * @param segmentSize the maximum size of a single backing buffer
+     */
+    RamDisk(long size, int sectorSize, int segmentSize) {
         if (sectorSize < 1) throw new IllegalArgumentException(
                 "invalid sector size"); //NOI18N
         
+        if (size < 0) throw new IllegalArgumentException(
+                "negative size"); //NOI18N
+        
+        if (segmentSize < 1) throw new IllegalArgumentException(
+                "invalid segment size"); //NOI18N
+        
         this.sectorSize = sectorSize;
+        this.segmentSize = segmentSize;
         this.size = size;
-        this.data = ByteBuffer.allocate(size);
+        
+        final long count = (size + segmentSize - 1) / segmentSize;
+        
+        if (count > Integer.MAX_VALUE) throw new IllegalArgumentException(
+                "too large: " + size); //NOI18N
+        
+        this.segments = new ByteBuffer[(int) count];
+        
+        for (int i=0; i < segments.length; i++) {
+            final long start = (long) i * segmentSize;
+            segments[i] = ByteBuffer.allocateDirect(
+                    (int) Math.min(segmentSize, size - start));
+        }
     }
     
     @Override
@@ -138,29 +349,62 @@ public final class RamDisk implements BlockDevice {
     @Override
     public void read(long devOffset, ByteBuffer dest) throws IOException {
         checkClosed();
-        if (devOffset > getSize()) throw new IllegalArgumentException();
+        checkRange(devOffset, dest.remaining());
         
-        data.limit((int) (devOffset + dest.remaining()));
-        data.position((int) devOffset);
-        
-        dest.put(data);
+        while (dest.hasRemaining()) {
+            final ByteBuffer seg = getSegment(devOffset, dest.remaining());
+            devOffset += seg.remaining();
+            dest.put(seg);
+        }
     }
 
     @Override
     public void write(long devOffset, ByteBuffer src) throws IOException {
         checkClosed();
+        checkRange(devOffset, src.remaining());
         
-        if (devOffset + src.remaining() > getSize()) throw new
-                IllegalArgumentException(
-                "offset=" + devOffset +
-                ", length=" + src.remaining() +
-                ", size=" + getSize());
-                
-        data.limit((int) (devOffset + src.remaining()));
-        data.position((int) devOffset);
+        final int limit = src.limit();
         
+        try {
+            while (src.hasRemaining()) {
+                final ByteBuffer seg = getSegment(devOffset, src.remaining());
+                final int len = seg.remaining();
+
+                src.limit(src.position() + len);
+                seg.put(src);
+                src.limit(limit);
+                devOffset += len;
+            }
+        } finally {
+            src.limit(limit);
+        }
+    }
+    
+    /**
+     * Returns a private view of the backing buffer holding the specified
+     * device offset. The view starts at the offset and ends after
+     * {@code maxLength} bytes or at the end of the segment.
+     */
+    private ByteBuffer getSegment(long devOffset, int maxLength) {
+        final int nr = (int) (devOffset / segmentSize);
+        final int ofs = (int) (devOffset % segmentSize);
+        final ByteBuffer result = segments[nr].duplicate();
+        
+        result.limit((int) Math.min(result.capacity(), (long) ofs + maxLength));
+        result.position(ofs);
         
-        data.put(src);
+        return result;
+    }
+    
+    private void checkRange(long devOffset, int length)
+            throws IllegalArgumentException {
+        
+        if ((devOffset < 0) || (devOffset + length > size)) {
+            throw new IllegalArgumentException(
+                "offset=" + devOffset +
+                ", length=" + length +
+                ", size=" + size);
+        }
     }
     
     /**
@@ -168,11 +412,20 @@ public final class RamDisk implements BlockDevice {
      * {@code RamDisk} as it's backing store. The returned buffer will be
      * live (reflecting any changes made through the
      * {@link #write(long, java.nio.ByteBuffer) method}, but read-only.
+     * This is only possible for a {@code RamDisk} that is backed by a single
+     * buffer, which is the case if it is not larger than 1 GiB.
      *
      * @return a buffer holding the contents of this {@code RamDisk}
+     * @throws IllegalStateException if this {@code RamDisk} is backed by
+     *      more than one buffer
      */
-    public ByteBuffer getBuffer() {
-        return this.data.asReadOnlyBuffer();
+    public ByteBuffer getBuffer() throws IllegalStateException {
+        if (segments.length > 1) throw new IllegalStateException(
+                "RamDisk consists of " + segments.length +
+                " segments"); //NOI18N
+        
+        return (segments.length == 0) ? ByteBuffer.allocate(0) :
+            this.segments[0].asReadOnlyBuffer();
     }
     
     @Override
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Re-issues the operations recorded in a {@link BlockTrace} against a
+ * {@link BlockDevice}, and reports the throughput and latencies the device
+ * achieved. The operations are issued one after the other as fast as
+ * possible, in the order they were recorded, so replaying the same trace
+ * against different devices gives comparable results. Segments which were
+ * recorded as a batch are handed to the device as a batch again.
+ * 
+ * The payload of write operations is not part of the trace, so writes are
+ * replayed with zero bytes. Thus the target device should hold a scratch
+ * copy of the traced image.
+ * 
+ * <pre>
+ *  TraceReplay r = TraceReplay.run(
+ *          traceFile, new MappedFileDisk(copy, false));
+ *  System.out.println(r.getThroughput() + " bytes/s");
+ * </pre>
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class TraceReplay {
+    
+    private final InstrumentedBlockDevice stats;
+    private long recordCount;
+    private long elapsedNanos;
+    
+    private TraceReplay(BlockDevice target) {
+        this.stats = new InstrumentedBlockDevice(target);
+    }
+    
+    /**
+     * Replays a trace file against a device.
+     *
+     * @param trace the trace file to replay
+     * @param target the device to replay the trace against
+     * @return the results of the replay
+     * @throws IOException on error reading the trace or if the device
+     *      reports an error
+     * @throws IllegalArgumentException if the device is smaller than the
+     *      traced device
+     */
+    public static TraceReplay run(File trace, BlockDevice target)
+            throws IOException, IllegalArgumentException {
+        
+        final BlockTrace bt = BlockTrace.open(trace);
+        
+        try {
+            return run(bt, target);
+        } finally {
+            bt.close();
+        }
+    }
+    
+    /**
+     * Replays the remaining records of a trace against a device.
+     *
+     * @param trace the trace to replay
+     * @param target the device to replay the trace against
+     * @return the results of the replay
+     * @throws IOException on error reading the trace or if the device
+     *      reports an error
+     * @throws IllegalArgumentException if the device is smaller than the
+     *      traced device
+     */
+    public static TraceReplay run(BlockTrace trace, BlockDevice target)
+            throws IOException, IllegalArgumentException {
+        
+        if (target.getSize() < trace.getDeviceSize()) {
+            throw new IllegalArgumentException(
+                    "target device is too small"); //NOI18N
+        }
+        
+        final TraceReplay result = new TraceReplay(target);
+        result.replay(trace);
+        return result;
+    }
+    
+    private void replay(BlockTrace trace) throws IOException {
+        ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer zeroes = ByteBuffer.allocate(64 * 1024);
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        
+        while (trace.next()) {
+            final Operation op = trace.getOperation();
+            final IoOrigin origin = trace.getOrigin();
+            int count = 0;
+            long total = 0;
+            
+            while (true) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                
+                offsets[count] = trace.getOffset();
+                lengths[count] = trace.getLength();
+                total += lengths[count];
+                count++;
+                
+                if (!trace.isContinued()) break;
+                
+                if (!trace.next()) throw new IOException(
+                        "truncated batch"); //NOI18N
+            }
+            
+            if (total > Integer.MAX_VALUE) throw new IOException(
+                    "batch too large"); //NOI18N
+            
+            final ByteBuffer[] buffers;
+            
+            if (op == Operation.READ) {
+                if (total > readBuffer.capacity()) {
+                    readBuffer = ByteBuffer.allocate((int) total);
+                }
+                
+                buffers = slice(readBuffer, lengths, count);
+            } else {
+                /* the buffer is never written to, so it stays zeroed */
+                
+                if (total > zeroes.capacity()) {
+                    zeroes = ByteBuffer.allocate((int) total);
+                }
+                
+                buffers = slice(zeroes, lengths, count);
+            }
+            
+            final IoOrigin prev = origin.enter();
+            final long start = System.nanoTime();
+            
+            try {
+                switch (op) {
+                    case READ:
+                        if (count == 1) {
+                            stats.read(offsets[0], buffers[0]);
+                        } else {
+                            stats.read(
+                                    Arrays.copyOf(offsets, count), buffers);
+                        }
+                        break;
+                        
+                    case WRITE:
+                        if (count == 1) {
+                            stats.write(offsets[0], buffers[0]);
+                        } else {
+                            stats.write(
+                                    Arrays.copyOf(offsets, count), buffers);
+                        }
+                        break;
+                        
+                    case FLUSH:
+                        stats.flush();
+                        break;
+                        
+                    default:
+                        throw new AssertionError();
+                }
+            } finally {
+                this.elapsedNanos += System.nanoTime() - start;
+                IoOrigin.leave(prev);
+            }
+            
+            this.recordCount += count;
+        }
+    }
+    
+    /**
+     * Cuts consecutive, non-overlapping buffers of the specified lengths
+     * from a larger buffer.
+     */
+    private static ByteBuffer[] slice(
+            ByteBuffer buffer, int[] lengths, int count) {
+        
+        final ByteBuffer[] result = new ByteBuffer[count];
+        int pos = 0;
+        
+        for (int i=0; i < count; i++) {
+            final ByteBuffer b = buffer.duplicate();
+            b.limit(pos + lengths[i]).position(pos);
+            result[i] = b.slice();
+            pos += lengths[i];
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Returns the number of replayed operations.
+     *
+     * @return the operation count
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Returns the time the device spent on the replayed operations. The time
+     * spent reading the trace is not included.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    /**
+     * Returns the number of bytes read and written per second.
+     *
+     * @return the throughput in bytes per second
+     */
+    public double getThroughput() {
+        if (elapsedNanos == 0) return 0;
+        
+        final long bytes = getStatistics(Operation.READ).getBytes() +
+                getStatistics(Operation.WRITE).getBytes();
+        
+        return bytes * 1e9 / elapsedNanos;
+    }
+    
+    /**
+     * Returns the statistics for one kind of operation.
+     *
+     * @param op the kind of operation
+     * @return the statistics
+     */
+    public IoStatistics getStatistics(Operation op) {
+        return stats.getStatistics(op);
+    }
+    
+    /**
+     * Returns the statistics for all operations, separated by their origin
+     * as recorded in the trace.
+     *
+     * @return the statistics
+     * @see InstrumentedBlockDevice#getSnapshot() 
+     */
+    public Map<String, IoStatistics> getStatistics() {
+        return stats.getSnapshot();
+    }
+    
+    /**
+     * Replays a trace against a disk image file and prints the results.
+     * 
+     * @param args the trace file, the image file and optionally the device
+     *      implementation to use ({@code file}, {@code mapped} or
+     *      {@code cached})
+     * @throws IOException on error reading the trace or the image
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: TraceReplay <trace> <image> " +
+                    "[file|mapped|cached]");
+            System.exit(1);
+        }
+        
+        final File image = new File(args[1]);
+        final String type = (args.length == 3) ? args[2] : "file";
+        final BlockDevice dev;
+        
+        if ("file".equals(type)) {
+            dev = new FileDisk(image, false);
+        } else if ("mapped".equals(type)) {
+            dev = new MappedFileDisk(image, false);
+        } else if ("cached".equals(type)) {
+            dev = new CachingBlockDevice(new FileDisk(image, false),
+                    16 * 1024 * 1024, true);
+        } else {
+            System.err.println("unknown device type " + type);
+            System.exit(1);
+            return;
+        }
+        
+        try {
+            final TraceReplay r = run(new File(args[0]), dev);
+            
+            System.out.printf("%d operations in %.3f s, %.1f MiB/s%n",
+                    r.getRecordCount(), r.getElapsedNanos() / 1e9,
+                    r.getThroughput() / (1024 * 1024));
+            
+            for (Map.Entry<String, IoStatistics> e :
+                    r.getStatistics().entrySet()) {
+                
+                System.out.println(e.getKey() + ": " + e.getValue());
+            }
+        } finally {
+            dev.close();
+        }
+    }
+    
+}
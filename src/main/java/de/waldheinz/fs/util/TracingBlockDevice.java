@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.BlockDevices;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.VectoredBlockDevice;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link BlockDevice} which records all operations performed on another
+ * device in a trace file. The trace can be read with {@link BlockTrace} and
+ * re-issued against other devices with {@link TraceReplay}, which allows to
+ * compare device implementations using a real-world access pattern.
+ * 
+ * For every operation, the kind of operation, it's {@link IoOrigin}, the
+ * device offset, the number of bytes and the time since the device was
+ * created are recorded. Optionally, a CRC-32 of the bytes read or written
+ * is recorded as well. Batches transferred through the
+ * {@link VectoredBlockDevice} interface are passed on as a whole and
+ * recorded with one record per segment. The file format is described in
+ * {@link BlockTrace}.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public final class TracingBlockDevice implements VectoredBlockDevice {
+    
+    private final BlockDevice dev;
+    private final DataOutputStream out;
+    private final CRC32 crc;
+    private final long startNanos;
+    private boolean traceClosed;
+    
+    /**
+     * Creates a new {@code TracingBlockDevice}. If the trace file exists,
+     * it is overwritten.
+     *
+     * @param dev the device to trace the operations on
+     * @param trace the file to write the trace to
+     * @param hashPayload if a CRC-32 of the transferred bytes should be
+     *      recorded
+     * @throws IOException on error creating the trace file or determining
+     *      the device size
+     */
+    public TracingBlockDevice(BlockDevice dev, File trace, boolean hashPayload)
+            throws IOException {
+        
+        this.dev = dev;
+        this.crc = hashPayload ? new CRC32() : null;
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(trace), 64 * 1024));
+        
+        try {
+            BlockTrace.writeHeader(out,
+                    dev.getSize(), dev.getSectorSize(), hashPayload);
+        } catch (IOException ex) {
+            out.close();
+            throw ex;
+        }
+        
+        this.startNanos = System.nanoTime();
+    }
+    
+    @Override
+    public long getSize() throws IOException {
+        return dev.getSize();
+    }
+
+    @Override
+    public void read(long devOffset, ByteBuffer dest) throws IOException {
+        final ByteBuffer payload = dest.duplicate();
+        final long now = System.nanoTime();
+        
+        dev.read(devOffset, dest);
+        payload.limit(dest.position());
+        record(Operation.READ, devOffset, payload, now, false);
+    }
+    
+    @Override
+    public void read(long[] devOffsets, ByteBuffer[] dests)
+            throws IOException {
+        
+        final ByteBuffer[] payloads = duplicate(dests);
+        final long now = System.nanoTime();
+        
+        BlockDevices.read(dev, devOffsets, dests);
+        
+        for (int i=0; i < dests.length; i++) {
+            payloads[i].limit(dests[i].position());
+        }
+        
+        record(Operation.READ, devOffsets, payloads, now);
+    }
+
+    @Override
+    public void write(long devOffset, ByteBuffer src) throws IOException {
+        final ByteBuffer payload = src.duplicate();
+        final long now = System.nanoTime();
+        
+        dev.write(devOffset, src);
+        record(Operation.WRITE, devOffset, payload, now, false);
+    }
+    
+    @Override
+    public void write(long[] devOffsets, ByteBuffer[] srcs)
+            throws IOException {
+        
+        final ByteBuffer[] payloads = duplicate(srcs);
+        final long now = System.nanoTime();
+        
+        BlockDevices.write(dev, devOffsets, srcs);
+        record(Operation.WRITE, devOffsets, payloads, now);
+    }
+
+    /**
+     * Flushes the underlying device and the trace file.
+     *
+     * @throws IOException on write error
+     */
+    @Override
+    public void flush() throws IOException {
+        final long now = System.nanoTime();
+        
+        dev.flush();
+        record(Operation.FLUSH, 0, null, now, false);
+        
+        synchronized (out) {
+            if (!traceClosed) out.flush();
+        }
+    }
+
+    @Override
+    public int getSectorSize() throws IOException {
+        return dev.getSectorSize();
+    }
+
+    /**
+     * Closes the trace file and the underlying device.
+     *
+     * @throws IOException on error closing the trace file or the device
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeTrace();
+        } finally {
+            dev.close();
+        }
+    }
+    
+    /**
+     * Closes the trace file, leaving the underlying device open. Operations
+     * performed afterwards are no longer recorded.
+     * 
+     * @throws IOException on error closing the trace file
+     */
+    public void closeTrace() throws IOException {
+        synchronized (out) {
+            if (traceClosed) return;
+            
+            this.traceClosed = true;
+            out.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return dev.isClosed();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return dev.isReadOnly();
+    }
+    
+    private static ByteBuffer[] duplicate(ByteBuffer[] buffers) {
+        final ByteBuffer[] result = new ByteBuffer[buffers.length];
+        
+        for (int i=0; i < buffers.length; i++) {
+            result[i] = buffers[i].duplicate();
+        }
+        
+        return result;
+    }
+    
+    private void record(Operation op, long[] devOffsets,
+            ByteBuffer[] payloads, long start) throws IOException {
+        
+        synchronized (out) {
+            for (int i=0; i < devOffsets.length; i++) {
+                record(op, devOffsets[i], payloads[i], start,
+                        i < devOffsets.length - 1);
+            }
+        }
+    }
+    
+    private void record(Operation op, long devOffset,
+            ByteBuffer payload, long start, boolean continued)
+            throws IOException {
+        
+        synchronized (out) {
+            if (traceClosed) return;
+            
+            out.writeByte(op.ordinal() |
+                    (continued ? BlockTrace.CONTINUED : 0));
+            out.writeByte(IoOrigin.current().ordinal());
+            out.writeLong(devOffset);
+            out.writeInt((payload == null) ? 0 : payload.remaining());
+            out.writeLong(start - startNanos);
+            
+            if (crc != null) {
+                crc.reset();
+                
+                if (payload != null) {
+                    if (payload.hasArray()) {
+                        crc.update(payload.array(),
+                                payload.arrayOffset() + payload.position(),
+                                payload.remaining());
+                    } else {
+                        final byte[] tmp = new byte[payload.remaining()];
+                        payload.get(tmp);
+                        crc.update(tmp);
+                    }
+                }
+                
+                out.writeInt((int) crc.getValue());
+            }
+        }
+    }
+    
+}
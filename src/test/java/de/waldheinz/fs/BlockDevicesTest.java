@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs;
+
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class BlockDevicesTest {
+    
+    @Test
+    public void testReadWrite() throws IOException {
+        System.out.println("read / write");
+        
+        final RamDisk rd = new RamDisk(8192);
+        final long[] offsets = { 4096, 0 };
+        
+        BlockDevices.write(rd, offsets, new ByteBuffer[] {
+            ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+            ByteBuffer.wrap(new byte[] { 4, 5 })
+        });
+        
+        final ByteBuffer[] read = {
+            ByteBuffer.allocate(3), ByteBuffer.allocate(2)
+        };
+        
+        BlockDevices.read(rd, offsets, read);
+        
+        assertArrayEquals(new byte[] { 1, 2, 3 }, read[0].array());
+        assertArrayEquals(new byte[] { 4, 5 }, read[1].array());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testLengthMismatch() throws IOException {
+        System.out.println("length mismatch");
+        
+        BlockDevices.read(new RamDisk(512), new long[2],
+                new ByteBuffer[] { ByteBuffer.allocate(1) });
+    }
+    
+}
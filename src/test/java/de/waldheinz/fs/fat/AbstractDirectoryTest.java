@@ -21,6 +21,8 @@ package de.waldheinz.fs.fat;
 import static org.junit.Assert.*;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import de.waldheinz.fs.util.RamDisk;
 
@@ -47,14 +49,15 @@ public class AbstractDirectoryTest {
         bs.write();
         Fat fat = Fat.create(bs, 0);
 
-        AbstractDirectory directory = new AbstractDirectory(FatType.FAT32, TEST_CAPACITY, false, true) {
+        AbstractDirectory directory = new AbstractDirectory(FatType.FAT32, TEST_CAPACITY, false, true,
+                dev.getSectorSize()) {
 
             @Override
-            protected void write(ByteBuffer data) throws IOException {
+            protected void write(long offset, ByteBuffer data) throws IOException {
             }
 
             @Override
-            protected void read(ByteBuffer data) throws IOException {
+            protected void read(long offset, ByteBuffer data) throws IOException {
             }
 
             @Override
@@ -80,4 +83,60 @@ public class AbstractDirectoryTest {
             fail("Should not throw an exception here");
         }
     }
+
+    @Test
+    public void testFlushWholeSectors() throws IOException {
+        System.out.println("testFlushWholeSectors");
+        
+        final List<long[]> writes = new ArrayList<long[]>();
+        
+        AbstractDirectory directory = new AbstractDirectory(
+                FatType.FAT32, 256, false, false, 4096) {
+            
+            @Override
+            protected void write(long offset, ByteBuffer data) {
+                writes.add(new long[] { offset, data.remaining() });
+            }
+            
+            @Override
+            protected void read(long offset, ByteBuffer data) {
+            }
+            
+            @Override
+            protected long getStorageCluster() {
+                return 0;
+            }
+            
+            @Override
+            protected void changeSize(int entryCount) {
+            }
+        };
+        
+        final FatDirectoryEntry[] entries = new FatDirectoryEntry[200];
+        
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = FatDirectoryEntry.create(FatType.FAT32, false);
+            entries[i].setShortName(ShortName.get("file" + i));
+            directory.addEntry(entries[i]);
+        }
+        
+        directory.flush();
+        writes.clear();
+        assertFalse(directory.isDirty());
+        
+        entries[150].setLastModified(System.currentTimeMillis());
+        assertTrue(directory.isDirty());
+        directory.flush();
+        
+        assertEquals(1, writes.size());
+        assertEquals(4096, writes.get(0)[0]);
+        assertEquals(4096, writes.get(0)[1]);
+        
+        directory.removeEntry(entries[150]);
+        entries[150].setLastModified(System.currentTimeMillis());
+        writes.clear();
+        directory.flush();
+        directory.flush();
+        assertEquals(1, writes.size());
+    }
 }
@@ -79,7 +79,7 @@ public class ClusterChainDirectoryTest {
     }
 
     @Test
-    public void testCreate() {
+    public void testCreate() throws IOException {
         System.out.println("create");
 
         assertFalse(bs.getRootDirFirstCluster() == 0);
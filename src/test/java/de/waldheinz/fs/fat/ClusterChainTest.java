@@ -18,7 +18,8 @@
 
 package de.waldheinz.fs.fat;
 
-
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.ReadOnlyException;
 import de.waldheinz.fs.util.RamDisk;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -172,4 +173,137 @@ public class ClusterChainTest {
 
         cc.setChainLength(-1);
     }
+    
+    @Test
+    public void testGrowContiguous() throws IOException {
+        System.out.println("growContiguous");
+        
+        cc.setChainLength(1);
+        
+        /* allocate something after the chain, so it can't simply grow */
+        final ClusterChain other = new ClusterChain(fat, false);
+        other.setChainLength(1);
+        
+        cc.setChainLength(100);
+        final long[] chain = fat.getChain(cc.getStartCluster());
+        
+        assertEquals(100, chain.length);
+        
+        for (int i=2; i < chain.length; i++) {
+            assertEquals(chain[i - 1] + 1, chain[i]);
+        }
+    }
+    
+    @Test
+    public void testCoalescedIo() throws IOException {
+        System.out.println("coalescedIo");
+        
+        final CountingDevice dev = new CountingDevice(new RamDisk(512 * 2048));
+        SuperFloppyFormatter.get(dev).format();
+        final BootSector b = BootSector.read(dev);
+        final Fat f = Fat.read(b, 0,
+                new FatMountOptions().setMaxTransferSize(4 * 512));
+        final ClusterChain chain = new ClusterChain(f, false);
+        final int size = 64 * chain.getClusterSize();
+        
+        chain.setSize(size);
+        
+        dev.ops = 0;
+        chain.writeData(0, ByteBuffer.allocate(size));
+        final int maxClusters = Math.max(1, 4 * 512 / chain.getClusterSize());
+        assertEquals((64 + maxClusters - 1) / maxClusters, dev.ops);
+        
+        /* reads which do not start at a cluster boundary */
+        dev.ops = 0;
+        final ByteBuffer read = ByteBuffer.allocate(size - 100);
+        chain.readData(10, read);
+        assertFalse(read.hasRemaining());
+        assertEquals((64 + maxClusters - 1) / maxClusters, dev.ops);
+    }
+    
+    @Test
+    public void testCoalescedIoData() throws IOException {
+        System.out.println("coalescedIoData");
+        
+        cc.setChainLength(3);
+        
+        /* fragment the chain */
+        final ClusterChain other = new ClusterChain(fat, false);
+        other.setChainLength(1);
+        cc.setChainLength(8);
+        
+        final int size = 8 * cc.getClusterSize();
+        final ByteBuffer write = ByteBuffer.allocate(size);
+        
+        for (int i=0; i < size; i++) {
+            write.put(i, (byte) (i * 31));
+        }
+        
+        cc.writeData(0, write);
+        
+        for (int ofs = 0; ofs < size; ofs += 333) {
+            final ByteBuffer read = ByteBuffer.allocate(size - ofs);
+            cc.readData(ofs, read);
+            
+            for (int i=0; i < read.capacity(); i++) {
+                assertEquals((byte) ((ofs + i) * 31), read.get(i));
+            }
+        }
+    }
+    
+    private final static class CountingDevice implements BlockDevice {
+        
+        private final BlockDevice dev;
+        private int ops;
+        
+        CountingDevice(BlockDevice dev) {
+            this.dev = dev;
+        }
+        
+        @Override
+        public long getSize() throws IOException {
+            return dev.getSize();
+        }
+
+        @Override
+        public void read(long devOffset, ByteBuffer dest) throws IOException {
+            ops++;
+            dev.read(devOffset, dest);
+        }
+
+        @Override
+        public void write(long devOffset, ByteBuffer src)
+                throws ReadOnlyException, IOException {
+            
+            ops++;
+            dev.write(devOffset, src);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            dev.flush();
+        }
+
+        @Override
+        public int getSectorSize() throws IOException {
+            return dev.getSectorSize();
+        }
+
+        @Override
+        public void close() throws IOException {
+            dev.close();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return dev.isClosed();
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return dev.isReadOnly();
+        }
+        
+    }
+    
 }
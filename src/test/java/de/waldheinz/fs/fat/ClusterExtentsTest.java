@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class ClusterExtentsTest {
+    
+    @Test
+    public void testAppend() {
+        System.out.println("append");
+        
+        final ClusterExtents ce = new ClusterExtents();
+        
+        for (int i=10; i < 20; i++) ce.append(i);
+        ce.append(5);
+        for (int i=30; i < 40; i++) ce.append(i);
+        
+        assertEquals(21, ce.getClusterCount());
+        assertEquals(3, ce.getExtentCount());
+        assertEquals(10, ce.getCluster(0));
+        assertEquals(19, ce.getCluster(9));
+        assertEquals(5, ce.getCluster(10));
+        assertEquals(30, ce.getCluster(11));
+        assertEquals(39, ce.getLastCluster());
+    }
+    
+    @Test
+    public void testManyExtents() {
+        System.out.println("manyExtents");
+        
+        final ClusterExtents ce = new ClusterExtents();
+        
+        for (int i=0; i < 1000; i++) {
+            ce.append(2 + 2 * i);
+        }
+        
+        assertEquals(1000, ce.getExtentCount());
+        
+        for (int i=0; i < 1000; i++) {
+            assertEquals(2 + 2 * i, ce.getCluster(i));
+        }
+    }
+    
+    @Test
+    public void testTruncate() {
+        System.out.println("truncate");
+        
+        final ClusterExtents ce = new ClusterExtents();
+        for (int i=10; i < 20; i++) ce.append(i);
+        for (int i=30; i < 40; i++) ce.append(i);
+        
+        ce.truncate(12);
+        assertEquals(12, ce.getClusterCount());
+        assertEquals(2, ce.getExtentCount());
+        assertEquals(31, ce.getLastCluster());
+        
+        ce.truncate(10);
+        assertEquals(1, ce.getExtentCount());
+        
+        ce.append(20);
+        assertEquals(1, ce.getExtentCount());
+        assertEquals(20, ce.getLastCluster());
+        
+        ce.truncate(0);
+        assertEquals(0, ce.getExtentCount());
+    }
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testGetClusterOutOfBounds() {
+        System.out.println("getCluster (out of bounds)");
+        
+        final ClusterExtents ce = new ClusterExtents();
+        ce.append(10);
+        ce.getCluster(1);
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        System.out.println("read");
+        
+        final RamDisk rd = new RamDisk(512 * 2048);
+        SuperFloppyFormatter.get(rd).format();
+        final Fat fat = Fat.read(BootSector.read(rd), 0);
+        
+        final long[] a = fat.allocNew(10);
+        fat.allocNew(1);
+        fat.allocAppend(a[0], 10);
+        
+        final ClusterExtents ce = ClusterExtents.read(fat, a[0]);
+        final long[] chain = fat.getChain(a[0]);
+        
+        assertEquals(chain.length, ce.getClusterCount());
+        assertEquals(2, ce.getExtentCount());
+        
+        for (int i=0; i < chain.length; i++) {
+            assertEquals(chain[i], ce.getCluster(i));
+        }
+    }
+    
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.FsDirectoryEntry;
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class DirectoryStreamTest {
+    
+    private final static int FILE_COUNT = 200;
+    
+    private BlockDevice dev;
+    private Set<String> names;
+    private FatFileSystem fs;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.dev = new RamDisk(2 * 1024 * 1024);
+        this.names = new HashSet<String>();
+        
+        final FatFileSystem created = SuperFloppyFormatter.get(dev).format();
+        final FatLfnDirectory sub =
+                created.getRoot().addDirectory("sub").getDirectory();
+        
+        for (int i=0; i < FILE_COUNT; i++) {
+            final String name = (i % 2 == 0) ?
+                    ("A Rather Long File Name Number " + i) : ("F" + i);
+            
+            sub.addFile(name);
+            names.add(name);
+        }
+        
+        sub.remove("F1");
+        names.remove("F1");
+        names.add(".");
+        names.add("..");
+        
+        created.close();
+    }
+    
+    private FatLfnDirectory openSub(boolean readOnly) throws IOException {
+        this.fs = FatFileSystem.read(dev, readOnly);
+        return fs.getRoot().getEntry("sub").getDirectory();
+    }
+    
+    @Test
+    public void testIterate() throws IOException {
+        System.out.println("iterate");
+        
+        final FatLfnDirectory sub = openSub(true);
+        assertFalse(sub.isIndexed());
+        
+        final Set<String> found = new HashSet<String>();
+        final Iterator<FsDirectoryEntry> it = sub.iterator();
+        
+        assertTrue(it instanceof DirectoryStream);
+        
+        while (it.hasNext()) {
+            assertTrue(found.add(it.next().getName()));
+        }
+        
+        assertEquals(names, found);
+        assertFalse(sub.isIndexed());
+        assertFalse(sub.dir.isLoaded());
+    }
+    
+    @Test
+    public void testLookup() throws IOException {
+        System.out.println("lookup");
+        
+        final FatLfnDirectory sub = openSub(true);
+        
+        assertNotNull(sub.getEntry("a rather long file name number 100"));
+        assertNotNull(sub.getEntry("a rather long file name number 102"));
+        assertTrue(sub.isIndexed());
+        assertNull(sub.getEntry("F1"));
+        assertNotNull(sub.getEntry("f3"));
+    }
+    
+    @Test
+    public void testSingleLookup() throws IOException {
+        System.out.println("singleLookup");
+        
+        final FatLfnDirectory sub = openSub(true);
+        
+        assertNotNull(sub.getEntry("F199"));
+        assertFalse(sub.isIndexed());
+    }
+    
+    @Test
+    public void testSingleLookupPrefersLongName() throws IOException {
+        System.out.println("singleLookupPrefersLongName");
+        
+        FatLfnDirectory sub = openSub(false);
+        final ShortName alias = sub.addFile(
+                "foobar long name.txt").realEntry.getShortName();
+        assertEquals(ShortName.get("foobar~1.txt"), alias);
+        sub.addFile("goobar~1.txt");
+        fs.close();
+        
+        /*
+         * the API won't create a long name equal to another entry's alias,
+         * so rename "goobar~1.txt" to "foobar~1.txt" on the device; the
+         * LFN checksum covers only the short name
+         */
+        
+        final ByteBuffer disk = ByteBuffer.allocate((int) dev.getSize());
+        dev.read(0, disk);
+        final byte[] data = disk.array();
+        final byte[] pattern = "goob".getBytes("UTF-16LE");
+        int pos = -1;
+        
+        for (int i=0; pos < 0 && i < data.length - pattern.length; i++) {
+            if (Arrays.equals(pattern,
+                    Arrays.copyOfRange(data, i, i + pattern.length))) {
+                
+                pos = i;
+            }
+        }
+        
+        assertTrue(pos >= 0);
+        data[pos] = 'f';
+        disk.clear();
+        dev.write(0, disk);
+        
+        sub = openSub(true);
+        assertEquals("foobar~1.txt", sub.getEntry("foobar~1.txt").getName());
+        assertFalse(sub.isIndexed());
+    }
+    
+    @Test
+    public void testReadFileWithoutIndex() throws IOException {
+        System.out.println("readFileWithoutIndex");
+        
+        final FatLfnDirectory sub = openSub(true);
+        final Iterator<FsDirectoryEntry> it = sub.iterator();
+        
+        while (it.hasNext()) {
+            final FsDirectoryEntry e = it.next();
+            
+            if (e.isFile()) {
+                assertEquals(0, e.getFile().getLength());
+            }
+        }
+        
+        assertFalse(sub.isIndexed());
+    }
+    
+    @Test
+    public void testModifyStreamedEntry() throws IOException {
+        System.out.println("modifyStreamedEntry");
+        
+        FatLfnDirectory sub = openSub(false);
+        FatLfnDirectoryEntry renamed = null;
+        
+        for (FsDirectoryEntry e : sub) {
+            final FatLfnDirectoryEntry fe = (FatLfnDirectoryEntry) e;
+            
+            if (fe.getName().equals("F3")) {
+                fe.setHiddenFlag(true);
+                assertTrue(sub.isIndexed());
+            } else if (fe.getName().equals("A Rather Long File Name Number 8")) {
+                renamed = fe;
+            }
+        }
+        
+        assertNotNull(renamed);
+        renamed.setName("renamed");
+        renamed.getFile().setLength(1000);
+        
+        fs.close();
+        
+        sub = openSub(true);
+        assertTrue(sub.getEntry("F3").isHiddenFlag());
+        assertNull(sub.getEntry("A Rather Long File Name Number 8"));
+        assertEquals(1000, sub.getEntry("renamed").getFile().getLength());
+    }
+    
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class DosTimeCodecTest {
+    
+    private final static String[] ZONES = {
+        "UTC", "Europe/Berlin", "America/New_York",
+        "Australia/Lord_Howe", "Asia/Kolkata"
+    };
+    
+    private static long decode(TimeZone tz, int dosDate, int dosTime) {
+        final Calendar cal = new GregorianCalendar(tz);
+        
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.set(Calendar.SECOND, (dosTime & 0x1f) * 2);
+        cal.set(Calendar.MINUTE, (dosTime >> 5) & 0x3f);
+        cal.set(Calendar.HOUR_OF_DAY, dosTime >> 11);
+        cal.set(Calendar.DATE, dosDate & 0x1f);
+        cal.set(Calendar.MONTH, ((dosDate >> 5) & 0x0f) - 1);
+        cal.set(Calendar.YEAR, 1980 + (dosDate >> 9));
+        
+        return cal.getTimeInMillis();
+    }
+    
+    @Test
+    public void testDecodeMatchesCalendar() {
+        System.out.println("decodeMatchesCalendar");
+        
+        final Random rnd = new Random(4711);
+        
+        for (String id : ZONES) {
+            final TimeZone tz = TimeZone.getTimeZone(id);
+            final DosTimeCodec codec = new DosTimeCodec(tz);
+            
+            for (int i=0; i < 100000; i++) {
+                final int date = rnd.nextInt(0x10000);
+                final int time = rnd.nextInt(0x10000);
+                
+                assertEquals(id + " " + date + " " + time,
+                        decode(tz, date, time),
+                        codec.decodeDateTime(date, time));
+            }
+        }
+    }
+    
+    @Test
+    public void testEncodeMatchesCalendar() {
+        System.out.println("encodeMatchesCalendar");
+        
+        final Random rnd = new Random(4711);
+        final long min = decode(TimeZone.getTimeZone("UTC"), 0x21, 0);
+        
+        for (String id : ZONES) {
+            final TimeZone tz = TimeZone.getTimeZone(id);
+            final DosTimeCodec codec = new DosTimeCodec(tz);
+            final Calendar cal = new GregorianCalendar(tz);
+            
+            for (int i=0; i < 100000; i++) {
+                final long t = min + (long) (rnd.nextDouble() *
+                        127 * 365 * 24 * 3600 * 1000L);
+                
+                cal.setTimeInMillis(t);
+                
+                assertEquals(2048 * cal.get(Calendar.HOUR_OF_DAY) +
+                        32 * cal.get(Calendar.MINUTE) +
+                        cal.get(Calendar.SECOND) / 2,
+                        codec.encodeTime(t));
+                
+                assertEquals(512 * (cal.get(Calendar.YEAR) - 1980) +
+                        32 * (cal.get(Calendar.MONTH) + 1) +
+                        cal.get(Calendar.DATE),
+                        codec.encodeDate(t));
+            }
+        }
+    }
+    
+    @Test
+    public void testRoundTripAroundDstChange() {
+        System.out.println("roundTripAroundDstChange");
+        
+        final TimeZone tz = TimeZone.getTimeZone("Europe/Berlin");
+        final DosTimeCodec codec = new DosTimeCodec(tz);
+        final long start = decode(tz, ((2013 - 1980) << 9) | (3 << 5) | 30, 0);
+        
+        for (long t = start; t < start + 2 * 24 * 3600 * 1000L;
+                t += 60 * 1000L) {
+            
+            final int date = codec.encodeDate(t);
+            final int time = codec.encodeTime(t);
+            
+            assertEquals(decode(tz, date, time),
+                    codec.decodeDateTime(date, time));
+        }
+    }
+    
+    @Test
+    public void testNoAllocation() {
+        System.out.println("noAllocation");
+        
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        
+        Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        
+        final com.sun.management.ThreadMXBean tmx =
+                (com.sun.management.ThreadMXBean) mx;
+        
+        Assume.assumeTrue(tmx.isThreadAllocatedMemorySupported() &&
+                tmx.isThreadAllocatedMemoryEnabled());
+        
+        final DosTimeCodec codec =
+                new DosTimeCodec(TimeZone.getTimeZone("Europe/Berlin"));
+        final long now = System.currentTimeMillis();
+        final int calls = 1000000;
+        final long tid = Thread.currentThread().getId();
+        long sum = 0;
+        
+        for (int i=0; i < calls; i++) { /* warm up */
+            sum += codec.encodeDate(now) + codec.encodeTime(now + i) +
+                    codec.decodeDateTime(codec.encodeDate(now), i & 0xbfff);
+        }
+        
+        final long before = tmx.getThreadAllocatedBytes(tid);
+        final long started = System.nanoTime();
+        
+        for (int i=0; i < calls; i++) {
+            sum += codec.encodeDate(now) + codec.encodeTime(now + i) +
+                    codec.decodeDateTime(codec.encodeDate(now), i & 0xbfff);
+        }
+        
+        final long nanos = System.nanoTime() - started;
+        final long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+        
+        System.out.println(calls * 4 + " calls in " + nanos / 1000000 +
+                " ms, " + allocated + " bytes allocated (" + sum + ")");
+        
+        assertTrue(allocated < 1024);
+    }
+    
+    @Test
+    public void testDefaultZoneChange() {
+        System.out.println("defaultZoneChange");
+        
+        final TimeZone orig = TimeZone.getDefault();
+        final long noonUtc = decode(TimeZone.getTimeZone("UTC"),
+                (30 << 9) | (6 << 5) | 15, 12 << 11);
+        
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            DosTimeCodec.checkDefaultZone();
+            assertEquals(12,
+                    DosTimeCodec.getDefault().encodeTime(noonUtc) >> 11);
+            
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+            DosTimeCodec.checkDefaultZone();
+            assertEquals(17,
+                    DosTimeCodec.getDefault().encodeTime(noonUtc) >> 11);
+        } finally {
+            TimeZone.setDefault(orig);
+            DosTimeCodec.checkDefaultZone();
+        }
+    }
+    
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.util.InstrumentedBlockDevice;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class FatFileBufferTest {
+    
+    private final static int SIZE = 100000;
+    
+    private InstrumentedBlockDevice dev;
+    private FatFileSystem fs;
+    private FatFile file;
+    private byte[] data;
+    
+    @Before
+    public void setUp() throws IOException {
+        final RamDisk rd = new RamDisk(4 * 1024 * 1024);
+        SuperFloppyFormatter.get(rd).format().close();
+        
+        this.dev = new InstrumentedBlockDevice(rd);
+        this.fs = FatFileSystem.read(dev, false);
+        this.file = fs.getRoot().addFile("file.bin").getFile();
+        this.data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+    }
+    
+    @Test
+    public void testStreams() throws IOException {
+        System.out.println("streams");
+        
+        final OutputStream os = file.newOutputStream(false);
+        
+        for (int i=0; i < SIZE / 2; i++) {
+            os.write(data[i]);
+        }
+        
+        os.write(data, SIZE / 2, SIZE - SIZE / 2);
+        os.close();
+        
+        assertEquals(SIZE, file.getLength());
+        
+        final InputStream is = file.newInputStream();
+        final byte[] read = new byte[SIZE];
+        
+        for (int i=0; i < 1000; i++) {
+            read[i] = (byte) is.read();
+        }
+        
+        int pos = 1000;
+        
+        while (pos < SIZE) {
+            final int count = is.read(read, pos, Math.min(777, SIZE - pos));
+            assertTrue(count > 0);
+            pos += count;
+        }
+        
+        assertEquals(-1, is.read());
+        assertEquals(-1, is.read(read, 0, 1));
+        assertArrayEquals(data, read);
+    }
+    
+    @Test
+    public void testAppend() throws IOException {
+        System.out.println("append");
+        
+        OutputStream os = file.newOutputStream(false);
+        os.write(data, 0, 1000);
+        os.close();
+        
+        os = file.newOutputStream(true);
+        os.write(data, 1000, 1000);
+        os.close();
+        assertEquals(2000, file.getLength());
+        
+        os = file.newOutputStream(false);
+        os.write(data, 0, 10);
+        os.close();
+        assertEquals(10, file.getLength());
+        
+        final InputStream is = file.newInputStream();
+        assertEquals(5, is.skip(5));
+        assertEquals(5, is.available());
+        assertEquals(data[5] & 0xff, is.read());
+    }
+    
+    @Test
+    public void testSmallWritesCoalesced() throws IOException {
+        System.out.println("smallWritesCoalesced");
+        
+        final int clusterSize = fs.getBootSector().getBytesPerCluster();
+        dev.reset();
+        
+        final OutputStream os = file.newOutputStream(false);
+        
+        for (int i=0; i < SIZE; i++) {
+            os.write(data[i]);
+        }
+        
+        os.close();
+        
+        final long writes = dev.getStatistics(
+                IoOrigin.FILE_DATA, Operation.WRITE).getCount();
+        
+        assertTrue(writes > 0);
+        assertTrue("" + writes, writes <= SIZE / clusterSize + 1);
+        assertEquals(0, dev.getStatistics(
+                IoOrigin.FILE_DATA, Operation.READ).getCount());
+    }
+    
+    @Test
+    public void testSequentialReadAhead() throws IOException {
+        System.out.println("sequentialReadAhead");
+        
+        file.write(0, ByteBuffer.wrap(data));
+        fs.flush();
+        
+        final int clusterSize = fs.getBootSector().getBytesPerCluster();
+        dev.reset();
+        
+        final InputStream is = file.newInputStream();
+        
+        for (int i=0; i < SIZE; i++) {
+            assertEquals(data[i] & 0xff, is.read());
+        }
+        
+        final long reads = dev.getStatistics(
+                IoOrigin.FILE_DATA, Operation.READ).getCount();
+        
+        assertTrue("" + reads, reads <= SIZE / clusterSize + 1);
+    }
+    
+    @Test
+    public void testChannel() throws IOException {
+        System.out.println("channel");
+        
+        final Random rnd = new Random(23);
+        final byte[] model = new byte[SIZE];
+        int length = 0;
+        
+        final FatFileChannel ch = file.newByteChannel();
+        
+        for (int i=0; i < 500; i++) {
+            final int pos = rnd.nextInt(SIZE - 2000);
+            final int len = rnd.nextInt(2000) + 1;
+            
+            if (rnd.nextBoolean()) {
+                ch.position(pos).write(ByteBuffer.wrap(data, pos, len));
+                System.arraycopy(data, pos, model, pos, len);
+                length = Math.max(length, pos + len);
+            } else {
+                final ByteBuffer buf = ByteBuffer.allocate(len);
+                final int count = ch.position(pos).read(buf);
+                
+                if (pos >= length) {
+                    assertEquals(-1, count);
+                } else {
+                    assertEquals(Math.min(len, length - pos), count);
+                    assertTrue(Arrays.equals(
+                            Arrays.copyOfRange(model, pos, pos + count),
+                            Arrays.copyOf(buf.array(), count)));
+                }
+            }
+            
+            assertEquals(length, ch.size());
+        }
+        
+        ch.truncate(length / 2);
+        assertEquals(length / 2, ch.size());
+        ch.close();
+        assertFalse(ch.isOpen());
+        
+        final ByteBuffer all = ByteBuffer.allocate(length / 2);
+        file.read(0, all);
+        assertArrayEquals(Arrays.copyOf(model, length / 2), all.array());
+    }
+    
+    @Test(expected=NonWritableChannelException.class)
+    public void testReadOnlyChannel() throws IOException {
+        System.out.println("readOnlyChannel");
+        
+        fs.close();
+        
+        final FatFileSystem ro = FatFileSystem.read(dev, true);
+        final FatFileChannel ch = ro.getRoot().getEntry(
+                "file.bin").getFile().newByteChannel();
+        
+        ch.write(ByteBuffer.allocate(1));
+    }
+    
+}
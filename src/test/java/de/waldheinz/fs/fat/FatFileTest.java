@@ -18,6 +18,9 @@
 
 package de.waldheinz.fs.fat;
 
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.util.InstrumentedBlockDevice;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
 import de.waldheinz.fs.util.RamDisk;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,7 +49,8 @@ public class FatFileTest {
 
         this.entry = (FatLfnDirectoryEntry) fatFs.getRoot().getEntry("Readme.txt");
         this.fat = fatFs.getFat();
-        this.ff = FatFile.get(fat, entry.realEntry);
+        this.ff = FatFile.get(fat, entry.realEntry, fatFs.getRoot(),
+                new MountContext(new FatMountOptions()));
     }
     
     @Test
@@ -116,4 +120,102 @@ public class FatFileTest {
                 ff.getChain().getChainLength());
     }
     
+    @Test
+    public void testReadNoAccessTimeUpdate() throws Exception {
+        System.out.println("read (no access time update)");
+        
+        final long yesterday = System.currentTimeMillis() - 24 * 3600 * 1000;
+        final long recorded = DosUtils.decodeDateTime(
+                DosUtils.encodeDate(yesterday), 0);
+        
+        assertEquals(recorded,
+                readOldFile(AccessTimePolicy.NEVER, yesterday, 0));
+        assertTrue(readOldFile(
+                AccessTimePolicy.LAZY, yesterday, 0) > recorded);
+        assertTrue(readOldFile(
+                AccessTimePolicy.DAILY, yesterday, 1) > recorded);
+    }
+    
+    @Test
+    public void testAccessTimeWrites() throws Exception {
+        System.out.println("access time writes");
+        
+        final long yesterday = System.currentTimeMillis() - 24 * 3600 * 1000;
+        
+        readOldFile(AccessTimePolicy.NEVER, yesterday, 0);
+        readOldFile(AccessTimePolicy.LAZY, yesterday, 0);
+        readOldFile(AccessTimePolicy.DAILY, yesterday, 1);
+        readOldFile(AccessTimePolicy.DAILY, System.currentTimeMillis(), 0);
+    }
+    
+    @Test
+    public void testLazyAccessTimeWritten() throws Exception {
+        System.out.println("lazy access time written");
+        
+        final long yesterday = System.currentTimeMillis() - 24 * 3600 * 1000;
+        final RamDisk rd = new RamDisk(1024 * 1024);
+        final FatFileSystem fs = SuperFloppyFormatter.get(rd).format();
+        final FatLfnDirectoryEntry e = fs.getRoot().addFile("file.txt");
+        e.getFile().write(0, ByteBuffer.allocate(100));
+        e.realEntry.setLastAccessed(yesterday);
+        
+        for (int i=0; i < 40; i++) {
+            fs.getRoot().addFile("other " + i);
+        }
+        
+        fs.close();
+        
+        final long recorded = DosUtils.decodeDateTime(
+                DosUtils.encodeDate(yesterday), 0);
+        FatFileSystem rw = FatFileSystem.read(rd, false,
+                new FatMountOptions().setAccessTimePolicy(
+                        AccessTimePolicy.LAZY));
+        rw.getRoot().getEntry("file.txt").getFile().read(
+                0, ByteBuffer.allocate(100));
+        
+        /* lands in another sector than the touched entry */
+        rw.getRoot().addFile("late");
+        rw.close();
+        
+        rw = FatFileSystem.read(rd, true);
+        assertTrue(rw.getRoot().getEntry(
+                "file.txt").getLastAccessed() > recorded);
+    }
+    
+    /**
+     * Creates a file last accessed at the specified time, reads it a few
+     * times with the specified policy and checks the number of directory
+     * writes.
+     *
+     * @return the "last accessed" time after reading
+     */
+    private long readOldFile(AccessTimePolicy policy, long accessed,
+            int expectedWrites) throws IOException {
+        
+        final RamDisk rd = new RamDisk(1024 * 1024);
+        final FatFileSystem fs = SuperFloppyFormatter.get(rd).format();
+        final FatLfnDirectoryEntry e = fs.getRoot().addFile("file.txt");
+        e.getFile().write(0, ByteBuffer.allocate(1000));
+        e.realEntry.setLastAccessed(accessed);
+        fs.close();
+        
+        final InstrumentedBlockDevice dev = new InstrumentedBlockDevice(rd);
+        final FatFileSystem rw = FatFileSystem.read(dev, false,
+                new FatMountOptions().setAccessTimePolicy(policy));
+        final FatLfnDirectoryEntry re = rw.getRoot().getEntry("file.txt");
+        dev.reset();
+        
+        for (int i=0; i < 10; i++) {
+            re.getFile().read(i * 100, ByteBuffer.allocate(100));
+        }
+        
+        final long result = re.getLastAccessed();
+        rw.close();
+        
+        assertEquals(policy.toString(), expectedWrites, dev.getStatistics(
+                IoOrigin.DIRECTORY, Operation.WRITE).getCount());
+        
+        return result;
+    }
+    
 }
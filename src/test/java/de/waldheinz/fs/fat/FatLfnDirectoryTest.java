@@ -35,6 +35,9 @@ import de.waldheinz.fs.BlockDevice;
 import de.waldheinz.fs.FsDirectory;
 import de.waldheinz.fs.FsDirectoryEntry;
 import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.util.InstrumentedBlockDevice;
+import de.waldheinz.fs.util.IoStatistics;
 import de.waldheinz.fs.util.RamDisk;
 
 /**
@@ -509,4 +512,103 @@ public class FatLfnDirectoryTest {
         root.addDirectory("bundle.jar-embedded");
         assertFalse ("Shortname bundle~2.jar shouldn't be available", root.isFreeName("bundle~2.jar"));
     }
+
+    @Test
+    public void testReuseSlots() throws IOException {
+        System.out.println("reuseSlots");
+        
+        dir.addFile("the first file with a long name");
+        dir.addFile("the second file with a long name");
+        dir.addFile("the third file with a long name");
+        dir.flush();
+        
+        final int slots = rootDirStore.getSlotCount();
+        
+        dir.remove("the second file with a long name");
+        assertEquals(slots, rootDirStore.getSlotCount());
+        dir.addFile("a replacement with a long name");
+        assertEquals(slots, rootDirStore.getSlotCount());
+        dir.flush();
+        
+        final FatLfnDirectory read = new FatLfnDirectory(
+                Fat16RootDirectory.read((Fat16BootSector) bs, false),
+                fat, false);
+        
+        assertNotNull(read.getEntry("the first file with a long name"));
+        assertNull(read.getEntry("the second file with a long name"));
+        assertNotNull(read.getEntry("the third file with a long name"));
+        assertNotNull(read.getEntry("a replacement with a long name"));
+    }
+    
+    @Test
+    public void testIncrementalFlush() throws IOException {
+        System.out.println("incrementalFlush");
+        
+        final InstrumentedBlockDevice idev = new InstrumentedBlockDevice(dev);
+        final FatFileSystem fs = FatFileSystem.read(idev, false);
+        final FatLfnDirectory root = fs.getRoot();
+        
+        for (int i=0; i < 100; i++) {
+            root.addFile("file number " + i);
+        }
+        
+        fs.flush();
+        idev.reset();
+        
+        root.addFile("one more file");
+        root.remove("file number 50");
+        fs.flush();
+        
+        final IoStatistics writes = idev.getStatistics(
+                IoOrigin.DIRECTORY, InstrumentedBlockDevice.Operation.WRITE);
+        
+        assertTrue(writes.getBytes() > 0);
+        assertTrue(writes.getBytes() <= 3 * 512);
+        
+        final FatFileSystem read = FatFileSystem.read(dev, true);
+        assertNotNull(read.getRoot().getEntry("one more file"));
+        assertNotNull(read.getRoot().getEntry("file number 99"));
+        assertNull(read.getRoot().getEntry("file number 50"));
+    }
+    
+    @Test
+    public void testFlushSkipsCleanDirectories() throws IOException {
+        System.out.println("flushSkipsCleanDirectories");
+        
+        final InstrumentedBlockDevice idev = new InstrumentedBlockDevice(dev);
+        final FatFileSystem fs = FatFileSystem.read(idev, false);
+        final FatLfnDirectory root = fs.getRoot();
+        final FatLfnDirectory[] dirs = new FatLfnDirectory[10];
+        
+        for (int i=0; i < dirs.length; i++) {
+            dirs[i] = root.addDirectory("dir " + i).getDirectory();
+            dirs[i].addDirectory("sub").getDirectory().addFile("file");
+        }
+        
+        fs.flush();
+        assertFalse(root.isDirty());
+        
+        final FatLfnDirectory sub = dirs[3].getEntry("sub").getDirectory();
+        sub.getEntry("file").getFile().write(0, ByteBuffer.allocate(10));
+        
+        assertTrue(root.isDirty());
+        assertTrue(dirs[3].isDirty());
+        assertTrue(sub.isDirty());
+        assertFalse(dirs[4].isDirty());
+        
+        idev.reset();
+        fs.flush();
+        
+        final IoStatistics writes = idev.getStatistics(
+                IoOrigin.DIRECTORY, InstrumentedBlockDevice.Operation.WRITE);
+        
+        assertEquals(1, writes.getCount());
+        assertEquals(512, writes.getBytes());
+        assertFalse(root.isDirty());
+        assertFalse(sub.isDirty());
+        
+        final FatFileSystem read = FatFileSystem.read(dev, true);
+        assertEquals(10, read.resolve("dir 3/sub/file").getFile().getLength());
+    }
+    
 }
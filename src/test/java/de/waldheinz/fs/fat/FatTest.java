@@ -21,6 +21,7 @@ package de.waldheinz.fs.fat;
 import de.waldheinz.fs.BlockDevice;
 import de.waldheinz.fs.util.RamDisk;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -58,7 +59,7 @@ public class FatTest {
     }
     
     @Test
-    public void testCreate() {
+    public void testCreate() throws IOException {
         System.out.println("create");
         
         assertEquals(bs.getDataClusterCount(), fat.getFreeClusterCount());
@@ -100,7 +101,7 @@ public class FatTest {
     }
     
     @Test
-    public void testGetMediumDescriptor() {
+    public void testGetMediumDescriptor() throws IOException {
         System.out.println("getMediumDescriptor");
 
         assertEquals(bs.getMediumDescriptor(), fat.getMediumDescriptor());
@@ -136,4 +137,169 @@ public class FatTest {
         }
     }
     
+    @Test
+    public void testFlushWritesAllCopies() throws IOException {
+        System.out.println("flush (all copies)");
+        
+        /* make sure to cross a sector boundary, even for FAT12 */
+        final int count = (bs.getBytesPerSector() * 2) / 3 + 10;
+        fat.allocNew(count);
+        fat.flush();
+        
+        assertEquals(fat, Fat.read(bs, 0));
+        assertEquals(fat, Fat.read(bs, 1));
+    }
+    
+    @Test
+    public void testFlushOnlyDirtySectors() throws IOException {
+        System.out.println("flush (only dirty sectors)");
+        
+        fat.flush();
+        
+        /* scribble over the last sector of both FAT copies */
+        final int sectorSize = bs.getBytesPerSector();
+        final long lastSector = bs.getFatOffset(1) - sectorSize;
+        final ByteBuffer marker = ByteBuffer.allocate(sectorSize);
+        
+        for (int i=0; i < sectorSize; i++) {
+            marker.put(i, (byte) 0x42);
+        }
+        
+        dev.write(lastSector, marker);
+        
+        fat.allocNew();
+        fat.flush();
+        
+        final ByteBuffer read = ByteBuffer.allocate(sectorSize);
+        dev.read(lastSector, read);
+        marker.rewind();
+        read.rewind();
+        
+        assertEquals(marker, read);
+        assertFalse(Fat.read(bs, 1).isFreeCluster(Fat.FIRST_CLUSTER));
+    }
+    
+    @Test
+    public void testAdjacentEntries() throws IOException {
+        System.out.println("adjacent entries");
+        
+        /* FAT12 entries share a byte, make sure they don't clobber */
+        for (int i=Fat.FIRST_CLUSTER; i < 100; i++) {
+            fat.setEof(i);
+        }
+        
+        for (int i=Fat.FIRST_CLUSTER; i < 100; i += 2) {
+            fat.setFree(i);
+        }
+        
+        fat.flush();
+        final Fat read = Fat.read(bs, 0);
+        
+        for (int i=Fat.FIRST_CLUSTER; i < 100; i++) {
+            final long expected = (i % 2 == 0) ? 0 :
+                bs.getFatType().getEofMarker();
+            
+            assertEquals(expected, fat.getEntry(i));
+            assertEquals(expected, read.getEntry(i));
+        }
+    }
+    
+    @Test
+    public void testAllocNewNearlyFull() throws IOException {
+        System.out.println("allocNew (nearly full)");
+        
+        final int total = fat.getFreeClusterCount();
+        fat.allocNew(total - 1);
+        assertEquals(1, fat.getFreeClusterCount());
+        
+        final long last = fat.allocNew();
+        assertEquals(0, fat.getFreeClusterCount());
+        assertFalse(fat.isFreeCluster(last));
+        
+        fat.setFree(Fat.FIRST_CLUSTER + 5);
+        assertEquals(1, fat.getFreeClusterCount());
+        assertEquals(Fat.FIRST_CLUSTER + 5, fat.allocNew());
+    }
+    
+    @Test
+    public void testAllocNewLinksChain() throws IOException {
+        System.out.println("allocNew (links chain)");
+        
+        final long[] chain = fat.allocNew(50);
+        assertArrayEquals(chain, fat.getChain(chain[0]));
+        
+        for (int i=1; i < chain.length; i++) {
+            assertEquals(chain[i - 1] + 1, chain[i]);
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void testAllocNewTooMany() throws IOException {
+        System.out.println("allocNew (too many)");
+        
+        fat.allocNew(fat.getFreeClusterCount() + 1);
+    }
+    
+    @Test
+    public void testAllocFirstFit() throws IOException {
+        System.out.println("allocNew (first fit)");
+        
+        final Fat f = readFragmented(AllocationStrategy.FIRST_FIT);
+        assertEquals(10, f.allocNew(3)[0]);
+    }
+    
+    @Test
+    public void testAllocBestFit() throws IOException {
+        System.out.println("allocNew (best fit)");
+        
+        final Fat f = readFragmented(AllocationStrategy.BEST_FIT);
+        assertEquals(30, f.allocNew(3)[0]);
+        assertEquals(10, f.allocNew(4)[0]);
+    }
+    
+    @Test
+    public void testAllocNextFit() throws IOException {
+        System.out.println("allocNew (next fit)");
+        
+        final Fat f = readFragmented(AllocationStrategy.NEXT_FIT);
+        assertEquals(50, f.allocNew(6)[0]);
+        assertEquals(56, f.allocNew(3)[0]);
+    }
+    
+    @Test
+    public void testAllocFragmented() throws IOException {
+        System.out.println("allocNew (fragmented)");
+        
+        final Fat f = readFragmented(AllocationStrategy.FIRST_FIT);
+        final int free = f.getFreeClusterCount();
+        
+        /* no run is large enough, so the largest runs are used first */
+        final long[] chain = f.allocNew(free);
+        assertArrayEquals(chain, f.getChain(chain[0]));
+        assertEquals(102, chain[0]);
+        assertEquals(50, chain[free - 18]);
+        assertEquals(10, chain[free - 8]);
+        assertEquals(30, chain[free - 3]);
+        assertEquals(0, f.getFreeClusterCount());
+    }
+    
+    /**
+     * Uses clusters 2 .. 101 except for the free runs [10, 15), [30, 33)
+     * and [50, 60), writes the FAT and reads it back.
+     */
+    private Fat readFragmented(AllocationStrategy strategy)
+            throws IOException {
+        
+        fat.allocNew(100);
+        
+        for (int i=10; i < 15; i++) fat.setFree(i);
+        for (int i=30; i < 33; i++) fat.setFree(i);
+        for (int i=50; i < 60; i++) fat.setFree(i);
+        
+        fat.write();
+        
+        return Fat.read(bs, 0,
+                new FatMountOptions().setAllocationStrategy(strategy));
+    }
+    
 }
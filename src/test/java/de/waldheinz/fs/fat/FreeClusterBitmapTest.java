@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class FreeClusterBitmapTest {
+
+    private FreeClusterBitmap map;
+    
+    @Before
+    public void setUp() {
+        this.map = new FreeClusterBitmap(2, 200);
+    }
+    
+    @Test
+    public void testInitiallyUsed() {
+        System.out.println("initiallyUsed");
+        
+        assertEquals(0, map.getFreeCount());
+        assertEquals(-1, map.nextFree(0));
+        assertEquals(2, map.nextUsed(0));
+    }
+    
+    @Test
+    public void testSetFree() {
+        System.out.println("setFree");
+        
+        map.setFree(10, true);
+        map.setFree(10, true);
+        map.setFree(199, true);
+        assertEquals(2, map.getFreeCount());
+        assertTrue(map.isFree(10));
+        
+        map.setFree(10, false);
+        map.setFree(10, false);
+        assertEquals(1, map.getFreeCount());
+        assertFalse(map.isFree(10));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testSetFreeOutOfRange() {
+        System.out.println("setFree (out of range)");
+        
+        map.setFree(200, true);
+    }
+    
+    @Test
+    public void testNextFree() {
+        System.out.println("nextFree");
+        
+        map.setFree(63, true);
+        map.setFree(64, true);
+        map.setFree(150, true);
+        
+        assertEquals(63, map.nextFree(0));
+        assertEquals(63, map.nextFree(63));
+        assertEquals(64, map.nextFree(64));
+        assertEquals(150, map.nextFree(65));
+        assertEquals(-1, map.nextFree(151));
+        assertEquals(-1, map.nextFree(500));
+    }
+    
+    @Test
+    public void testNextUsed() {
+        System.out.println("nextUsed");
+        
+        for (int i=60; i < 130; i++) {
+            map.setFree(i, true);
+        }
+        
+        for (int i=180; i < 200; i++) {
+            map.setFree(i, true);
+        }
+        
+        assertEquals(2, map.nextUsed(2));
+        assertEquals(130, map.nextUsed(60));
+        assertEquals(130, map.nextUsed(100));
+        assertEquals(200, map.nextUsed(180));
+        assertEquals(200, map.nextUsed(250));
+    }
+    
+}
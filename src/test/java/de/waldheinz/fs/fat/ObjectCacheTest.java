@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class ObjectCacheTest {
+    
+    private BlockDevice dev;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.dev = new RamDisk(1024 * 1024);
+        SuperFloppyFormatter.get(dev).format().close();
+    }
+    
+    private FatFileSystem mount(int cacheSize) throws IOException {
+        return FatFileSystem.read(dev, false,
+                new FatMountOptions().setObjectCacheSize(cacheSize));
+    }
+    
+    private static boolean collect(WeakReference<?> ref) {
+        for (int i=0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+        
+        return ref.get() == null;
+    }
+    
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        System.out.println("evictLeastRecentlyUsed");
+        
+        final ObjectCache c = new ObjectCache(2);
+        final Object a = new Object();
+        final Object b = new Object();
+        
+        c.touch(a);
+        c.touch(b);
+        c.touch(a);
+        c.touch(new Object());
+        assertEquals(2, c.getSize());
+        
+        c.touch(a);
+        assertEquals(2, c.getSize());
+    }
+    
+    @Test
+    public void testZeroSize() {
+        System.out.println("zeroSize");
+        
+        final ObjectCache c = new ObjectCache(0);
+        c.touch(new Object());
+        assertEquals(0, c.getSize());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeSize() {
+        System.out.println("negativeSize");
+        
+        new ObjectCache(-1);
+    }
+    
+    @Test
+    public void testPinUntilFlushed() throws IOException {
+        System.out.println("pinUntilFlushed");
+        
+        final ObjectCache c = new ObjectCache(0);
+        final FatFileSystem fs = mount(0);
+        final FatLfnDirectory root = new FatLfnDirectory(
+                fs.getRoot().dir, fs.getFat(), false, null,
+                new MountContext(new FatMountOptions(), c));
+        
+        assertEquals(0, c.getPinnedCount());
+        root.addFile("a file");
+        assertEquals(1, c.getPinnedCount());
+        root.flush();
+        assertEquals(0, c.getPinnedCount());
+    }
+    
+    @Test
+    public void testDirtyDirectoryKept() throws IOException {
+        System.out.println("dirtyDirectoryKept");
+        
+        FatFileSystem fs = mount(0);
+        fs.getRoot().addDirectory("sub");
+        fs.close();
+        
+        fs = mount(0);
+        FatLfnDirectory sub = fs.getRoot().getEntry("sub").getDirectory();
+        
+        sub.addFile("a file").getFile().write(
+                0, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        
+        final WeakReference<FatLfnDirectory> ref =
+                new WeakReference<FatLfnDirectory>(sub);
+        sub = null;
+        
+        assertFalse(collect(ref));
+        fs.close();
+        
+        fs = mount(0);
+        sub = fs.getRoot().getEntry("sub").getDirectory();
+        assertEquals(3, sub.getEntry("a file").getFile().getLength());
+    }
+    
+    @Test
+    public void testCleanDirectoryDropped() throws IOException {
+        System.out.println("cleanDirectoryDropped");
+        
+        final FatFileSystem fs = mount(0);
+        final ObjectCache cache = fs.getMount().getCache();
+        FatLfnDirectory sub = fs.getRoot().addDirectory("sub").getDirectory();
+        sub.addFile("a file");
+        
+        assertTrue(cache.getPinnedCount() > 0);
+        fs.flush();
+        
+        /* nothing but the weak references in the directories is left */
+        
+        assertEquals(0, cache.getPinnedCount());
+        assertEquals(0, cache.getSize());
+        
+        final WeakReference<FatLfnDirectory> ref =
+                new WeakReference<FatLfnDirectory>(sub);
+        sub = null;
+        
+        /* the rest needs the directory to be gone, which is up to the GC */
+        
+        Assume.assumeTrue(collect(ref));
+        
+        sub = fs.getRoot().getEntry("sub").getDirectory();
+        assertNotNull(sub.getEntry("a file"));
+        
+        sub.addFile("another file");
+        fs.close();
+        
+        final FatFileSystem read = FatFileSystem.read(dev, true);
+        sub = read.getRoot().getEntry("sub").getDirectory();
+        assertNotNull(sub.getEntry("a file"));
+        assertNotNull(sub.getEntry("another file"));
+    }
+    
+    @Test
+    public void testRecentlyUsedKept() throws IOException {
+        System.out.println("recentlyUsedKept");
+        
+        final FatFileSystem fs = mount(16);
+        FatLfnDirectory sub = fs.getRoot().addDirectory("sub").getDirectory();
+        fs.flush();
+        
+        final WeakReference<FatLfnDirectory> ref =
+                new WeakReference<FatLfnDirectory>(sub);
+        sub = null;
+        
+        assertFalse(collect(ref));
+        assertSame(ref.get(), fs.getRoot().getEntry("sub").getDirectory());
+    }
+    
+}
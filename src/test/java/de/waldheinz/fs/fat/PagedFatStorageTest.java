@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class PagedFatStorageTest {
+
+    private BlockDevice dev;
+    private BootSector bs;
+    private PagedFatStorage storage;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dev = new RamDisk(1024 * 1024);
+        this.bs = new Fat16BootSector(dev);
+        this.bs.init();
+        this.bs.setNrFats(2);
+        this.bs.setBytesPerSector(dev.getSectorSize());
+        this.bs.setSectorCount(dev.getSize() / dev.getSectorSize());
+        this.bs.setSectorsPerCluster(1);
+        this.bs.setSectorsPerFat(130);
+        this.bs.write();
+        
+        final Fat fat = Fat.create(bs, 0);
+        fat.writeCopy(bs.getFatOffset(0));
+        fat.writeCopy(bs.getFatOffset(1));
+        
+        this.storage = new PagedFatStorage(bs, bs.getFatOffset(0),
+                130, dev.getSectorSize(), 4 * dev.getSectorSize());
+    }
+
+    @Test
+    public void testReadPagedFat() throws IOException {
+        System.out.println("readPagedFat");
+        
+        final Fat paged = Fat.read(bs, 0,
+                new FatMountOptions().setFatCacheSize(1024));
+        
+        assertTrue(paged.isPaged());
+        assertEquals(Fat.read(bs, 0), paged);
+    }
+    
+    @Test
+    public void testCacheSizeLimit() throws IOException {
+        System.out.println("cacheSizeLimit");
+        
+        for (int i=0; i < storage.getEntryCount(); i++) {
+            storage.setEntry(i, i & 0xfff);
+            assertTrue(storage.getCachedSectorCount() <= 4);
+        }
+        
+        for (int i=0; i < storage.getEntryCount(); i++) {
+            assertEquals(i & 0xfff, storage.getEntry(i));
+        }
+    }
+    
+    @Test
+    public void testEvictWritesAllCopies() throws IOException {
+        System.out.println("evictWritesAllCopies");
+        
+        storage.setEntry(2, 0xabc);
+        
+        /* touch enough other sectors to push out the first one */
+        for (int i=1; i <= 4; i++) {
+            storage.getEntry((int) (i * dev.getSectorSize() /
+                    bs.getFatType().getEntrySize()) + 1);
+        }
+        
+        assertEquals(4, storage.getCachedSectorCount());
+        
+        for (int i=0; i < bs.getNrFats(); i++) {
+            assertEquals(0xabc, Fat.read(bs, i).getEntry(2));
+        }
+    }
+    
+    @Test
+    public void testFlush() throws IOException {
+        System.out.println("flush");
+        
+        storage.setEntry(10, 0x123);
+        storage.setEntry(5000, 0x567);
+        storage.flush();
+        
+        final Fat fat0 = Fat.read(bs, 0);
+        assertEquals(0x123, fat0.getEntry(10));
+        assertEquals(0x567, fat0.getEntry(5000));
+        assertEquals(fat0, Fat.read(bs, 1));
+    }
+    
+    @Test
+    public void testFat12Entries() throws IOException {
+        System.out.println("fat12Entries");
+        
+        final BlockDevice d = new RamDisk(512 * 1024);
+        final BootSector b = new Fat16BootSector(d);
+        b.init();
+        b.setNrFats(2);
+        b.setBytesPerSector(d.getSectorSize());
+        b.setSectorCount(d.getSize() / d.getSectorSize());
+        b.setSectorsPerCluster(1);
+        b.setSectorsPerFat(3);
+        b.write();
+        
+        final PagedFatStorage s = new PagedFatStorage(b, b.getFatOffset(0),
+                3, d.getSectorSize(), d.getSectorSize());
+        
+        /* entry 341 straddles the first and second sector */
+        for (int i=0; i < s.getEntryCount(); i++) {
+            s.setEntry(i, (i * 7) & 0xfff);
+        }
+        
+        s.flush();
+        
+        final Fat fat = Fat.read(b, 0);
+        
+        for (int i=0; i < s.getEntryCount(); i++) {
+            assertEquals((i * 7) & 0xfff, s.getEntry(i));
+            assertEquals((i * 7) & 0xfff, fat.getEntry(i));
+        }
+    }
+    
+}
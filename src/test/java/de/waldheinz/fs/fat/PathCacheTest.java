@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.fat;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.util.RamDisk;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class PathCacheTest {
+    
+    private BlockDevice dev;
+    private FatFileSystem fs;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.dev = new RamDisk(1024 * 1024);
+        this.fs = SuperFloppyFormatter.get(dev).format();
+        
+        final FatLfnDirectory a = fs.getRoot().addDirectory("a").getDirectory();
+        final FatLfnDirectory b = a.addDirectory("Second Level").getDirectory();
+        b.addFile("d.txt");
+        a.addFile("file");
+    }
+    
+    @Test
+    public void testNormalize() {
+        System.out.println("normalize");
+        
+        assertEquals("a/b/c", PathCache.normalize("/A//b \\ c/"));
+        assertEquals("", PathCache.normalize("/"));
+    }
+    
+    @Test
+    public void testResolve() throws IOException {
+        System.out.println("resolve");
+        
+        final FatLfnDirectoryEntry e = fs.resolve("a/second level/D.TXT");
+        assertNotNull(e);
+        assertEquals("d.txt", e.getName());
+        assertSame(e, fs.resolve("\\A\\Second Level\\d.txt"));
+        assertSame(e, fs.resolve("a/SECOND~1/d.txt"));
+        
+        assertEquals("a", fs.resolve("/a/").getName());
+        assertNull(fs.resolve("a/missing/d.txt"));
+        assertNull(fs.resolve("a/file/d.txt"));
+        assertNull(fs.resolve("b"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testResolveEmpty() throws IOException {
+        System.out.println("resolveEmpty");
+        
+        fs.resolve("//");
+    }
+    
+    @Test
+    public void testNegativeInvalidated() throws IOException {
+        System.out.println("negativeInvalidated");
+        
+        assertNull(fs.resolve("a/new"));
+        assertNull(fs.resolve("a/new/x"));
+        
+        final FatLfnDirectory a = fs.resolve("a").getDirectory();
+        a.addDirectory("New").getDirectory().addFile("x");
+        
+        assertNotNull(fs.resolve("a/new"));
+        assertNotNull(fs.resolve("a/new/x"));
+    }
+    
+    @Test
+    public void testRemoveInvalidates() throws IOException {
+        System.out.println("removeInvalidates");
+        
+        assertNotNull(fs.resolve("a/second level/d.txt"));
+        fs.resolve("a").getDirectory().remove("Second Level");
+        
+        assertNull(fs.resolve("a/second level"));
+        assertNull(fs.resolve("a/second level/d.txt"));
+        assertNull(fs.resolve("a/second~1/d.txt"));
+    }
+    
+    @Test
+    public void testRenameInvalidates() throws IOException {
+        System.out.println("renameInvalidates");
+        
+        final FatLfnDirectoryEntry e = fs.resolve("a/second level");
+        assertNotNull(fs.resolve("a/second level/d.txt"));
+        assertNull(fs.resolve("a/third level/d.txt"));
+        
+        e.setName("Third Level");
+        
+        assertNull(fs.resolve("a/second level/d.txt"));
+        assertNotNull(fs.resolve("a/third level/d.txt"));
+    }
+    
+    @Test
+    public void testMoveInvalidates() throws IOException {
+        System.out.println("moveInvalidates");
+        
+        final FatLfnDirectoryEntry e = fs.resolve("a/second level/d.txt");
+        assertNull(fs.resolve("d.txt"));
+        
+        e.moveTo(fs.getRoot(), "moved.txt");
+        
+        assertNull(fs.resolve("a/second level/d.txt"));
+        assertSame(e, fs.resolve("moved.txt"));
+    }
+    
+    @Test
+    public void testMoveDirectory() throws IOException {
+        System.out.println("moveDirectory");
+        
+        assertNull(fs.resolve("moved/d.txt"));
+        fs.resolve("a/second level").moveTo(fs.getRoot(), "Moved");
+        assertNotNull(fs.resolve("moved/d.txt"));
+        fs.close();
+        
+        final FatFileSystem read = FatFileSystem.read(dev, true);
+        assertNotNull(read.resolve("moved/d.txt"));
+        assertNull(read.resolve("a/second level"));
+    }
+    
+    @Test
+    public void testLongAndShortNames() throws IOException {
+        System.out.println("longAndShortNames");
+        
+        assertNull(fs.resolve("a/second level/new.txt"));
+        assertNull(fs.resolve("a/second~1/x"));
+        assertNotNull(fs.resolve("a/second level/d.txt"));
+        assertNotNull(fs.resolve("a/second~1/d.txt"));
+        
+        final FatLfnDirectory dir = fs.resolve("a/second level").getDirectory();
+        dir.addFile("new.txt");
+        dir.addFile("x");
+        
+        assertNotNull(fs.resolve("a/second level/new.txt"));
+        assertNotNull(fs.resolve("a/second~1/new.txt"));
+        assertNotNull(fs.resolve("a/second level/x"));
+        assertNotNull(fs.resolve("a/second~1/x"));
+        
+        dir.remove("d.txt");
+        
+        assertNull(fs.resolve("a/second level/d.txt"));
+        assertNull(fs.resolve("a/second~1/d.txt"));
+    }
+    
+    @Test
+    public void testBounded() throws IOException {
+        System.out.println("bounded");
+        
+        fs.close();
+        
+        final FatFileSystem small = FatFileSystem.read(dev, false,
+                new FatMountOptions().setPathCacheSize(2));
+        
+        for (int i=0; i < 10; i++) {
+            assertNotNull(small.resolve("a/second level/d.txt"));
+            assertNull(small.resolve("a/other " + i));
+            assertNotNull(small.resolve("a/file"));
+        }
+        
+        small.resolve("a").getDirectory().addFile("other 3");
+        assertNotNull(small.resolve("a/other 3"));
+    }
+    
+}
@@ -85,4 +85,76 @@ public class ShortNameGeneratorTest {
         assertEquals(ShortName.get("FOO~1.TXT"),
                 sng.generateShortName("foo.txt"));
     }
+    
+    @Test
+    public void testManyTails() {
+        System.out.println("manyTails");
+        
+        final Set<String> used = new HashSet<String>();
+        final ShortNameGenerator sng = new ShortNameGenerator(used);
+        
+        for (int i=1; i <= 20000; i++) {
+            final ShortName sn =
+                    sng.generateShortName("Holiday Picture " + i + ".jpeg");
+            
+            assertTrue(used.add(sn.asSimpleString().toLowerCase()));
+        }
+        
+        assertTrue(used.contains("holida~1.jpe"));
+        assertTrue(used.contains("holid~10.jpe"));
+        assertTrue(used.contains("hol~1000.jpe"));
+        assertTrue(used.contains("ho~20000.jpe"));
+    }
+    
+    @Test
+    public void testReuseFreedTail() {
+        System.out.println("reuseFreedTail");
+        
+        final Set<String> used = new HashSet<String>();
+        final ShortNameGenerator sng = new ShortNameGenerator(used);
+        
+        for (int i=0; i < 5; i++) {
+            used.add(sng.generateShortName("Long File Name").
+                    asSimpleString().toLowerCase());
+        }
+        
+        used.remove("longfi~2");
+        
+        assertEquals(ShortName.get("LONGFI~6"),
+                sng.generateShortName("Long File Name"));
+        
+        for (int i=6; i < 100000; i++) {
+            used.add("longfi~" + i);
+            used.add("longf~" + i);
+            used.add("long~" + i);
+            used.add("lon~" + i);
+            used.add("lo~" + i);
+        }
+        
+        assertEquals(ShortName.get("LONGFI~2"),
+                sng.generateShortName("Long File Name"));
+    }
+    
+    @Test
+    public void testHashedTails() {
+        System.out.println("hashedTails");
+        
+        final Set<String> used = new HashSet<String>();
+        final ShortNameGenerator sng =
+                new ShortNameGenerator(used, ShortNameStyle.HASHED);
+        
+        for (int i=1; i <= 1000; i++) {
+            final ShortName sn =
+                    sng.generateShortName("Holiday Picture " + i + ".jpeg");
+            final String simple = sn.asSimpleString();
+            
+            assertTrue(used.add(simple.toLowerCase()));
+            
+            if (i <= 4) {
+                assertEquals("HOLIDA~" + i + ".JPE", simple);
+            } else {
+                assertTrue(simple, simple.matches("HO[0-9A-F]{4}~[1-9]\\.JPE"));
+            }
+        }
+    }
 }
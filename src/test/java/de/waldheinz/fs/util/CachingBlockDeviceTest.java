@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.SuperFloppyFormatter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class CachingBlockDeviceTest {
+
+    private final static int SIZE = 64 * 1024 + 100;
+    
+    private RamDisk rd;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.rd = new RamDisk(SIZE);
+        final ByteBuffer bb = ByteBuffer.allocate(SIZE);
+        
+        for (int i=0; i < SIZE; i++) {
+            bb.put(i, (byte) (i * 7));
+        }
+        
+        rd.write(0, bb);
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        System.out.println("read");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, true);
+        
+        /* crosses block boundaries and includes the partial last block */
+        for (int ofs = 0; ofs < SIZE; ofs += 1500) {
+            final ByteBuffer bb = ByteBuffer.allocate(
+                    Math.min(3000, SIZE - ofs));
+            cd.read(ofs, bb);
+            assertFalse(bb.hasRemaining());
+            
+            for (int i=0; i < bb.capacity(); i++) {
+                assertEquals((byte) ((ofs + i) * 7), bb.get(i));
+            }
+        }
+        
+        assertTrue(cd.getCachedBlockCount() <= 8);
+    }
+    
+    @Test
+    public void testHits() throws IOException {
+        System.out.println("hits");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, true);
+        
+        cd.read(0, ByteBuffer.allocate(512));
+        assertEquals(1, cd.getMissCount());
+        
+        cd.read(512, ByteBuffer.allocate(512));
+        cd.read(0, ByteBuffer.allocate(1024));
+        assertEquals(1, cd.getMissCount());
+        assertEquals(2, cd.getHitCount());
+    }
+    
+    @Test
+    public void testWriteBack() throws IOException {
+        System.out.println("writeBack");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, true);
+        
+        cd.write(1000, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }));
+        
+        final ByteBuffer bb = ByteBuffer.allocate(5);
+        cd.read(1000, bb);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, bb.array());
+        
+        bb.clear();
+        rd.read(1000, bb);
+        assertEquals((byte) (1000 * 7), bb.get(0));
+        
+        cd.flush();
+        bb.clear();
+        rd.read(1000, bb);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, bb.array());
+    }
+    
+    @Test
+    public void testWriteThrough() throws IOException {
+        System.out.println("writeThrough");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, false);
+        
+        cd.read(0, ByteBuffer.allocate(2048));
+        cd.write(1020, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }));
+        
+        final ByteBuffer bb = ByteBuffer.allocate(5);
+        rd.read(1020, bb);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, bb.array());
+        
+        bb.clear();
+        cd.read(1020, bb);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, bb.array());
+    }
+    
+    @Test
+    public void testEvictWritesDirty() throws IOException {
+        System.out.println("evictWritesDirty");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 2 * 1024, true);
+        
+        cd.write(0, ByteBuffer.wrap(new byte[] { 42 }));
+        cd.read(4096, ByteBuffer.allocate(2048));
+        assertEquals(2, cd.getCachedBlockCount());
+        
+        final ByteBuffer bb = ByteBuffer.allocate(1);
+        rd.read(0, bb);
+        assertEquals(42, bb.get(0));
+    }
+    
+    @Test
+    public void testCloseFlushes() throws IOException {
+        System.out.println("closeFlushes");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, true);
+        
+        cd.write(SIZE - 10, ByteBuffer.wrap(new byte[] { 9, 8, 7 }));
+        cd.close();
+        
+        assertTrue(rd.isClosed());
+        assertTrue(cd.isClosed());
+        
+        final ByteBuffer data = rd.getBuffer();
+        assertEquals(9, data.get(SIZE - 10));
+        assertEquals(7, data.get(SIZE - 8));
+    }
+    
+    @Test(expected=IOException.class)
+    public void testReadPastEnd() throws IOException {
+        System.out.println("readPastEnd");
+        
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(rd, 1024, 8 * 1024, true);
+        
+        cd.read(SIZE - 10, ByteBuffer.allocate(11));
+    }
+    
+    @Test
+    public void testFileSystem() throws IOException {
+        System.out.println("fileSystem");
+        
+        final RamDisk disk = new RamDisk(2 * 1024 * 1024);
+        final CachingBlockDevice cd =
+                new CachingBlockDevice(disk, 64 * 1024, true);
+        
+        FatFileSystem fs = SuperFloppyFormatter.get(cd).format();
+        
+        for (int i=0; i < 20; i++) {
+            final FsFile f = fs.getRoot().addFile("file-" + i).getFile();
+            f.write(0, ByteBuffer.wrap(("content #" + i).getBytes()));
+        }
+        
+        fs.close();
+        cd.flush();
+        
+        fs = FatFileSystem.read(disk, true);
+        
+        for (int i=0; i < 20; i++) {
+            final FsFile f = fs.getRoot().getEntry("file-" + i).getFile();
+            final ByteBuffer bb = ByteBuffer.allocate((int) f.getLength());
+            f.read(0, bb);
+            assertEquals("content #" + i, new String(bb.array()));
+        }
+    }
+    
+}
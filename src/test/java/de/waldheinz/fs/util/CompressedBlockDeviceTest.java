@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.FsDirectoryEntry;
+import de.waldheinz.fs.ReadOnlyException;
+import de.waldheinz.fs.fat.FatFileSystem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class CompressedBlockDeviceTest {
+    
+    private final static int SIZE = 64 * 1024 + 100;
+    
+    private File f;
+    private RamDisk rd;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.f = File.createTempFile("compressedBlockDeviceTest", ".img");
+        this.f.deleteOnExit();
+        this.rd = new RamDisk(SIZE);
+        
+        final ByteBuffer bb = ByteBuffer.allocate(SIZE);
+        final Random rnd = new Random(42);
+        
+        /* some compressible and some random data */
+        for (int i=0; i < SIZE; i++) {
+            bb.put(i, (i < SIZE / 2) ? (byte) (i / 100) : (byte) rnd.nextInt());
+        }
+        
+        rd.write(0, bb);
+    }
+    
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        System.out.println("round trip");
+        
+        CompressedBlockDevice.compress(rd, f, 1024);
+        assertTrue(f.length() < SIZE);
+        
+        final CompressedBlockDevice cd = new CompressedBlockDevice(f);
+        
+        assertEquals(SIZE, cd.getSize());
+        assertEquals(rd.getSectorSize(), cd.getSectorSize());
+        assertTrue(cd.isReadOnly());
+        
+        final ByteBuffer expected = ByteBuffer.allocate(SIZE);
+        final ByteBuffer actual = ByteBuffer.allocate(SIZE);
+        rd.read(0, expected);
+        cd.read(0, actual);
+        expected.flip();
+        actual.flip();
+        
+        assertEquals(expected, actual);
+        cd.close();
+        assertTrue(cd.isClosed());
+    }
+    
+    @Test
+    public void testRandomRead() throws IOException {
+        System.out.println("random read");
+        
+        CompressedBlockDevice.compress(rd, f, 1024);
+        
+        final CompressedBlockDevice cd =
+                new CompressedBlockDevice(f, 4 * 1024);
+        final Random rnd = new Random(1);
+        
+        for (int i=0; i < 200; i++) {
+            final int ofs = rnd.nextInt(SIZE);
+            final int len = rnd.nextInt(Math.min(5000, SIZE - ofs) + 1);
+            final ByteBuffer expected = ByteBuffer.allocate(len);
+            final ByteBuffer actual = ByteBuffer.allocate(len);
+            
+            rd.read(ofs, expected);
+            cd.read(ofs, actual);
+            expected.flip();
+            actual.flip();
+            
+            assertEquals(expected, actual);
+            assertTrue(cd.getCachedBlockCount() <= 4);
+        }
+        
+        cd.close();
+    }
+    
+    @Test(expected=ReadOnlyException.class)
+    public void testWrite() throws IOException {
+        System.out.println("write");
+        
+        CompressedBlockDevice.compress(rd, f, 1024);
+        final CompressedBlockDevice cd = new CompressedBlockDevice(f);
+        
+        try {
+            cd.write(0, ByteBuffer.allocate(512));
+        } finally {
+            cd.close();
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void testNotCompressed() throws IOException {
+        System.out.println("not compressed");
+        
+        final FileDisk fd = FileDisk.create(f, 1024);
+        fd.close();
+        
+        new CompressedBlockDevice(f);
+    }
+    
+    @Test
+    public void testMount() throws IOException {
+        System.out.println("mount");
+        
+        final RamDisk img = RamDisk.readGzipped(getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz"));
+        CompressedBlockDevice.compress(
+                img, f, CompressedBlockDevice.DEFAULT_BLOCK_SIZE);
+        assertTrue(f.length() < img.getSize());
+        
+        final CompressedBlockDevice cd = new CompressedBlockDevice(f);
+        final FatFileSystem fs = FatFileSystem.read(cd, true);
+        final Iterator<FsDirectoryEntry> it = fs.getRoot().iterator();
+        
+        assertTrue(it.hasNext());
+        
+        fs.close();
+        cd.close();
+    }
+    
+}
@@ -112,4 +112,73 @@ public class FileDiskTest {
         assertEquals(reference, read);
     }
     
+    @Test
+    public void testVectoredWrite() throws IOException {
+        System.out.println("vectoredWrite");
+        
+        /* unsorted, partly adjacent segments */
+        final long[] offsets = { 3000, 1000, 1500, 512 * 1024 };
+        final ByteBuffer[] bufs = new ByteBuffer[offsets.length];
+        
+        for (int i=0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.allocate(500);
+            for (int j=0; j < 500; j++) bufs[i].put(j, (byte) (i + 1));
+        }
+        
+        fd.write(offsets, bufs);
+        
+        for (int i=0; i < bufs.length; i++) {
+            assertFalse(bufs[i].hasRemaining());
+            
+            final ByteBuffer read = ByteBuffer.allocate(500);
+            fd.read(offsets[i], read);
+            
+            for (int j=0; j < 500; j++) {
+                assertEquals(i + 1, read.get(j));
+            }
+        }
+    }
+    
+    @Test
+    public void testVectoredRead() throws IOException {
+        System.out.println("vectoredRead");
+        
+        final ByteBuffer data = ByteBuffer.allocate(4096);
+        for (int i=0; i < 4096; i++) data.put(i, (byte) (i / 16));
+        fd.write(0, data);
+        
+        final long[] offsets = { 2048, 0, 1024, 100 };
+        final ByteBuffer[] bufs = {
+            ByteBuffer.allocate(1024), ByteBuffer.allocate(100),
+            ByteBuffer.allocate(1024), ByteBuffer.allocate(924)
+        };
+        
+        fd.read(offsets, bufs);
+        
+        for (int i=0; i < offsets.length; i++) {
+            assertFalse(bufs[i].hasRemaining());
+            
+            for (int j=0; j < bufs[i].capacity(); j++) {
+                assertEquals((byte) ((offsets[i] + j) / 16), bufs[i].get(j));
+            }
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void testVectoredReadPastEnd() throws IOException {
+        System.out.println("vectoredReadPastEnd");
+        
+        fd.read(new long[] { 0, SIZE - 10 }, new ByteBuffer[] {
+            ByteBuffer.allocate(10), ByteBuffer.allocate(20) });
+    }
+    
+    @Test(expected=ReadOnlyException.class)
+    public void testVectoredWriteReadOnly() throws IOException {
+        System.out.println("vectoredWriteReadOnly");
+        
+        fd.close();
+        fd = new FileDisk(f, true);
+        fd.write(new long[] { 0 }, new ByteBuffer[] { ByteBuffer.allocate(1) });
+    }
+    
 }
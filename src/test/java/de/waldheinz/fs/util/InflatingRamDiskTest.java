@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.FsDirectoryEntry;
+import de.waldheinz.fs.fat.FatFileSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class InflatingRamDiskTest {
+    
+    private final static String IMAGE = "/de/waldheinz/fs/fat/fat16-test.img.gz";
+    
+    private InputStream open() {
+        return getClass().getResourceAsStream(IMAGE);
+    }
+    
+    @Test
+    public void testMount() throws IOException {
+        System.out.println("mount");
+        
+        final InflatingRamDisk dev = InflatingRamDisk.start(open(), 10240000);
+        final FatFileSystem fs = FatFileSystem.read(dev, true);
+        final Iterator<FsDirectoryEntry> it = fs.getRoot().iterator();
+        
+        assertTrue(it.hasNext());
+        
+        dev.awaitCompletion();
+        assertTrue(dev.isFinished());
+        
+        final RamDisk ref = RamDisk.readGzipped(open());
+        final ByteBuffer expected = ByteBuffer.allocate(10240000);
+        final ByteBuffer actual = ByteBuffer.allocate(10240000);
+        ref.read(0, expected);
+        dev.read(0, actual);
+        expected.flip();
+        actual.flip();
+        
+        assertEquals(expected, actual);
+    }
+    
+    @Test(expected=IOException.class)
+    public void testWrongSize() throws IOException {
+        System.out.println("wrong size");
+        
+        final InflatingRamDisk dev =
+                InflatingRamDisk.start(open(), 10240000 + 512);
+        
+        dev.read(10240000, ByteBuffer.allocate(512));
+    }
+    
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.FatLfnDirectory;
+import de.waldheinz.fs.fat.SuperFloppyFormatter;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class InstrumentedBlockDeviceTest {
+    
+    private RamDisk rd;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.rd = new RamDisk(1024 * 1024);
+        SuperFloppyFormatter.get(rd).format().close();
+    }
+    
+    @Test
+    public void testUntagged() throws IOException {
+        System.out.println("untagged");
+        
+        final InstrumentedBlockDevice dev = new InstrumentedBlockDevice(rd);
+        
+        dev.read(0, ByteBuffer.allocate(1000));
+        dev.write(512, ByteBuffer.allocate(24));
+        dev.flush();
+        
+        final IoStatistics reads =
+                dev.getStatistics(IoOrigin.UNKNOWN, Operation.READ);
+        
+        assertEquals(1, reads.getCount());
+        assertEquals(1000, reads.getBytes());
+        assertEquals(1, reads.getSizeHistogram()[10]);
+        assertEquals(1, dev.getStatistics(Operation.WRITE).getCount());
+        assertEquals(24, dev.getStatistics(Operation.WRITE).getBytes());
+        assertEquals(1, dev.getStatistics(Operation.FLUSH).getCount());
+        assertEquals(3, dev.getSnapshot().size());
+        
+        dev.reset();
+        
+        assertEquals(0, dev.getStatistics(Operation.READ).getCount());
+        assertTrue(dev.getSnapshot().isEmpty());
+    }
+    
+    @Test
+    public void testOrigins() throws IOException {
+        System.out.println("origins");
+        
+        final InstrumentedBlockDevice dev = new InstrumentedBlockDevice(rd);
+        FatFileSystem fs = FatFileSystem.read(dev, false);
+        
+        assertTrue(dev.getStatistics(
+                IoOrigin.SECTOR, Operation.READ).getCount() > 0);
+        assertTrue(dev.getStatistics(
+                IoOrigin.FAT, Operation.READ).getCount() > 0);
+        assertTrue(dev.getStatistics(
+                IoOrigin.DIRECTORY, Operation.READ).getCount() > 0);
+        
+        dev.reset();
+        
+        final FsFile file = fs.getRoot().addFile("test.bin").getFile();
+        file.write(0, ByteBuffer.allocate(10000));
+        fs.flush();
+        
+        assertEquals(10000, dev.getStatistics(
+                IoOrigin.FILE_DATA, Operation.WRITE).getBytes());
+        assertTrue(dev.getStatistics(
+                IoOrigin.FAT, Operation.WRITE).getCount() > 0);
+        assertTrue(dev.getStatistics(
+                IoOrigin.DIRECTORY, Operation.WRITE).getCount() > 0);
+        assertEquals(0, dev.getStatistics(
+                IoOrigin.UNKNOWN, Operation.WRITE).getCount());
+        
+        final Map<String, Long> counts = dev.getOperationCounts();
+        assertTrue(counts.containsKey("FILE_DATA.WRITE"));
+        assertFalse(counts.containsKey("FILE_DATA.READ"));
+    }
+    
+    @Test
+    public void testPercentile() throws IOException {
+        System.out.println("percentile");
+        
+        final long[] latencies = new long[IoStatistics.BUCKET_COUNT];
+        latencies[4] = 90; /* 8 .. 15 ns */
+        latencies[10] = 10; /* 512 .. 1023 ns */
+        
+        final IoStatistics s = new IoStatistics(100, 0, 10000, 1000,
+                new long[IoStatistics.BUCKET_COUNT], latencies);
+        
+        assertEquals(15, s.getLatencyPercentile(0.5));
+        assertEquals(15, s.getLatencyPercentile(0.9));
+        assertEquals(1000, s.getLatencyPercentile(0.99));
+        assertEquals(100, s.getMeanNanos());
+        assertEquals(0, s.plus(s).getLatencyHistogram()[0]);
+        assertEquals(200, s.plus(s).getCount());
+    }
+    
+    @Test
+    public void testJmx() throws Exception {
+        System.out.println("jmx");
+        
+        final InstrumentedBlockDevice dev = new InstrumentedBlockDevice(rd);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(
+                "de.waldheinz.fs:type=BlockDevice,name=test");
+        
+        dev.read(0, ByteBuffer.allocate(512));
+        server.registerMBean(dev, name);
+        
+        try {
+            assertNotNull(server.getAttribute(name, "OperationCounts"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertTrue(dev.getSnapshot().isEmpty());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+    
+    @Test
+    public void testNesting() {
+        System.out.println("nesting");
+        
+        final IoOrigin outer = IoOrigin.DIRECTORY.enter();
+        final IoOrigin inner = IoOrigin.FAT.enter();
+        
+        assertEquals(IoOrigin.FAT, IoOrigin.current());
+        IoOrigin.leave(inner);
+        assertEquals(IoOrigin.DIRECTORY, IoOrigin.current());
+        IoOrigin.leave(outer);
+        assertEquals(IoOrigin.UNKNOWN, IoOrigin.current());
+    }
+    
+    @Test
+    public void testSubDirectory() throws IOException {
+        System.out.println("subDirectory");
+        
+        final InstrumentedBlockDevice dev = new InstrumentedBlockDevice(rd);
+        final FatFileSystem fs = FatFileSystem.read(dev, false);
+        final FatLfnDirectory sub =
+                fs.getRoot().addDirectory("sub").getDirectory();
+        fs.flush();
+        dev.reset();
+        
+        for (int i=0; i < 100; i++) {
+            sub.addFile("file " + i);
+        }
+        
+        fs.flush();
+        
+        assertTrue(dev.getStatistics(
+                IoOrigin.DIRECTORY, Operation.WRITE).getCount() > 0);
+        assertTrue(dev.getStatistics(
+                IoOrigin.FAT, Operation.WRITE).getCount() > 0);
+        assertEquals(0, dev.getStatistics(
+                IoOrigin.FILE_DATA, Operation.WRITE).getCount());
+        assertEquals(0, dev.getStatistics(
+                IoOrigin.UNKNOWN, Operation.WRITE).getCount());
+    }
+    
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.BlockDevice;
+import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.ReadOnlyException;
+import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.SuperFloppyFormatter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class OverlayBlockDeviceTest {
+    
+    private final static int SIZE = 64 * 1024 + 100;
+    
+    private RamDisk base;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.base = new RamDisk(SIZE);
+        final ByteBuffer bb = ByteBuffer.allocate(SIZE);
+        
+        for (int i=0; i < SIZE; i++) {
+            bb.put(i, (byte) (i * 7));
+        }
+        
+        base.write(0, bb);
+    }
+    
+    private void checkContents(BlockDevice dev, byte[] expected)
+            throws IOException {
+        
+        final ByteBuffer actual = ByteBuffer.allocate(expected.length);
+        dev.read(0, actual);
+        actual.flip();
+        
+        assertEquals(ByteBuffer.wrap(expected), actual);
+    }
+    
+    private byte[] baseContents() throws IOException {
+        final byte[] result = new byte[SIZE];
+        base.read(0, ByteBuffer.wrap(result));
+        return result;
+    }
+    
+    private void randomWrites(BlockDevice dev, byte[] expected)
+            throws IOException {
+        
+        final Random rnd = new Random(42);
+        
+        for (int i=0; i < 50; i++) {
+            final int ofs = rnd.nextInt(SIZE);
+            final int len = rnd.nextInt(Math.min(3000, SIZE - ofs) + 1);
+            final byte[] data = new byte[len];
+            rnd.nextBytes(data);
+            
+            dev.write(ofs, ByteBuffer.wrap(data));
+            System.arraycopy(data, 0, expected, ofs, len);
+        }
+    }
+    
+    @Test
+    public void testReadThrough() throws IOException {
+        System.out.println("read through");
+        
+        final OverlayBlockDevice od = new OverlayBlockDevice(base);
+        
+        assertEquals(SIZE, od.getSize());
+        assertFalse(od.isReadOnly());
+        checkContents(od, baseContents());
+        assertEquals(0, od.getModifiedBlockCount());
+    }
+    
+    @Test
+    public void testWriteMemory() throws IOException {
+        System.out.println("write (memory)");
+        
+        final byte[] original = baseContents();
+        final byte[] expected = baseContents();
+        final OverlayBlockDevice od = new OverlayBlockDevice(base);
+        
+        randomWrites(od, expected);
+        
+        checkContents(od, expected);
+        checkContents(base, original);
+        assertTrue(od.getModifiedBlockCount() > 0);
+    }
+    
+    @Test
+    public void testWriteFile() throws IOException {
+        System.out.println("write (file)");
+        
+        final File f = File.createTempFile("overlayBlockDeviceTest", ".tmp");
+        f.deleteOnExit();
+        
+        try {
+            final byte[] original = baseContents();
+            final byte[] expected = baseContents();
+            final OverlayBlockDevice od =
+                    new OverlayBlockDevice(base, 1024, f);
+            
+            randomWrites(od, expected);
+            od.flush();
+            
+            checkContents(od, expected);
+            checkContents(base, original);
+            assertTrue(f.length() <= od.getModifiedBlockCount() * 1024L);
+            od.close();
+        } finally {
+            f.delete();
+        }
+    }
+    
+    @Test
+    public void testPartialBlock() throws IOException {
+        System.out.println("partial block");
+        
+        final byte[] expected = baseContents();
+        final OverlayBlockDevice od = new OverlayBlockDevice(base, 1024, null);
+        
+        od.write(1500, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        expected[1500] = 1;
+        expected[1501] = 2;
+        expected[1502] = 3;
+        
+        assertEquals(1, od.getModifiedBlockCount());
+        checkContents(od, expected);
+    }
+    
+    @Test
+    public void testShared() throws IOException {
+        System.out.println("shared");
+        
+        final OverlayBlockDevice od1 = new OverlayBlockDevice(base);
+        final OverlayBlockDevice od2 = new OverlayBlockDevice(base);
+        final byte[] expected = baseContents();
+        
+        od1.write(0, ByteBuffer.wrap(new byte[] { 1 }));
+        checkContents(od2, expected);
+        od1.close();
+        
+        assertFalse(base.isClosed());
+        checkContents(od2, expected);
+    }
+    
+    @Test
+    public void testCommit() throws IOException {
+        System.out.println("commit");
+        
+        final byte[] expected = baseContents();
+        final OverlayBlockDevice od = new OverlayBlockDevice(base, 1024, null);
+        
+        randomWrites(od, expected);
+        od.commit();
+        
+        assertEquals(0, od.getModifiedBlockCount());
+        checkContents(base, expected);
+        checkContents(od, expected);
+    }
+    
+    @Test(expected=ReadOnlyException.class)
+    public void testCommitReadOnly() throws IOException {
+        System.out.println("commit (read only)");
+        
+        final File f = File.createTempFile("overlayBlockDeviceTest", ".img");
+        f.deleteOnExit();
+        
+        try {
+            FileDisk.create(f, SIZE).close();
+            final FileDisk fd = new FileDisk(f, true);
+            final OverlayBlockDevice od = new OverlayBlockDevice(fd);
+            
+            try {
+                od.write(0, ByteBuffer.wrap(new byte[] { 1 }));
+                od.commit();
+            } finally {
+                fd.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+    
+    @Test
+    public void testExport() throws IOException {
+        System.out.println("export");
+        
+        final byte[] expected = baseContents();
+        final OverlayBlockDevice od = new OverlayBlockDevice(base);
+        final RamDisk target = new RamDisk(SIZE);
+        
+        randomWrites(od, expected);
+        od.export(target);
+        
+        checkContents(target, expected);
+    }
+    
+    @Test
+    public void testFileSystem() throws IOException {
+        System.out.println("file system");
+        
+        final RamDisk golden = new RamDisk(1024 * 1024);
+        SuperFloppyFormatter.get(golden).format().close();
+        
+        final OverlayBlockDevice od = new OverlayBlockDevice(golden);
+        final FatFileSystem fs = FatFileSystem.read(od, false);
+        final FsFile file = fs.getRoot().addFile("test.txt").getFile();
+        file.write(0, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        fs.close();
+        
+        assertTrue(od.getModifiedBlockCount() > 0);
+        assertNotNull(FatFileSystem.read(od, true).getRoot().getEntry(
+                "test.txt"));
+        assertNull(FatFileSystem.read(golden, true).getRoot().getEntry(
+                "test.txt"));
+    }
+    
+}
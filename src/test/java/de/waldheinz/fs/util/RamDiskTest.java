@@ -18,8 +18,14 @@
 
 package de.waldheinz.fs.util;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -50,4 +56,163 @@ public class RamDiskTest {
         d.flush();
     }
     
+    @Test
+    public void testSegments() throws IOException {
+        System.out.println("segments");
+        
+        final int size = 100000;
+        final RamDisk d = new RamDisk(size, 512, 999);
+        final ByteBuffer reference = ByteBuffer.allocate(size);
+        new Random(4711).nextBytes(reference.array());
+        
+        for (int ofs=0; ofs < size; ofs += 2500) {
+            reference.limit(Math.min(size, ofs + 2500));
+            reference.position(ofs);
+            d.write(ofs, reference);
+            assertFalse(reference.hasRemaining());
+        }
+        
+        for (int ofs=0; ofs < size; ofs += 1700) {
+            final ByteBuffer read =
+                    ByteBuffer.allocate(Math.min(3000, size - ofs));
+            d.read(ofs, read);
+            
+            for (int i=0; i < read.capacity(); i++) {
+                assertEquals(reference.get(ofs + i), read.get(i));
+            }
+        }
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testGetBufferSegmented() {
+        System.out.println("getBuffer (segmented)");
+        
+        new RamDisk(2000, 512, 1000).getBuffer();
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testWritePastEnd() throws IOException {
+        System.out.println("writePastEnd");
+        
+        new RamDisk(4096).write(4000, ByteBuffer.allocate(97));
+    }
+    
+    @Test
+    public void testConcurrentReads() throws Exception {
+        System.out.println("concurrentReads");
+        
+        final int size = 256 * 1024;
+        final RamDisk d = new RamDisk(size, 512, 10000);
+        final ByteBuffer data = ByteBuffer.allocate(size);
+        
+        for (int i=0; i < size; i++) {
+            data.put(i, (byte) (i % 251));
+        }
+        
+        d.write(0, data);
+        
+        final AtomicReference<Throwable> error =
+                new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        
+        for (int t=0; t < threads.length; t++) {
+            final long seed = t;
+            
+            threads[t] = new Thread() {
+                
+                @Override
+                public void run() {
+                    final Random rnd = new Random(seed);
+                    
+                    try {
+                        for (int n=0; n < 2000; n++) {
+                            final int ofs = rnd.nextInt(size - 4096);
+                            final ByteBuffer bb = ByteBuffer.allocate(4096);
+                            d.read(ofs, bb);
+                            
+                            for (int i=0; i < 4096; i++) {
+                                if (bb.get(i) != (byte) ((ofs + i) % 251)) {
+                                    throw new AssertionError(
+                                            "wrong data at " + (ofs + i));
+                                }
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    }
+                }
+            };
+            
+            threads[t].start();
+        }
+        
+        for (Thread t : threads) {
+            t.join();
+        }
+        
+        assertNull(error.get());
+    }
+    
+    @Test
+    public void testReadGzippedSized() throws IOException {
+        System.out.println("readGzipped (sized)");
+        
+        final RamDisk rd = RamDisk.readGzipped(getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz"), 10240000);
+        
+        assertEquals(10240000, rd.getSize());
+        
+        final RamDisk ref = RamDisk.readGzipped(getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz"));
+        
+        assertEquals(ref.getBuffer(), rd.getBuffer());
+    }
+    
+    @Test(expected=IOException.class)
+    public void testReadGzippedTooSmall() throws IOException {
+        System.out.println("readGzipped (size too small)");
+        
+        RamDisk.readGzipped(getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz"), 10240000 - 512);
+    }
+    
+    @Test(expected=IOException.class)
+    public void testReadGzippedTooLarge() throws IOException {
+        System.out.println("readGzipped (size too large)");
+        
+        RamDisk.readGzipped(getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz"), 10240000 + 512);
+    }
+    
+    @Test
+    public void testReadGzippedFile() throws IOException {
+        System.out.println("readGzipped (file)");
+        
+        final File f = File.createTempFile("ramDiskTest", ".img.gz");
+        f.deleteOnExit();
+        
+        final InputStream is = getClass().getResourceAsStream(
+                "/de/waldheinz/fs/fat/fat16-test.img.gz");
+        final OutputStream os = new FileOutputStream(f);
+        
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            
+            while ((read = is.read(buffer)) >= 0) {
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+        
+        try {
+            assertEquals(10240000, RamDisk.getGzipSizeHint(f));
+            assertEquals(10240000, RamDisk.readGzipped(f).getSize());
+        } finally {
+            f.delete();
+        }
+    }
+    
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2009-2013 Matthias Treydte <mt@waldheinz.de>
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; If not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package de.waldheinz.fs.util;
+
+import de.waldheinz.fs.FsFile;
+import de.waldheinz.fs.IoOrigin;
+import de.waldheinz.fs.fat.FatFileSystem;
+import de.waldheinz.fs.fat.SuperFloppyFormatter;
+import de.waldheinz.fs.util.InstrumentedBlockDevice.Operation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TracingBlockDevice}, {@link BlockTrace} and
+ * {@link TraceReplay} classes.
+ *
+ * @author Matthias Treydte &lt;waldheinz at gmail.com&gt;
+ */
+public class TraceReplayTest {
+    
+    private File f;
+    
+    @Before
+    public void setUp() throws IOException {
+        this.f = File.createTempFile("traceReplayTest", ".trace");
+        this.f.deleteOnExit();
+    }
+    
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+    
+    @Test
+    public void testRecord() throws IOException {
+        System.out.println("record");
+        
+        final RamDisk rd = new RamDisk(64 * 1024);
+        final TracingBlockDevice td = new TracingBlockDevice(rd, f, true);
+        final byte[] data = new byte[] { 1, 2, 3, 4 };
+        
+        td.write(1000, ByteBuffer.wrap(data));
+        td.read(1000, ByteBuffer.allocate(4));
+        td.flush();
+        td.closeTrace();
+        td.read(0, ByteBuffer.allocate(4));
+        
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        
+        final BlockTrace bt = BlockTrace.open(f);
+        
+        assertEquals(64 * 1024, bt.getDeviceSize());
+        assertEquals(512, bt.getSectorSize());
+        assertTrue(bt.isHashed());
+        
+        assertTrue(bt.next());
+        assertEquals(Operation.WRITE, bt.getOperation());
+        assertEquals(IoOrigin.UNKNOWN, bt.getOrigin());
+        assertEquals(1000, bt.getOffset());
+        assertEquals(4, bt.getLength());
+        assertEquals((int) crc.getValue(), bt.getHash());
+        
+        final long t = bt.getTimestamp();
+        
+        assertTrue(bt.next());
+        assertEquals(Operation.READ, bt.getOperation());
+        assertEquals((int) crc.getValue(), bt.getHash());
+        assertTrue(bt.getTimestamp() >= t);
+        
+        assertTrue(bt.next());
+        assertEquals(Operation.FLUSH, bt.getOperation());
+        assertEquals(0, bt.getLength());
+        
+        assertFalse(bt.next());
+        bt.close();
+    }
+    
+    @Test(expected=IOException.class)
+    public void testNotATrace() throws IOException {
+        System.out.println("not a trace");
+        
+        FileDisk.create(f, 1024).close();
+        BlockTrace.open(f);
+    }
+    
+    @Test
+    public void testReplay() throws IOException {
+        System.out.println("replay");
+        
+        final RamDisk rd = new RamDisk(1024 * 1024);
+        SuperFloppyFormatter.get(rd).format().close();
+        
+        final TracingBlockDevice td = new TracingBlockDevice(rd, f, false);
+        final FatFileSystem fs = FatFileSystem.read(td, false);
+        final FsFile file = fs.getRoot().addFile("test.bin").getFile();
+        file.write(0, ByteBuffer.allocate(20000));
+        fs.close();
+        td.closeTrace();
+        
+        final RamDisk target = new RamDisk(1024 * 1024);
+        final TraceReplay r = TraceReplay.run(f, target);
+        
+        assertTrue(r.getRecordCount() > 0);
+        assertEquals(20000, r.getStatistics().get(
+                "FILE_DATA.WRITE").getBytes());
+        assertTrue(r.getStatistics().containsKey("FAT.READ"));
+        assertTrue(r.getStatistics(Operation.READ).getCount() > 0);
+        assertTrue(r.getThroughput() > 0);
+    }
+    
+    @Test
+    public void testBatch() throws IOException {
+        System.out.println("batch");
+        
+        final TracingBlockDevice td =
+                new TracingBlockDevice(new RamDisk(64 * 1024), f, false);
+        
+        td.write(new long[] { 4096, 512, 8192 }, new ByteBuffer[] {
+            ByteBuffer.allocate(512), ByteBuffer.allocate(1024),
+            ByteBuffer.allocate(512) });
+        td.read(0, ByteBuffer.allocate(512));
+        td.closeTrace();
+        
+        final BlockTrace bt = BlockTrace.open(f);
+        
+        assertTrue(bt.next());
+        assertEquals(4096, bt.getOffset());
+        assertTrue(bt.isContinued());
+        assertTrue(bt.next());
+        assertEquals(1024, bt.getLength());
+        assertTrue(bt.isContinued());
+        assertTrue(bt.next());
+        assertEquals(8192, bt.getOffset());
+        assertFalse(bt.isContinued());
+        assertTrue(bt.next());
+        assertEquals(Operation.READ, bt.getOperation());
+        assertFalse(bt.isContinued());
+        assertFalse(bt.next());
+        bt.close();
+        
+        final TraceReplay r = TraceReplay.run(f, new RamDisk(64 * 1024));
+        
+        assertEquals(4, r.getRecordCount());
+        assertEquals(1, r.getStatistics(Operation.WRITE).getCount());
+        assertEquals(2048, r.getStatistics(Operation.WRITE).getBytes());
+        assertEquals(1, r.getStatistics(Operation.READ).getCount());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testReplayTooSmall() throws IOException {
+        System.out.println("replay (too small)");
+        
+        new TracingBlockDevice(new RamDisk(64 * 1024), f, false).close();
+        TraceReplay.run(f, new RamDisk(32 * 1024));
+    }
+    
+}